@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+
+/**
+ * Receives the mixed cpu rate samples of {@link NesApu} before the
+ * resampling, e.g. for measuring the level, which used to be computed every
+ * frame for the trace log.
+ * <p>
+ * Called for the fir path only, the band limited steps and the fixed point
+ * path do not make float samples at the cpu rate.
+ * </p>
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ * @see Nsf#setMetricsListener(ApuMetricsListener)
+ */
+public interface ApuMetricsListener {
+
+    /**
+     * called after a frame is filtered
+     * @param wave mixed samples, must not be modified
+     * @param from the first sample of the frame
+     * @param to the end of the frame, exclusive
+     */
+    void mixed(float[] wave, int from, int to);
+}
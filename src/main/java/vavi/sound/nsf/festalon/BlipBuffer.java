@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import java.util.Arrays;
+
+
+/**
+ * Band limited step synthesis.
+ * <p>
+ * Amplitude changes at cpu cycles are added as windowed sinc impulses at the
+ * output rate, and integrated into steps on reading, so a signal at the cpu
+ * rate is never made. The output is delayed by {@link #WIDTH} / 2 samples.
+ * </p>
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+class BlipBuffer {
+
+    /** taps of an impulse */
+    static final int WIDTH = 32;
+
+    /** */
+    private static final int PHASE_BITS = 6;
+
+    /** fractional positions between output samples */
+    private static final int PHASES = 1 << PHASE_BITS;
+
+    /** cutoff in the output rate, stop band starts around the nyquist */
+    private static final double CUTOFF = 0.42;
+
+    /** impulses by the fractional position, each sums to 1 */
+    private static final float[][] kernels = new float[PHASES][WIDTH];
+
+    static {
+        for (int phase = 0; phase < PHASES; phase++) {
+            double sum = 0;
+            double[] kernel = new double[WIDTH];
+            for (int i = 0; i < WIDTH; i++) {
+                double x = i - WIDTH / 2 + 1 - (phase + 0.5) / PHASES;
+                double sinc = x == 0 ? 1 : Math.sin(Math.PI * 2 * CUTOFF * x) / (Math.PI * 2 * CUTOFF * x);
+                double t = (x + WIDTH / 2d) / WIDTH; // blackman
+                double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * t) + 0.08 * Math.cos(4 * Math.PI * t);
+                kernel[i] = sinc * window;
+                sum += kernel[i];
+            }
+            for (int i = 0; i < WIDTH; i++) {
+                kernels[phase][i] = (float) (kernel[i] / sum);
+            }
+        }
+    }
+
+    /** output rate */
+    final int rate;
+
+    /** output samples per cpu cycle, 32.32 fixed point */
+    private final long factor;
+
+    /** fractional output position of the frame start, 32.32 fixed point */
+    private long offset;
+
+    /** deltas by output sample, the head {@link #WIDTH} carry over to the next frame */
+    private double[] buffer;
+
+    /** integrated level */
+    private double sum;
+
+    /**
+     * @param cycles cpu cycles of a frame at most
+     */
+    BlipBuffer(double cpuClock, int rate, int cycles) {
+        this.rate = rate;
+        this.factor = (long) (rate / cpuClock * (1L << 32));
+        this.buffer = new double[(int) ((cycles * factor) >>> 32) + 1 + WIDTH];
+    }
+
+    /** */
+    void clear() {
+        offset = 0;
+        sum = 0;
+        Arrays.fill(buffer, 0);
+    }
+
+    /**
+     * @param time cpu cycles from the frame start
+     * @param delta amplitude change at the time
+     */
+    void addDelta(int time, float delta) {
+        long position = offset + time * factor;
+        int index = (int) (position >>> 32);
+        if (index + WIDTH > buffer.length) {
+            buffer = Arrays.copyOf(buffer, index + WIDTH);
+        }
+        float[] kernel = kernels[(int) (position >>> (32 - PHASE_BITS)) & (PHASES - 1)];
+        for (int i = 0; i < WIDTH; i++) {
+            buffer[index + i] += delta * kernel[i];
+        }
+    }
+
+    /**
+     * Ends the frame.
+     * @param time cpu cycles of the frame
+     * @param out samples in the amplitude unit
+     * @return the number of samples
+     */
+    int read(int time, float[] out) {
+        long position = offset + time * factor;
+        int count = Math.min((int) (position >>> 32), out.length);
+        for (int i = 0; i < count; i++) {
+            sum += buffer[i];
+            out[i] = (float) sum;
+        }
+        System.arraycopy(buffer, count, buffer, 0, WIDTH);
+        Arrays.fill(buffer, WIDTH, count + WIDTH, 0);
+        offset = position - ((long) count << 32);
+        return count;
+    }
+}
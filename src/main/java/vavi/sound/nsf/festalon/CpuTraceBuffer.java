@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import java.io.PrintStream;
+
+
+/**
+ * Binary ring buffer tracer, keeps the last {@code capacity} events without
+ * formatting anything until {@link #dump(PrintStream)} is called.
+ * <pre>
+ *  record (3 ints)
+ *   [0] kind &lt;&lt; 24 | p &lt;&lt; 16 | pc          (instruction)
+ *       kind &lt;&lt; 24 | value &lt;&lt; 16 | address (read, write)
+ *   [1] a &lt;&lt; 24 | x &lt;&lt; 16 | y &lt;&lt; 8 | s     (instruction)
+ *   [2] timestamp
+ * </pre>
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+public class CpuTraceBuffer implements CpuTraceListener {
+
+    private static final int OP = 0;
+    private static final int READ = 1;
+    private static final int WRITE = 2;
+
+    /** */
+    private final int[] ring;
+    /** in records */
+    private final int capacity;
+    /** next record to write */
+    private int head;
+    /** total records ever written */
+    private long total;
+    /** */
+    private final boolean bus;
+
+    /**
+     * @param capacity number of events kept
+     * @param bus record bus reads and writes too, not only instructions
+     */
+    public CpuTraceBuffer(int capacity, boolean bus) {
+        this.capacity = capacity;
+        this.ring = new int[capacity * 3];
+        this.bus = bus;
+    }
+
+    /** */
+    private void put(int r0, int r1, int r2) {
+        int i = head * 3;
+        ring[i] = r0;
+        ring[i + 1] = r1;
+        ring[i + 2] = r2;
+        if (++head == capacity) {
+            head = 0;
+        }
+        total++;
+    }
+
+    @Override
+    public void instruction(int pc, int a, int x, int y, int s, int p, int timestamp) {
+        put(OP << 24 | (p & 0xff) << 16 | (pc & 0xffff), a << 24 | (x & 0xff) << 16 | (y & 0xff) << 8 | (s & 0xff), timestamp);
+    }
+
+    @Override
+    public void read(int address, int value, int timestamp) {
+        if (bus) {
+            put(READ << 24 | (value & 0xff) << 16 | (address & 0xffff), 0, timestamp);
+        }
+    }
+
+    @Override
+    public void write(int address, int value, int timestamp) {
+        if (bus) {
+            put(WRITE << 24 | (value & 0xff) << 16 | (address & 0xffff), 0, timestamp);
+        }
+    }
+
+    /** discards all recorded events */
+    public void clear() {
+        head = 0;
+        total = 0;
+    }
+
+    /** @return number of events currently held */
+    public int size() {
+        return (int) Math.min(total, capacity);
+    }
+
+    /** prints recorded events, oldest first */
+    public void dump(PrintStream out) {
+        int n = size();
+        int start = (head - n + capacity) % capacity;
+        for (int j = 0; j < n; j++) {
+            int i = ((start + j) % capacity) * 3;
+            int r0 = ring[i];
+            int r1 = ring[i + 1];
+            int ts = ring[i + 2];
+            switch (r0 >>> 24) {
+            case OP -> out.printf("%8d: PC: %04x A:%02x X:%02x Y:%02x S:%02x P:%02x%n",
+                    ts, r0 & 0xffff, r1 >>> 24, (r1 >> 16) & 0xff, (r1 >> 8) & 0xff, r1 & 0xff, (r0 >> 16) & 0xff);
+            case READ -> out.printf("%8d:  R %04x = %02x%n", ts, r0 & 0xffff, (r0 >> 16) & 0xff);
+            case WRITE -> out.printf("%8d:  W %04x = %02x%n", ts, r0 & 0xffff, (r0 >> 16) & 0xff);
+            }
+        }
+    }
+}
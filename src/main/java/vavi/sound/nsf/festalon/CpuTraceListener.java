@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+
+/**
+ * Receives cpu and bus events from {@link X6502}.
+ * <p>
+ * Hooks are compiled in only when the system property
+ * {@code vavi.sound.nsf.festalon.trace} is {@code true} at class loading time,
+ * otherwise they cost nothing.
+ * </p>
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+public interface CpuTraceListener {
+
+    /** called before an instruction at {@code pc} is fetched */
+    void instruction(int pc, int a, int x, int y, int s, int p, int timestamp);
+
+    /** called after a bus read */
+    default void read(int address, int value, int timestamp) {
+    }
+
+    /** called before a bus write */
+    default void write(int address, int value, int timestamp) {
+    }
+}
@@ -15,8 +15,66 @@ package vavi.sound.nsf.festalon;
  */
 public abstract class ExpSound {
 
-    /** */
-    public abstract void fillHi();
+    /** The output of the channels, a level holds from its time until the next of the channel. */
+    public interface Levels {
+        /**
+         * @param channel of the expansion sound
+         * @param time the cycle from when the level holds
+         */
+        void level(ExpSound exp, int channel, int time, int level);
+    }
+
+    /**
+     * Renders the channels from the end of the last span up to the time, as
+     * the levels at the changes. The chips hold their output between the edges
+     * of their clocks, so a span costs by the changes instead of the cycles,
+     * and the levels may go elsewhere than the apu, e.g. buffers of their own.
+     *
+     * @param time the end of the span, exclusive
+     * @param levels where the changes go
+     * @return the time the output may change next by itself, a span may end
+     *         there, {@link Integer#MAX_VALUE} when it holds until a register write
+     */
+    public abstract int render(int time, Levels levels);
+
+    /**
+     * Renders up to the timestamp into the apu by {@link #render(int, Levels)},
+     * or up to the write being replayed into its log.
+     */
+    public void fillHi() {
+        render(time(), levels());
+    }
+
+    /** @return the time of the register write, the timestamp of the cpu unless replayed */
+    protected int time() {
+        return log != null ? log.time : apu.cpu.timestamp;
+    }
+
+    /** @return where a register write renders to, the apu unless logged */
+    protected Levels levels() {
+        return log != null ? log : apu;
+    }
+
+    /** installs the writer, logged instead while {@link NesApu#setParallel(boolean)} */
+    protected void setWriter(int start, int end, Writer writer) {
+        apu.cpu.setWriter(start, end, (address, value) -> {
+            if (log != null) {
+                log.add(apu.cpu.timestamp, writer, address, value);
+            } else {
+                writer.exec(address, value);
+            }
+        }, this);
+    }
+
+    /** installs the reader, the logged writes are applied before it */
+    protected void setReader(int start, int end, Reader reader) {
+        apu.cpu.setReader(start, end, (address, dataBus) -> {
+            if (log != null) {
+                log.replay();
+            }
+            return reader.exec(address, dataBus);
+        }, this);
+    }
 
     /** */
     public abstract void syncHi(int ts);
@@ -24,9 +82,35 @@ public abstract class ExpSound {
     /** */
     public abstract void kill();
 
+    /**
+     * Installs the handlers on the cpu and clears the registers, the same state
+     * as a new instance. Called again when the emulator is reused for another nsf.
+     */
+    public abstract void power();
+
     /** */
     public abstract void disable(int mask);
 
     /** */
     protected int channels;
+
+    /** the apu the sound is added to */
+    final NesApu apu;
+
+    /** the register writes of the frame, null unless {@link NesApu#setParallel(boolean)} */
+    WriteLog log;
+
+    /** */
+    protected ExpSound(NesApu apu) {
+        this.apu = apu;
+    }
+
+    /** the stem of the first channel, set by {@link NesApu#addExp(ExpSound)} */
+    int stem;
+
+    /**
+     * the dc the sound adds to every bus of its channels, for a signed output.
+     * taken back but in the bus of the first channel, as the mono has it once
+     */
+    protected int bias;
 }
@@ -9,7 +9,6 @@ package vavi.sound.nsf.festalon;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 
-import vavi.sound.fidlib.FidFilter;
 import vavi.sound.fir.Constants;
 
 import static java.lang.System.getLogger;
@@ -25,32 +24,68 @@ public class Filter {
 
     private static final Logger logger = getLogger(Filter.class.getName());
 
+    /** the inner loops */
+    private static final FilterKernel kernel = FilterKernel.getInstance();
+
     static final int NCOEFFS = 512;
     static final int FFI_FLOAT = 0;
     static final int FFI_INT16 = 1;
+    /** subtracted from the fixed point input 0 ~ 32767, keeps the 32 bits accumulation of the fir in range */
+    static final int INT16_OFFSET = 16384;
+    /** the mix is shifted down by this into 0 ~ 32767, the expansion sounds go over it, the fir output is shifted back */
+    static final int INT16_SHIFT = 3;
 
     // ----
-    final int inputFormat;
+    /** {@link #FFI_FLOAT} by {@link #exec}, or {@link #FFI_INT16} by {@link #exec16} */
+    int inputFormat;
     private int mrIndex;
     private final int mrRatio;
     private double acc1, acc2;
     private final int soundQ;
-    private final int rate;
+    final int rate;
     private final float[] coeffs = new float[NCOEFFS];
     int soundVolume;
     private Object lrh;
     private final double lrhFactor;
-    private final float[] booBuf = new float[200000];
+    /** decimated, grown by {@link #exec} if needed */
+    private float[] booBuf;
 
     // 1789772.7272 / 16 / 60 = 1864
     // 1662607.1250 / 16 / 50 = 2078
     // Intermediate rate.
     private final double imRate;
-    private FidFilter[] fid;
+    /** at {@link #imRate} and at {@link #rate}, null when off */
+    private LowPass lowPass, outputLowPass;
 
     private int cpuExt;
     private double resamplePos = 0;
 
+    /** fractional positions of {@link #bank} */
+    private static final int PHASES = 32;
+    /** */
+    private final boolean pal;
+    /** */
+    private final double cpuClock;
+    /** input samples per output sample */
+    private final double step;
+    /** [phase][tap] oldest tap first, null for the decimating fir and the linear interpolation */
+    private float[][] bank;
+    /** input samples summed into a tap of {@link #bank} */
+    private int stride;
+    /** input summed by {@link #stride} */
+    private float[] grouped;
+    /** the newest input sample of the next output, in input samples */
+    private double position;
+
+    /** the sum of {@link #coeffs_i16}, for {@link #INT16_OFFSET} through them */
+    private final int sumI16;
+    /** decimated by {@link #exec16} */
+    private int[] booInt;
+    /** {@link #resamplePos} of {@link #exec16}, 32.32 fixed point */
+    private long resamplePosInt;
+    /** {@link #acc1}, {@link #acc2} of {@link #exec16}, 48.16 fixed point */
+    private long accInt1, accInt2;
+
     private void execSexyFilter(float[] in, float[] out, int count) {
         double mul1, mul2, vmul;
 
@@ -58,43 +93,23 @@ public class Filter {
         mul2 = 24.0 / rate;
         vmul = (double) soundVolume * 3 / 2 / 100;
 
-        int inP = 0;
-        int outP = 0;
-
-        if (count > 0 && inP < 10) { // Print first few samples of a batch
-        }
+        boolean trace = logger.isLoggable(Level.TRACE);
 
-        while (count != 0) {
-            double ino = vmul * in[inP];
+        // the high passes are recursive, the normalization is done by the kernel
+        for (int i = 0; i < count; i++) {
+            double ino = vmul * in[i];
             acc1 += ((ino - acc1) * mul1);
             acc2 += ((ino - acc1 - acc2) * mul2);
-            {
-                float t = (float) (acc1 - ino + acc2);
-
-                if (count % 1000 == 0) { // Debug sampling
-                     // System.err.println("t (pre-norm)=" + t + " ino=" + ino + " acc1=" + acc1);
-                }
-
-                t += 32767;
-                t /= 65535;
-
-                if (outP < 10) {
-                    logger.log(Level.TRACE, "Filter out[" + outP + "]: t=" + t + " ino=" + ino + " acc1=" + acc1 + " acc2=" + acc2);
-                }
+            float t = (float) (acc1 - ino + acc2);
 
-                if (t < 0.0)
-                    t = 0.0f;
-                if (t > 1.0)
-                    t = 1.0f;
-                // if(t>32767 || t<-32768) printf("Flow: %d\n",t);
-                // if(t>32767) t=32767;
-                // if(t<-32768) t=-32768;
-                out[outP] = t;
+            if (trace && i < 10) {
+                logger.log(Level.TRACE, "Filter out[" + i + "]: t=" + t + " ino=" + ino + " acc1=" + acc1 + " acc2=" + acc2);
             }
-            inP++;
-            outP++;
-            count--;
+
+            // if(t>32767 || t<-32768) printf("Flow: %d\n",t);
+            out[i] = t;
         }
+        kernel.normalize(out, count);
     }
 
     // filter.h
@@ -128,9 +143,10 @@ public class Filter {
         }
 
         mrRatio = div;
+        booBuf = new float[NesApu.capacity(pal) / mrRatio + 1];
 //        int max = 0;
         for (x = 0; x < NCOEFFS >> 1; x++) {
-            coeffs_i16[x] = coeffs_i16[NCOEFFS - 1 - x] = (short) (tmp[x] * 65536);
+            coeffs_i16[x] = coeffs_i16[NCOEFFS - 1 - x] = (short) Math.round(tmp[x] * 65536);
             coeffs[x] = coeffs[NCOEFFS - 1 - x] = (float) tmp[x];
 //            if (Math.abs(coeffs_i16[x]) > Math.abs(max)) {
 //                max = abs(coeffs_i16[x]);
@@ -141,9 +157,15 @@ public class Filter {
         float sum = 0;
         for (float c : coeffs) sum += c;
         logger.log(Level.DEBUG, "Filter coeffs sum: " + sum);
+        int sumI16 = 0;
+        for (short c : coeffs_i16) sumI16 += c;
+        this.sumI16 = sumI16;
 
         imRate = cpuclock / div;
         lrhFactor = rate / imRate;
+        this.pal = pal;
+        this.cpuClock = cpuclock;
+        step = cpuclock / rate;
 
 //        int error;
 //        lrh = src_new(srctype, 1, error);
@@ -153,35 +175,159 @@ public class Filter {
         inputFormat = FFI_FLOAT;
     }
 
-    /** */
-    public int setLowPass(boolean on, int corner, int order) {
-        // FESTAFILT *ff = fe->apu->ff;
-        String[] spec = new String[1];
-        // /* char * */int speca;
+    /** @return true when this filter was made for the parameters */
+    boolean matches(int rate, int quality) {
+        return this.rate == rate && soundQ == quality;
+    }
+
+    /** @return a filter of the same settings without the history, for another signal */
+    Filter copy() {
+        Filter filter = new Filter(rate, cpuClock, pal, soundQ);
+        filter.inputFormat = inputFormat;
+        filter.soundVolume = soundVolume;
+        if (lowPass != null) {
+            filter.lowPass = new LowPass(lowPass);
+            filter.outputLowPass = new LowPass(outputLowPass);
+        }
+        if (bank != null) {
+            filter.bank = bank;
+            filter.stride = stride;
+            filter.grouped = new float[grouped.length];
+            filter.position = bank[0].length * stride;
+        }
+        return filter;
+    }
+
+    /** clears the filter history, for reusing the filter for another song */
+    void reset() {
+        acc1 = acc2 = 0;
+        resamplePos = 0;
+        accInt1 = accInt2 = 0;
+        resamplePosInt = 0;
+        if (lowPass != null) {
+            lowPass.reset();
+            outputLowPass.reset();
+        }
+        if (bank != null) {
+            position = bank[0].length * stride;
+        }
+    }
+
+    /**
+     * Resamples the cpu rate input to the output rate by a polyphase fir which
+     * computes only the output samples, instead of the fir decimating by 16 or 32
+     * and the linear interpolation. The prototype is the 512 taps fir for 1/32
+     * (passes 20kHz) for rates up to 48kHz, or for 1/16 (passes 32kHz) above.
+     *
+     * @param quality 0: sums 4 input samples into a tap, 128 taps, fastest, 1: 2 samples, 256 taps,
+     *                2: every sample, 512 taps, aliases the least
+     */
+    public void setPolyphase(boolean on, int quality) {
+        if (!on) {
+            bank = null;
+            return;
+        }
+        double[] table = rate > 48000 ? (pal ? Constants.coefPALhi : Constants.coefNTSChi)
+                                      : (pal ? Constants.coefPAL : Constants.coefNTSC);
+        double[] prototype = new double[NCOEFFS];
+        double gain = 0;
+        for (int i = 0; i < NCOEFFS >> 1; i++) {
+            prototype[i] = prototype[NCOEFFS - 1 - i] = table[i];
+            gain += 2 * table[i];
+        }
+
+        stride = 1 << (2 - Math.max(0, Math.min(2, quality)));
+        int taps = NCOEFFS / stride;
+        bank = new float[PHASES][taps];
+        for (int phase = 0; phase < PHASES; phase++) {
+            double[] c = new double[taps];
+            double sum = 0;
+            for (int j = 0; j < taps; j++) {
+                // the prototype at the center of the group, linearly interpolated
+                double t = stride * (j + (phase + 0.5) / PHASES);
+                int i = (int) t;
+                if (i + 1 < NCOEFFS) {
+                    c[j] = prototype[i] + (prototype[i + 1] - prototype[i]) * (t - i);
+                }
+                sum += c[j];
+            }
+            for (int j = 0; j < taps; j++) {
+                bank[phase][taps - 1 - j] = (float) (c[j] * gain / stride / sum);
+            }
+        }
+        grouped = new float[NesApu.capacity(pal) / stride + 1];
+        position = taps * stride;
+    }
+
+    /** @see #setPolyphase(boolean, int) */
+    private int execPolyphase(float[] in, float[] out, int maxoutlen, int inlen, int[] leftover) {
+        int s = stride;
+        int taps = bank[0].length;
+        int groups = inlen / s;
+        if (grouped.length < groups) {
+            grouped = new float[groups];
+        }
+        for (int m = 0, i = 0; m < groups; m++) {
+            float sum = 0;
+            for (int r = 0; r < s; r++) {
+                sum += in[i++];
+            }
+            grouped[m] = sum;
+        }
+
+        double half = (s - 1) / 2d;
+        int count = 0;
+        while (count < maxoutlen) {
+            double q = (position - half) / s;
+            int m = (int) q;
+            if (m >= groups) {
+                break;
+            }
+            out[count++] = kernel.dot(grouped, m - taps + 1, bank[(int) ((q - m) * PHASES)], taps);
+            position += step;
+        }
+
+        // keeps the groups for the next output
+        int first = Math.max(0, Math.min(groups, (int) ((position - half) / s) - taps + 1));
+        leftover[0] = inlen - first * s;
+        position -= first * s;
 
-        // on = true;
+        execOutput(out, count);
+        return count;
+    }
+
+    /**
+     * Runs the butterworth low pass of the fidlib spec {@code LpBuZ<order>/<corner>}
+     * after the decimating fir at the intermediate rate, or at the output rate for
+     * the polyphase fir and the band limited steps.
+     *
+     * @return 1: success, 0: the parameters are out of range, the low pass is off
+     * @see LowPass
+     */
+    public int setLowPass(boolean on, int corner, int order) {
+        lowPass = outputLowPass = null;
         if (on) {
-            // snprintf(spec,256,"HpBuZ%d/%d",2,1000);
-            spec[0] = String.format("LpBuZ%d/%d", order, corner);
-            // speca = spec;
-            // printf("%s\n",spec);
-            // p = "LpBuZ2/5000";
-            // printf("%f, %s\n",imRate,spec);
+            logger.log(Level.DEBUG, "LpBuZ%d/%d at %.1fHz".formatted(order, corner, imRate));
             try {
-                fid = FidFilter.Factory.newInstance().fid_parse(imRate, spec);
-                for (FidFilter f : fid) {
-                    logger.log(Level.DEBUG, f);
-                }
-                return 1;
-            } catch (Exception e) {
+                lowPass = new LowPass(imRate, corner, order);
+                outputLowPass = new LowPass(rate, corner, order);
+            } catch (IllegalArgumentException e) {
                 logger.log(Level.ERROR, e.getMessage(), e);
-                fid = null;
+                lowPass = outputLowPass = null;
                 return 0;
             }
         }
         return 1;
     }
 
+    /** the stages at the output rate, in place */
+    void execOutput(float[] out, int count) {
+        if (outputLowPass != null) {
+            outputLowPass.process(out, 0, count);
+        }
+        execSexyFilter(out, out, count);
+    }
+
     /*
      * Returns number of samples written to out. <p> leftover is set to the
      * number of samples that need to be copied from the end of in to the
@@ -191,6 +337,30 @@ public class Filter {
      * the FIR code. </p>
      */
     public int exec(float[] in, float[] out, int maxoutlen, int inlen, int[] leftover, int sinput) {
+        return exec(in, out, maxoutlen, inlen, leftover, null, inlen);
+    }
+
+    /** fills the input of {@link #exec} */
+    @FunctionalInterface
+    interface Source {
+        /** fills in[from] ~ in[to - 1] */
+        void fill(int from, int to);
+    }
+
+    /**
+     * {@link #exec} filling the input just before the fir reads it, so the cpu rate
+     * samples are converted and filtered while they are in the cache.
+     * @param source fills the input from {@code filled} to {@code inlen}, null when filled
+     * @param filled the input is filled up to
+     */
+    int exec(float[] in, float[] out, int maxoutlen, int inlen, int[] leftover, Source source, int filled) {
+        if (bank != null) {
+            if (source != null && filled < inlen) {
+                source.fill(filled, inlen);
+            }
+            return execPolyphase(in, out, maxoutlen, inlen, leftover);
+        }
+
         int x;
         int max;
         int count = 0;
@@ -200,26 +370,30 @@ public class Filter {
         max -= NCOEFFS;
         if (max < 0)
             max = 0;
+        if (flout.length < max / mrRatio + 1) {
+            booBuf = flout = new float[max / mrRatio + 1];
+        }
 
         int floutP = 0;
         for (x = 0; x < max; x += mrRatio) {
-            float acc = 0;
-            int c;
-            int wave; //
-            float[] coeffs;
-
-            for (c = 0, wave = x, coeffs = this.coeffs; c < NCOEFFS; c += 2) {
-                acc += in[wave + c] * coeffs[c];
-                acc += in[wave + 1 + c] * coeffs[1 + c];
+            if (source != null && x + NCOEFFS > filled) {
+                source.fill(filled, x + NCOEFFS);
+                filled = x + NCOEFFS;
             }
-            flout[floutP] = acc;
+            flout[floutP] = kernel.dot(in, x, coeffs, NCOEFFS);
             floutP++;
             count++;
         }
+        if (source != null && filled < inlen) {
+            source.fill(filled, inlen);
+        }
 
         leftover[0] = inlen - max;
 
         count = max / mrRatio;
+        if (lowPass != null) {
+            lowPass.process(booBuf, 0, count);
+        }
         // Simple linear interpolation resampler
         float step = 1.0f / (float) lrhFactor;
         double pos = resamplePos;
@@ -244,4 +418,64 @@ public class Filter {
         execSexyFilter(out, out, outIndex);
         return outIndex;
     }
+
+    /**
+     * {@link #exec} in fixed point for {@link #FFI_INT16}, the polyphase fir is not used.
+     * <p>
+     * The input is the mix shifted down into 0 ~ 32767 minus {@link #INT16_OFFSET}.
+     * The fir accumulates the products with {@link #coeffs_i16} in 32 bits and shifts
+     * the sums back, the linear interpolation steps in 32.32 and the dc
+     * filters run in 48.16, the output is 16 bit pcm.
+     * </p>
+     * @param shift the input is shifted down by, 0 or {@link #INT16_SHIFT}
+     */
+    public int exec16(short[] in, short[] out, int maxoutlen, int inlen, int[] leftover, int shift) {
+        int max = (inlen & ~0x1F) - NCOEFFS;
+        if (max < 0)
+            max = 0;
+        int count = max / mrRatio;
+        if (booInt == null || booInt.length < count + 1) {
+            booInt = new int[Math.max(booBuf.length, count + 1)];
+        }
+
+        int offset = (int) ((long) INT16_OFFSET * sumI16 >> 16 - shift);
+        for (int x = 0, i = 0; x < max; x += mrRatio, i++) {
+            booInt[i] = (kernel.dot(in, x, coeffs_i16, NCOEFFS) >> 16 - shift) + offset;
+        }
+        leftover[0] = inlen - max;
+
+        if (lowPass != null) {
+            lowPass.process(booInt, 0, count);
+        }
+
+        long vmul = soundVolume * 3L * 65536 / 2 / 100;
+        long mul1 = (long) (94.0 / rate * (1L << 32));
+        long mul2 = (long) (24.0 / rate * (1L << 32));
+        // the same step as exec in float
+        long step = (long) ((double) (1.0f / (float) lrhFactor) * (1L << 32));
+        long pos = resamplePosInt;
+        int outIndex = 0;
+
+        while (outIndex < maxoutlen && (pos >> 32) < count) {
+            int idx = (int) (pos >> 32);
+            int s1 = booInt[idx];
+            int s2 = (idx + 1 < count) ? booInt[idx + 1] : s1;
+            long sample = s1 + (((s2 - s1) * (pos & 0xffff_ffffL)) >> 32);
+
+            long ino = vmul * sample;
+            accInt1 += ((ino - accInt1) * mul1) >> 32;
+            accInt2 += ((ino - accInt1 - accInt2) * mul2) >> 32;
+            long t = (accInt1 - ino + accInt2) >> 16;
+            out[outIndex] = (short) Math.max(-32768, Math.min(32767, t));
+
+            outIndex++;
+            pos += step;
+        }
+
+        resamplePosInt = pos - ((long) count << 32);
+        if (resamplePosInt < 0)
+            resamplePosInt = 0;
+
+        return outIndex;
+    }
 }
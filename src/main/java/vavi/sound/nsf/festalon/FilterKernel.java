@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+
+import static java.lang.System.getLogger;
+
+
+/**
+ * The inner loops of {@link Filter}, scalar.
+ * <p>
+ * {@link #getInstance()} returns {@link VectorFilterKernel} instead when the
+ * jdk.incubator.vector module is resolved, i.e. the jvm runs with
+ * {@code --add-modules jdk.incubator.vector}, and the system property
+ * {@code vavi.sound.nsf.festalon.vector} is not {@code false}.
+ * </p>
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+class FilterKernel {
+
+    private static final Logger logger = getLogger(FilterKernel.class.getName());
+
+    /** */
+    private static final FilterKernel instance;
+
+    static {
+        FilterKernel kernel = new FilterKernel();
+        if (System.getProperty("vavi.sound.nsf.festalon.vector", "true").equals("true") &&
+                ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                kernel = (FilterKernel) Class.forName(FilterKernel.class.getPackageName() + ".VectorFilterKernel")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                logger.log(Level.DEBUG, e.toString());
+            }
+        }
+        logger.log(Level.DEBUG, "filter kernel: " + kernel);
+        instance = kernel;
+    }
+
+    /** @return the vector kernel if available, or the scalar one */
+    static FilterKernel getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param length a multiple of 2
+     * @return sum of in[offset + i] * coeffs[i] for i < length
+     */
+    float dot(float[] in, int offset, float[] coeffs, int length) {
+        float acc = 0;
+        for (int c = 0; c < length; c += 2) {
+            acc += in[offset + c] * coeffs[c];
+            acc += in[offset + 1 + c] * coeffs[1 + c];
+        }
+        return acc;
+    }
+
+    /**
+     * @param length a multiple of 2
+     * @return sum of in[offset + i] * coeffs[i] for i < length, accumulated in 32 bits
+     */
+    int dot(short[] in, int offset, short[] coeffs, int length) {
+        int acc = 0;
+        for (int c = 0; c < length; c += 2) {
+            acc += in[offset + c] * coeffs[c] + in[offset + 1 + c] * coeffs[1 + c];
+        }
+        return acc;
+    }
+
+    /** maps -32767 ~ 32768 to 0 ~ 1 and clamps, in place */
+    void normalize(float[] out, int count) {
+        normalize(out, 0, count);
+    }
+
+    /** @see #normalize(float[], int) */
+    static void normalize(float[] out, int from, int to) {
+        for (int i = from; i < to; i++) {
+            float t = out[i];
+            t += 32767;
+            t /= 65535;
+            if (t < 0.0)
+                t = 0.0f;
+            if (t > 1.0)
+                t = 1.0f;
+            out[i] = t;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
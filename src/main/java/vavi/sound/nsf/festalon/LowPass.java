@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+
+/**
+ * Butterworth low pass by the matched z-transform, the filter of the fidlib
+ * spec {@code LpBuZ<order>/<corner>}, as a cascade of all pole biquads run by
+ * blocks.
+ * <p>
+ * Each section is normalized to the unity gain at dc.
+ * </p>
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+class LowPass {
+
+    /** the same as fidlib */
+    static final int MAX_ORDER = 64;
+
+    /** [section] y = g * x + a1 * y1 - a2 * y2, a2 is 0 for the real pole */
+    private final double[] g, a1, a2;
+
+    /** [section] outputs delayed by 1 and 2 */
+    private final double[] y1, y2;
+
+    /**
+     * @param rate sampling rate
+     * @param corner -3dB frequency
+     * @throws IllegalArgumentException order or corner is out of range
+     */
+    LowPass(double rate, double corner, int order) {
+        if (order < 1 || order > MAX_ORDER) {
+            throw new IllegalArgumentException("order: " + order);
+        }
+        if (corner <= 0 || corner / rate > 0.5) {
+            throw new IllegalArgumentException("corner: " + corner + " at " + rate + "Hz");
+        }
+        int sections = (order + 1) / 2;
+        g = new double[sections];
+        a1 = new double[sections];
+        a2 = new double[sections];
+        y1 = new double[sections];
+        y2 = new double[sections];
+
+        // analog poles on the unit circle scaled to the pre-warped corner
+        double w = 2 * Math.tan(Math.PI * corner / rate);
+        for (int s = 0; s < sections; s++) {
+            if (s * 2 + 1 < order) {
+                double theta = Math.PI - (order - s * 2 - 1) * 0.5 * Math.PI / order;
+                double r = Math.exp(w * Math.cos(theta));
+                double re = r * Math.cos(w * Math.sin(theta));
+                a1[s] = 2 * re;
+                a2[s] = r * r;
+            } else {
+                a1[s] = Math.exp(-w);
+                a2[s] = 0;
+            }
+            g[s] = 1 - a1[s] + a2[s];
+        }
+    }
+
+    /** the same filter without the history */
+    LowPass(LowPass lowPass) {
+        g = lowPass.g;
+        a1 = lowPass.a1;
+        a2 = lowPass.a2;
+        y1 = new double[g.length];
+        y2 = new double[g.length];
+    }
+
+    /** clears the history */
+    void reset() {
+        for (int s = 0; s < g.length; s++) {
+            y1[s] = y2[s] = 0;
+        }
+    }
+
+    /** filters in place */
+    void process(float[] buf, int offset, int length) {
+        for (int s = 0; s < g.length; s++) {
+            double g = this.g[s], a1 = this.a1[s], a2 = this.a2[s];
+            double y1 = this.y1[s], y2 = this.y2[s];
+            for (int i = offset; i < offset + length; i++) {
+                double y = g * buf[i] + a1 * y1 - a2 * y2;
+                y2 = y1;
+                y1 = y;
+                buf[i] = (float) y;
+            }
+            this.y1[s] = y1;
+            this.y2[s] = y2;
+        }
+    }
+
+    /** filters in place, rounds to the nearest */
+    void process(int[] buf, int offset, int length) {
+        for (int s = 0; s < g.length; s++) {
+            double g = this.g[s], a1 = this.a1[s], a2 = this.a2[s];
+            double y1 = this.y1[s], y2 = this.y2[s];
+            for (int i = offset; i < offset + length; i++) {
+                double y = g * buf[i] + a1 * y1 - a2 * y2;
+                y2 = y1;
+                y1 = y;
+                buf[i] = (int) Math.rint(y);
+            }
+            this.y1[s] = y1;
+            this.y2[s] = y2;
+        }
+    }
+}
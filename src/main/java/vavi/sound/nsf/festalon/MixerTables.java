@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+
+/**
+ * The nonlinear mixer of the 2A03 by tables, built once and shared by all
+ * the instances and threads, they are never written after the class init.
+ * <p>
+ * The squares are {@code 95.52 / (8128 / n + 100)} of the sum of the levels,
+ * the triangle, the noise and the dmc are {@code 163.67 / (24329 / n + 100)}
+ * of the sum in the {@link NesApu#waveHi} format, both in the integer unit
+ * where the expansion sounds are added.
+ * </p>
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+final class MixerTables {
+
+    private MixerTables() {
+    }
+
+    /** [square 1 + square 2] */
+    private static final int[] square = new int[32];
+    /** [triangle + noise + dmc] */
+    private static final int[] tnd = new int[203];
+
+    static {
+        for (int i = 1; i < square.length; i++) {
+            square[i] = (int) (16 * 16 * 16 * 4 * 95.52 / (8128d / i + 100));
+        }
+        for (int i = 1; i < tnd.length; i++) {
+            tnd[i] = (int) (16 * 16 * 16 * 4 * 163.67 / (24329d / i + 100));
+        }
+    }
+
+    /**
+     * @param b the levels packed as {@link NesApu#waveHi}
+     * @return mixed
+     */
+    static int mix(int b) {
+        return (b & 0x3_ffff) + tnd[(b >>> NesApu.TRINPCM_SHIFT) & 255] + square[b >>> NesApu.SQ_SHIFT];
+    }
+
+    /**
+     * @param square the sum of the levels of the squares
+     * @param tnd the sum of the levels of the triangle, the noise and the dmc
+     * @return mixed
+     */
+    static int mix(int square, int tnd) {
+        return MixerTables.square[square] + MixerTables.tnd[tnd & 255];
+    }
+}
@@ -27,7 +27,7 @@ import java.util.Arrays;
 import static java.lang.System.getLogger;
 
 
-public class NesApu {
+public class NesApu implements ExpSound.Levels {
 
     private static final Logger logger = getLogger(NesApu.class.getName());
 
@@ -40,12 +40,40 @@ public class NesApu {
         int reloadDec;
     }
 
-    private final int[] wLookup1 = new int[32];
-    private final int[] wLookup2 = new int[203];
-    public final int[] waveHi = new int[200000]; // __attribute__ ((aligned (16)));
-    private final float[] waveFloatBuffer = new float[200000];
+    /** sized by {@link #capacity(boolean)}, grown by {@link #reserve(int)} */
+    public int[] waveHi; // __attribute__ ((aligned (16)));
+    private float[] waveFloatBuffer;
     float[] waveFinal;
     int waveFinalLen;
+    /**
+     * level changes of the 2A03 channels by cycle in the {@link #waveHi} format,
+     * the channels cost by their edges instead of cycles, summed up by the mixer
+     */
+    private int[] deltas;
+    /** the sum of {@link #deltas} mixed so far */
+    private int deltaSum;
+    /** channels accumulated apart, null when all are in {@link #waveHi}, see {@link #updateBuses()} */
+    private Bus[] buses;
+    /** [channel] index of {@link #buses} */
+    private int[] busOf;
+    /** see {@link #setStems(boolean)} */
+    private boolean stems;
+    /** see {@link #setParallel(boolean)} */
+    private boolean parallel;
+    /** [stem] output of the stems */
+    float[][] stemFinal;
+    /** [stem] output of the stems in fixed point */
+    short[][] stemFinal16;
+    /** [channel] see {@link #setMixer(int, float, float)} */
+    private float[] gains = {1, 1, 1, 1, 1}, pans = new float[5];
+    /** 1: mono, 2: stereo interleaved in {@link #waveFinal} */
+    int outChannels = 1;
+    /** mixed {@link #waveHi} for {@link Filter#FFI_INT16}, null until {@link #setFixedPoint(boolean)} */
+    private short[] wave16;
+    /** [0] the bits shifted out of the last of {@link #wave16} */
+    private final int[] int16Rest = new int[1];
+    /** output for {@link Filter#FFI_INT16} */
+    short[] waveFinal16;
     private byte triCount;
     private byte triMode;
     private int triStep;
@@ -85,19 +113,475 @@ public class NesApu {
     private final int[] channels = new int[5];
     private int inBuf;
     private int lastPoo;
+    /** leftover of {@link Filter#exec}, kept as a field not to allocate per frame */
+    private final int[] left = new int[1];
     public final X6502 cpu;
     Filter filter;
     private int disabled;
     private final ExpSound[] exp = new ExpSound[16];
     private int expCount;
+    /** band limited synthesis by level changes instead of {@link #waveHi}, see {@link #setBlep(boolean)} */
+    private boolean blep;
+    /** {@link #blep} is on by this when it can be */
+    private boolean blepRequested;
+    /** made by the first frame in {@link #blep} */
+    private BlipBuffer blip;
+    /** level changes of the channels in a frame, [channel][n] */
+    private final int[][] eventTimes = new int[5][256];
+    /** */
+    private final int[][] eventLevels = new int[5][256];
+    /** */
+    private final int[] eventCounts = new int[5];
+    /** the latest level of the channels in the mixer unit, squares 0-15, triangle 0-45, noise 0-30, dmc 0-127 */
+    private int[] levels = new int[5];
+    /** levels while merging the events */
+    private final int[] mixLevels = new int[5];
+    /** */
+    private final int[] eventHeads = new int[5];
+    /** the mixed level at the end of the last frame */
+    private float mixed;
     private final byte[] realMem;
 
     // ----
 
+    /** cpu cycles an instruction, an irq or a dma can run over the budget of {@link X6502#run} */
+    private static final int OVERRUN = 256;
+
+    /**
+     * @return cpu cycles of a frame run by {@link Nsf#emulate}, the leftover of the filter
+     *         and the overrun
+     */
+    static int capacity(boolean pal) {
+        int frame = (pal ? 312 * (256 + 85) * 15 : 262 * (256 + 85) * 16) / 48 + 1;
+        return frame + Filter.NCOEFFS + 32 + OVERRUN;
+    }
+
+    /**
+     * Grows the buffers when the cpu could run over them, not to happen with
+     * {@link #capacity(boolean)} unless the budget is changed.
+     * @param cycles the budget for {@link X6502#run}
+     */
+    void reserve(int cycles) {
+        int size = cpu.timestamp + cycles * (cpu.pal ? 15 : 16) / 48 + 1 + OVERRUN;
+        if (size > waveHi.length) {
+            logger.log(Level.DEBUG, "grow: " + waveHi.length + " -> " + size);
+            waveHi = Arrays.copyOf(waveHi, size);
+            deltas = Arrays.copyOf(deltas, size);
+            waveFloatBuffer = Arrays.copyOf(waveFloatBuffer, size);
+            if (wave16 != null) {
+                wave16 = Arrays.copyOf(wave16, size);
+            }
+            if (buses != null) {
+                for (Bus bus : buses) {
+                    bus.hi = Arrays.copyOf(bus.hi, size);
+                    bus.deltas = Arrays.copyOf(bus.deltas, size);
+                    bus.wave = Arrays.copyOf(bus.wave, size);
+                    if (bus.wave16 != null) {
+                        bus.wave16 = Arrays.copyOf(bus.wave16, size);
+                    }
+                }
+            }
+        }
+    }
+
+    /** {@link Filter.Source} mixing {@link #waveHi} into {@link #waveFloatBuffer} */
+    private final Filter.Source mixer = this::mix;
+
+    /** mixes the channels and the expansion sound at the cycles by the tables */
+    private void mix(int from, int to) {
+        deltaSum = mix(waveHi, deltas, deltaSum, 0, waveFloatBuffer, from, to);
+    }
+
+    /**
+     * @param hi accumulated in the {@link #waveHi} format
+     * @param deltas level changes added to hi, cleared as mixed
+     * @param sum the sum of the deltas mixed so far
+     * @param bias subtracted, see {@link ExpSound#bias}
+     * @return the sum of the deltas mixed
+     */
+    private int mix(int[] hi, int[] deltas, int sum, int bias, float[] wave, int from, int to) {
+        for (int i = from; i < to; i++) {
+            sum += deltas[i];
+            deltas[i] = 0;
+            int b = hi[i] + sum;
+            wave[i] = (float) (MixerTables.mix(b) - bias);
+        }
+        return sum;
+    }
+
+    /** channels mixed together by the tables and filtered once */
+    private class Bus implements Filter.Source {
+        /** {@link #waveHi} of the channels */
+        int[] hi;
+        /** {@link #deltas} of the channels */
+        int[] deltas;
+        /** {@link #deltaSum} of the channels */
+        int deltaSum;
+        /** {@link #waveFloatBuffer} of the channels */
+        float[] wave;
+        /** {@link #wave16} of the channels, null until flushed in fixed point */
+        short[] wave16;
+        /** see {@link #int16Rest} */
+        final int[] rest = new int[1];
+        /** a copy of {@link #filter} */
+        Filter filter;
+        /** filtered */
+        float[] out;
+        /** filtered in fixed point, null until flushed in fixed point */
+        short[] out16;
+        /** gains into the left, or mono, and the right */
+        final float left, right;
+        /** see {@link ExpSound#bias} */
+        int bias;
+
+        Bus(Filter filter, float left, float right) {
+            this.hi = new int[waveHi.length];
+            this.deltas = new int[waveHi.length];
+            this.wave = new float[waveHi.length];
+            this.filter = filter;
+            this.out = new float[waveFinalLen];
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public void fill(int from, int to) {
+            deltaSum = mix(hi, deltas, deltaSum, bias, wave, from, to);
+        }
+    }
+
+    /**
+     * {@link #mix(int[], int[], int, int, float[], int, int)} into 0 ~ 32767 minus
+     * {@link Filter#INT16_OFFSET}, shifted down by the shift. The bits shifted out go
+     * to the next, the fir cuts the noise of them.
+     * @param rest [0] the bits shifted out of the last
+     */
+    private static int mix16(int[] hi, int[] deltas, int sum, int bias, short[] wave, int from, int to, int shift, int[] rest) {
+        int r = rest[0];
+        for (int i = from; i < to; i++) {
+            sum += deltas[i];
+            deltas[i] = 0;
+            int b = hi[i] + sum;
+            int v = MixerTables.mix(b) - bias + r;
+            r = v & (1 << shift) - 1;
+            wave[i] = (short) (Math.max(0, Math.min(v >> shift, 32767)) - Filter.INT16_OFFSET);
+        }
+        rest[0] = r;
+        return sum;
+    }
+
+    /**
+     * Puts the channels of the same gain and pan into a bus, unless all are as is,
+     * or every channel into its own for {@link #stems}. The buses are copies of
+     * {@link #filter} without the history, called again when it is set up. The
+     * levels held go on unless the channels go into other buses.
+     */
+    void updateBuses() {
+        boolean plain = !stems;
+        for (int c = 0; c < gains.length; c++) {
+            plain &= gains[c] == 1 && (outChannels == 1 || pans[c] == 0);
+        }
+        int[] busOf = null;
+        // left and right of the buses
+        float[] sides = null;
+        int n = 0;
+        if (!plain && filter != null) {
+            busOf = new int[gains.length];
+            sides = new float[gains.length * 2];
+            for (int c = 0; c < gains.length; c++) {
+                float pan = outChannels == 1 ? 0 : pans[c];
+                float left = gains[c] * Math.min(1, 1 - pan);
+                float right = gains[c] * Math.min(1, 1 + pan);
+                int b = 0;
+                while (b < n && (stems || sides[b * 2] != left || sides[b * 2 + 1] != right)) {
+                    b++;
+                }
+                if (b == n) {
+                    sides[n * 2] = left;
+                    sides[n * 2 + 1] = right;
+                    n++;
+                }
+                busOf[c] = b;
+            }
+        }
+
+        boolean moved = !Arrays.equals(busOf, this.busOf) || (stemFinal != null) != (stems && busOf != null);
+        for (int b = 0; !moved && b < n; b++) {
+            moved = buses[b].left != sides[b * 2] || buses[b].right != sides[b * 2 + 1];
+        }
+        if (!moved) {
+            for (int b = 0; b < n; b++) {
+                buses[b].filter = filter.copy();
+            }
+            if (stems) {
+                for (int b = 0; b < n; b++) {
+                    stemFinal[b] = buses[b].out;
+                    stemFinal16[b] = buses[b].out16;
+                }
+            }
+            updateBlep(false);
+            return;
+        }
+
+        this.busOf = busOf;
+        buses = null;
+        stemFinal = null;
+        stemFinal16 = null;
+        if (busOf != null) {
+            buses = new Bus[n];
+            for (int b = 0; b < n; b++) {
+                buses[b] = new Bus(filter.copy(), sides[b * 2], sides[b * 2 + 1]);
+            }
+            for (int j = 0; j < expCount && !stems; j++) {
+                for (int b = 0; b < buses.length; b++) {
+                    for (int c = 0; c < exp[j].channels; c++) {
+                        if (busOf[exp[j].stem + c] == b && b != busOf[exp[j].stem]) {
+                            buses[b].bias += exp[j].bias;
+                            break;
+                        }
+                    }
+                }
+            }
+            if (stems) {
+                stemFinal = new float[buses.length][];
+                stemFinal16 = new short[buses.length][];
+                for (int b = 0; b < buses.length; b++) {
+                    stemFinal[b] = buses[b].out;
+                }
+            }
+        }
+        updateBlep(true);
+    }
+
+    /**
+     * Renders every channel alone through its own copy of {@link #filter} in one
+     * emulation, the same samples as rendering with the other channels disabled,
+     * except the dc offset of the vrc7 which is in its stems only.
+     * The stems are the 2A03 channels and then the channels of the expansion
+     * sounds, in the order of the bits of {@link #disable(int)}.
+     * {@link #waveFinal} is not rendered while on, nor {@link #waveFinal16} in
+     * fixed point, the stems are {@link #stemFinal16} then. The band limited
+     * steps are turned off.
+     */
+    void setStems(boolean on) {
+        stems = on;
+        updateBuses();
+    }
+
+    /**
+     * Renders the expansion sounds on the fork join pool at the flush, one task
+     * per sound, instead of one after another at their register writes. The writes
+     * are logged while the cpu runs and replayed by the tasks, see {@link WriteLog}.
+     * The same samples, worth it for two or more heavy chips.
+     */
+    void setParallel(boolean on) {
+        parallel = on;
+        for (int j = 0; j < expCount; j++) {
+            if (exp[j].log != null) {
+                // the writes so far
+                exp[j].log.replay();
+                exp[j].log.merge(this);
+            }
+            exp[j].log = on ? new WriteLog(exp[j]) : null;
+        }
+    }
+
+    /**
+     * The channels of the same gain and pan are mixed together by the tables as
+     * mono, filtered once, and then summed by the gains at the output rate. So
+     * the cost is by the number of the different settings, the same as mono when
+     * all are the same. Also in fixed point, the band limited steps are turned off
+     * unless all are as is.
+     * @param channel the bit of {@link #disable(int)}
+     * @param gain 1 as is
+     * @param pan -1: left ~ 0: center ~ 1: right, the other side is attenuated, for stereo
+     */
+    void setMixer(int channel, float gain, float pan) {
+        gains[channel] = gain;
+        pans[channel] = Math.max(-1, Math.min(1, pan));
+        updateBuses();
+    }
+
+    /**
+     * The modes back to the defaults of a new one, for {@link Nsf#reload(byte[], int)}.
+     * The filter is kept for reusing, but its settings.
+     */
+    void resetModes() {
+        stems = false;
+        setParallel(false);
+        Arrays.fill(gains, 1);
+        Arrays.fill(pans, 0);
+        outChannels = 1;
+        blepRequested = false;
+        if (filter != null) {
+            filter.inputFormat = Filter.FFI_FLOAT;
+            filter.soundVolume = 0;
+            filter.setPolyphase(false, 0);
+            filter.setLowPass(false, 0, 0);
+        }
+        updateBuses();
+    }
+
+    /** @param channels 1: mono, 2: stereo, the frames are interleaved */
+    void setOutChannels(int channels) {
+        outChannels = channels;
+        if (waveFinal != null && waveFinal.length < waveFinalLen * channels) {
+            waveFinal = new float[waveFinalLen * channels];
+        }
+        if (waveFinal16 != null && waveFinal16.length < waveFinalLen * channels) {
+            waveFinal16 = new short[waveFinalLen * channels];
+        }
+        updateBuses();
+    }
+
+    /** @return true when the channels accumulate apart, see {@link #waveHi(ExpSound, int)} */
+    public boolean hasBuses() {
+        return buses != null;
+    }
+
+    /**
+     * @param channel of the expansion sound
+     * @return where the channel of the expansion sound accumulates, {@link #waveHi}
+     *         unless {@link #hasBuses()}
+     */
+    public int[] waveHi(ExpSound exp, int channel) {
+        return buses != null ? buses[busOf[exp.stem + channel]].hi : waveHi;
+    }
+
+    /** 0 by the normalization of the filter */
+    private static final float CENTER = 32767f / 65535;
+
+    /** @return the bits {@link #wave16} is shifted down by, see {@link Filter#exec16} */
+    private int int16Shift() {
+        return expCount > 0 ? Filter.INT16_SHIFT : 0;
+    }
+
+    /**
+     * filters the buses, and mixes them into {@link #waveFinal}, or {@link #waveFinal16}
+     * in fixed point, unless {@link #stems}
+     */
+    private int flushBuses() {
+        boolean fixedPoint = filter.inputFormat == Filter.FFI_INT16;
+        int shift = int16Shift();
+        int end = 0;
+        for (int b = 0; b < buses.length; b++) {
+            Bus bus = buses[b];
+            // the same leftover for all, they are filtered alike
+            if (fixedPoint) {
+                if (bus.wave16 == null || bus.wave16.length < waveHi.length) {
+                    bus.wave16 = new short[waveHi.length];
+                }
+                if (bus.out16 == null || bus.out16.length < waveFinalLen) {
+                    bus.out16 = new short[waveFinalLen];
+                    if (stems) {
+                        stemFinal16[b] = bus.out16;
+                    }
+                }
+                bus.deltaSum = mix16(bus.hi, bus.deltas, bus.deltaSum, bus.bias, bus.wave16, lastPoo, cpu.timestamp, shift, bus.rest);
+                end = bus.filter.exec16(bus.wave16, bus.out16, waveFinalLen, cpu.timestamp, left, shift);
+                System.arraycopy(bus.wave16, cpu.timestamp - left[0], bus.wave16, 0, left[0]);
+            } else {
+                if (bus.out.length < waveFinalLen) {
+                    bus.out = new float[waveFinalLen];
+                    if (stems) {
+                        stemFinal[b] = bus.out;
+                    }
+                }
+                end = bus.filter.exec(bus.wave, bus.out, waveFinalLen, cpu.timestamp, left, bus, lastPoo);
+                System.arraycopy(bus.wave, cpu.timestamp - left[0], bus.wave, 0, left[0]);
+            }
+            Arrays.fill(bus.hi, left[0], cpu.timestamp, 0);
+            int carry = bus.deltas[cpu.timestamp];
+            bus.deltas[cpu.timestamp] = 0;
+            bus.deltas[left[0]] = carry;
+        }
+        if (stems) {
+            return end;
+        }
+        if (fixedPoint) {
+            for (int i = 0; i < end; i++) {
+                float l = 0;
+                float r = 0;
+                for (Bus bus : buses) {
+                    l += bus.left * bus.out16[i];
+                    r += bus.right * bus.out16[i];
+                }
+                if (outChannels == 2) {
+                    waveFinal16[i * 2] = (short) Math.max(-32768, Math.min(32767, l));
+                    waveFinal16[i * 2 + 1] = (short) Math.max(-32768, Math.min(32767, r));
+                } else {
+                    waveFinal16[i] = (short) Math.max(-32768, Math.min(32767, l));
+                }
+            }
+        } else {
+            for (int i = 0; i < end; i++) {
+                float l = CENTER;
+                float r = CENTER;
+                for (Bus bus : buses) {
+                    float v = bus.out[i] - CENTER;
+                    l += bus.left * v;
+                    r += bus.right * v;
+                }
+                if (outChannels == 2) {
+                    waveFinal[i * 2] = Math.max(0, Math.min(1, l));
+                    waveFinal[i * 2 + 1] = Math.max(0, Math.min(1, r));
+                } else {
+                    waveFinal[i] = Math.max(0, Math.min(1, l));
+                }
+            }
+        }
+        return end;
+    }
+
+    /** @return frames, the mono output copied into the channels of {@link #outChannels} */
+    private int interleave(int end) {
+        if (outChannels == 2) {
+            if (filter.inputFormat == Filter.FFI_INT16) {
+                for (int i = end - 1; i >= 0; i--) {
+                    waveFinal16[i * 2 + 1] = waveFinal16[i * 2] = waveFinal16[i];
+                }
+            } else {
+                for (int i = end - 1; i >= 0; i--) {
+                    waveFinal[i * 2 + 1] = waveFinal[i * 2] = waveFinal[i];
+                }
+            }
+        }
+        return end;
+    }
+
+    /** */
+    private ApuMetricsListener metricsListener;
+
+    /**
+     * @param metricsListener null to stop
+     * @see ApuMetricsListener
+     */
+    void setMetricsListener(ApuMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Renders 16 bit pcm into {@link #waveFinal16} by {@link Filter#exec16} instead of
+     * floats, the band limited steps are turned off, they are float only. With the
+     * expansion sounds the mix is shifted down by {@link Filter#INT16_SHIFT}, not to clip.
+     */
+    void setFixedPoint(boolean on) {
+        filter.inputFormat = on ? Filter.FFI_INT16 : Filter.FFI_FLOAT;
+        updateBuses();
+        if (on) {
+            if (wave16 == null || wave16.length < waveHi.length) {
+                wave16 = new short[waveHi.length];
+            }
+            if (waveFinal16 == null || waveFinal16.length < waveFinalLen * outChannels) {
+                waveFinal16 = new short[waveFinalLen * outChannels];
+            }
+        }
+    }
+
     /** */
-    private static final int SQ_SHIFT = 26;
+    static final int SQ_SHIFT = 26;
     /** */
-    private static final int TRINPCM_SHIFT = 18;
+    static final int TRINPCM_SHIFT = 18;
 
     /** */
     private static final int[] RectDuties = {1,2,4,6};
@@ -135,12 +619,15 @@ public class NesApu {
     /** */
     public int emulateFlush() {
         int end;
-        int[] left = { 0 };
 
         if (cpu.timestamp == 0) {
             return 0;
         }
 
+        if (blep) {
+            return interleave(flushBlep());
+        }
+
         doSQ1();
         doSQ2();
         doTriangle();
@@ -148,71 +635,40 @@ public class NesApu {
         doPCM();
 
         {
-            for (int j = 0; j < expCount; j++) {
-//              if (exp[x].HiFill) {
-                    exp[j].fillHi();
-//              }
-            }
-
-            if (filter.inputFormat == Filter.FFI_INT16) {
-                // Not implemented or rarely used path, keeping structure but might need fix if FFI_INT16 is used
-                // For now, assuming float path (default)
-                logger.log(Level.WARNING, "FFI_INT16 path triggered but not fully verified/ported");
+            if (parallel) {
+                fillParallel();
             } else {
-                int tmpO = lastPoo; // apu.waveHi
-                if (wLookup1[15] == 0) ; // System.err.println("wLookup1 is empty!");
-                // int nonZero = 0;
-                // for (int k = 0; k < cpu.timestamp; k++) if (waveHi[k] != 0) nonZero++;
-                // if (nonZero > 0) System.err.println("WaveHi has data: " + nonZero + " / " + cpu.timestamp);
-                // else System.err.println("WaveHi is EMPTY. timestamp=" + cpu.timestamp);
-
-                if (expCount != 0) {
-                    for (int j = cpu.timestamp - lastPoo; j != 0; j--) {
-                        int b = waveHi[tmpO];
-
-                        waveFloatBuffer[tmpO] = (float) ((b & 0x3_ffff) + wLookup2[(b >>> TRINPCM_SHIFT) & 255] + wLookup1[b >>> SQ_SHIFT]);
-                        tmpO++;
-                    }
-                } else {
-                    double sumSq = 0;
-                    for (int j = cpu.timestamp - lastPoo; j != 0; j--) {
-                        int b = waveHi[tmpO];
-                        waveFloatBuffer[tmpO] = (float) (wLookup2[(b >>> TRINPCM_SHIFT) & 255] + wLookup1[b >>> SQ_SHIFT]);
-                        sumSq += waveFloatBuffer[tmpO] * waveFloatBuffer[tmpO];
-                        if (tmpO < 10 && waveFloatBuffer[tmpO] != 0) {
-                             logger.log(Level.TRACE, String.format("waveFloatBuffer[%d]: %f (raw=%08x)", tmpO, waveFloatBuffer[tmpO], b));
-                        }
-                        tmpO++;
-                    }
-                    logger.log(Level.TRACE, "WaveFloatBuffer pre-filter RMS: " + Math.sqrt(sumSq / (cpu.timestamp - lastPoo)));
-                }
-            }
-{
-    // int nonZero = 0;
-    // float sum = 0;
-    // float min = Float.MAX_VALUE;
-    // float max = -Float.MAX_VALUE;
-    for (int k = cpu.timestamp - lastPoo; k != 0; k--) {
-        float v = waveFloatBuffer[lastPoo + k];
-        // if (v != 0) nonZero++;
-        // sum += Math.abs(v);
-        // if (v < min) min = v;
-        // if (v > max) max = v;
-    }
-    // if (nonZero > 0) System.err.println("WaveFloatBuffer: " + nonZero + " sum=" + sum + " min=" + min + " max=" + max + " rawWaveHi[0]=" + waveHi[lastPoo]);
-}
-            end = filter.exec(waveFloatBuffer, waveFinal, waveFinalLen, cpu.timestamp, left, 0);
+                for (int j = 0; j < expCount; j++) {
+//                  if (exp[x].HiFill) {
+                        exp[j].fillHi();
+//                  }
+                }
+            }
 
-            if (filter.inputFormat == Filter.FFI_INT16) {
-                 // ...
+            if (buses != null) {
+                end = flushBuses();
+            } else if (filter.inputFormat == Filter.FFI_INT16) {
+                int shift = int16Shift();
+                deltaSum = mix16(waveHi, deltas, deltaSum, 0, wave16, lastPoo, cpu.timestamp, shift, int16Rest);
+                end = filter.exec16(wave16, waveFinal16, waveFinalLen, cpu.timestamp, left, shift);
+                System.arraycopy(wave16, cpu.timestamp - left[0], wave16, 0, left[0]);
             } else {
+                // mixed by the fir as it goes
+                end = filter.exec(waveFloatBuffer, waveFinal, waveFinalLen, cpu.timestamp, left, mixer, lastPoo);
+                if (metricsListener != null) {
+                    metricsListener.mixed(waveFloatBuffer, lastPoo, cpu.timestamp);
+                }
                 System.arraycopy(waveFloatBuffer, cpu.timestamp - left[0], waveFloatBuffer, 0, left[0]);
-                System.arraycopy(waveHi, cpu.timestamp - left[0], waveHi, 0, left[0]);
-                // Clear the rest of waveHi (int accumulator) for next frame
-                // Note: waveHi (int) accumulation starts at left[0] in doSQ etc (channels[i] = left[0])
-                // So we clear from left[0] onwards.
-                Arrays.fill(waveHi, left[0], waveHi.length, 0);
             }
+            System.arraycopy(waveHi, cpu.timestamp - left[0], waveHi, 0, left[0]);
+            // Clear the rest of waveHi (int accumulator) for next frame
+            // Note: waveHi (int) accumulation starts at left[0] by syncHi of the expansion sounds
+            // So we clear from left[0] onwards, nothing is written at or after the timestamp.
+            Arrays.fill(waveHi, left[0], cpu.timestamp, 0);
+            // the rest are mixed and cleared, but the levels from the timestamp
+            int carry = deltas[cpu.timestamp];
+            deltas[cpu.timestamp] = 0;
+            deltas[left[0]] = carry;
 
             for (int j = 0; j < expCount; j++) {
 //              if (exp[x].hiFill) {
@@ -230,7 +686,7 @@ public class NesApu {
         lastPoo = cpu.timestamp;
         inBuf = end;
 
-        return end;
+        return buses != null ? end : interleave(end);
     }
 
     /*
@@ -245,10 +701,6 @@ public class NesApu {
         fCount = 0;
 
         nReg = 1;
-        wLookup1[0] = 0;
-        for (int i = 1; i < 32; i++) {
-            this.wLookup1[i] = (int) (16 * 16 * 16 * 4 * 95.52 / (8128d / i + 100));
-        }
         for (int i = 0; i < 2; i++) {
             wlCount[i] = 2048;
             sweepOn[i] = 0;
@@ -292,11 +744,24 @@ public class NesApu {
         for (int i = 0; i < unitEnvs.length; i++) {
             unitEnvs[i] = new UnitEnvironment();
         }
+        Arrays.fill(rectDutyCount, 0);
+        Arrays.fill(sweepCount, (byte) 0);
+        dmcAcc = 0;
+        dmcBitCount = 0;
+        dmcDMABuf = 0;
 
         for (int j = 0; j < 5; j++) {
             channels[j] = 0;
         }
         lastPoo = 0;
+        inBuf = 0;
+        int16Rest[0] = 0;
+        for (int j = 0; j < expCount; j++) {
+            if (exp[j].log != null) {
+                exp[j].log.clear();
+            }
+        }
+        updateBuses();
         loadDMCPeriod((byte) (dmcFormat & 0xf));
     }
 
@@ -312,21 +777,13 @@ public class NesApu {
 
         this.cpu = cpu;
 
+        this.waveHi = new int[capacity(cpu.pal)];
+        this.waveFloatBuffer = new float[waveHi.length];
+        this.deltas = new int[waveHi.length];
+
         this.fhInc = cpu.pal ? 16626 : 14915; // * 2 CPU clock rate
         this.fhInc *= 24;
 
-        this.wLookup1[0] = 0;
-        for (int i = 1; i < 32; i++) {
-            this.wLookup1[i] = (int) (16 * 16 * 16 * 4 * 95.52 / (8128d / i + 100));
-        }
-
-        this.wLookup2[0] = 0;
-        for (int i = 1; i < 203; i++) {
-            this.wLookup2[i] = (int) (16 * 16 * 16 * 4 * 163.67 / (24329d / i + 100));
-        }
-        logger.log(Level.TRACE, "wLookup1[15]: " + wLookup1[15]);
-        logger.log(Level.TRACE, "wLookup2[45]: " + wLookup2[45]);
-
         loadDMCPeriod((byte) (dmcFormat & 0xf));
     }
 
@@ -345,109 +802,90 @@ public class NesApu {
         }
     }
 
+    /** {@link ExpSound#fillHi()} by the tasks, see {@link #setParallel(boolean)} */
+    private void fillParallel() {
+        for (int j = 1; j < expCount; j++) {
+            exp[j].log.prepare(cpu.timestamp);
+            exp[j].log.task.fork();
+        }
+        if (expCount > 0) {
+            exp[0].log.prepare(cpu.timestamp);
+            exp[0].log.task.invoke();
+        }
+        for (int j = 1; j < expCount; j++) {
+            exp[j].log.task.join();
+        }
+        for (int j = 0; j < expCount; j++) {
+            exp[j].log.merge(this);
+        }
+    }
+
     /** */
     public void addExp(ExpSound exp) {
         if (expCount < 16) {
+            exp.stem = gains.length;
+            gains = Arrays.copyOf(gains, gains.length + exp.channels);
+            Arrays.fill(gains, exp.stem, gains.length, 1);
+            pans = Arrays.copyOf(pans, gains.length);
+            levels = Arrays.copyOf(levels, gains.length);
+            exp.log = parallel ? new WriteLog(exp) : null;
             this.exp[expCount++] = exp;
         }
     }
 
     /** */
     private void doPCM() {
-        if ((disabled & 0x10) == 0) {
-            int count;
-            int dp;
-            int out;
-
-            count = cpu.timestamp - channels[4];
-            dp = channels[4];
-            out = rawDALatch << TRINPCM_SHIFT;
-
-            while (count > 0) {
-//logger.log(Level.TRACE, "count: %d, dp: %d, out: %d, pc:%04x%n".formatted(count, dp, out, cpu.pc);
-                waveHi[dp] += out;
-                dp++;
-                count--;
-            }
-//          for (int v = apu.ChannelBC[4]; v < x.timestamp; v++) {
-//              apu.waveHi[v] += apu.rawDALatch << TRINPCM_SHIFT;
-//          }
-        }
+        int d = channels[4];
         channels[4] = cpu.timestamp;
+        if (rewind(4, d)) {
+            return;
+        }
+        event(4, d, (disabled & 0x10) == 0 ? rawDALatch : 0);
     }
 
     /** This has the correct phase. Don't mess with it. */
     private void doSQ(int i) {
-//if (cpu.timestamp % 1000 < 100) {
-//    logger.log(Level.TRACE, "doSQ(%d): ts=%d ch=%d freq=%d len=%d dis=%d".formatted(
-//        i, cpu.timestamp, channels[i], curFreq[i], lengthCount[i], disabled));
-//}
-
-        if ((disabled & (1 << i)) != 0) {
-            channels[i] = cpu.timestamp;
+        int d = channels[i];
+        int end = cpu.timestamp;
+        channels[i] = end;
+        if (rewind(i, d)) {
             return;
         }
 
-        if (curFreq[i] < 8 || curFreq[i] > 0x7ff) {
-            channels[i] = cpu.timestamp;
-            return;
-        }
-        if (checkFreq(curFreq[i], psg[(i << 2) | 0x1]) == 0) {
-            channels[i] = cpu.timestamp;
-            return;
-        }
-        if (lengthCount[i] == 0) {
-//if (i == 0 && cpu.timestamp % 1000 < 100) {
-// logger.log(Level.DEBUG, String.format("doSQ(%d): SILENT (len=0, dis=%d)", i, disabled));
-//}
-            channels[i] = cpu.timestamp;
+        if ((disabled & (1 << i)) != 0 || curFreq[i] < 8 || curFreq[i] > 0x7ff ||
+                checkFreq(curFreq[i], psg[(i << 2) | 0x1]) == 0 || lengthCount[i] == 0) {
+            event(i, d, 0);
             return;
         }
 
-        int amp;
-        if ((unitEnvs[i].mode & 0x1) != 0) {
-            amp = unitEnvs[i].speed;
-        } else {
-            amp = unitEnvs[i].decVolume;
-        }
-//logger.log(Level.DEBUG, "%d".formatted(amp));
+        int amp = (unitEnvs[i].mode & 0x1) != 0 ? unitEnvs[i].speed : unitEnvs[i].decVolume;
         int rThresh = RectDuties[(psg[(i << 2)] & 0xC0) >> 6];
 
-if (i == 0 && amp > 0 && cpu.timestamp % 1000 < 100) {
+if (X6502.TRACE && i == 0 && amp > 0 && cpu.timestamp % 1000 < 100 && logger.isLoggable(Level.TRACE)) {
     logger.log(Level.TRACE, String.format("doSQ(%d): amp=%d rThresh=%d", i, amp, rThresh));
 }
-        amp <<= SQ_SHIFT;
 
-        int d = channels[i];
         int curRdc = rectDutyCount[i];
         int cf = (curFreq[i] + 1) * 2;
         int rc = wlCount[i];
 
-        while (d < cpu.timestamp) {
+        while (d < end) {
             if (rc <= 0) { // Safety: Force reload if invalid or wrapped
                 rc = cf;
                 curRdc = (curRdc + 1) & 7;
             }
-
-            if (curRdc < rThresh) {
-                waveHi[d] += amp;
+            event(i, d, curRdc < rThresh ? amp : 0);
+            int n = Math.min(rc, end - d);
+            d += n;
+            rc -= n;
+            if (rc == 0) {
+                rc = cf;
+                curRdc = (curRdc + 1) & 7;
             }
-            rc--;
-                if (rc == 0) {
-                    rc = cf;
-                    curRdc = (curRdc + 1) & 7;
-                }
-            d++;
         }
 
-if (i == 0 && channels[i] < cpu.timestamp) {
-    // System.err.println("doSQ(0): d diff=" + (cpu.timestamp - channels[i]) + " rc=" + rc + " curFreq=" + curFreq[i] + " cf=" + cf + " curRdc=" + curRdc + " rThresh=" + rThresh);
-}
-
         rectDutyCount[i] = curRdc;
         wlCount[i] = rc;
-
-        channels[i] = cpu.timestamp;
     }
 
     /** */
@@ -460,101 +898,216 @@ if (i == 0 && channels[i] < cpu.timestamp) {
         doSQ(1);
     }
 
-    /** */
-    private void doTriangle() {
-
+    /** @return the triangle level in the mixer unit */
+    private int triangleLevel() {
         int tcout = (triStep & 0xF);
         if ((triStep & 0x10) == 0) {
             tcout ^= 0xf;
         }
-        tcout = tcout * 3; // (tcout << 1);
-        tcout <<= TRINPCM_SHIFT;
+        return tcout * 3;
+    }
+
+    /** */
+    private void doTriangle() {
+        int v = channels[2];
+        int end = cpu.timestamp;
+        channels[2] = end;
+        if (rewind(2, v)) {
+            return;
+        }
 
         if ((disabled & 4) != 0) {
-            channels[2] = cpu.timestamp;
+            event(2, v, 0);
             return;
         }
 
-        int v;
         if (lengthCount[2] == 0 || triCount == 0) { // Counter is halted, but we still need to output.
-            for (v = channels[2]; v < cpu.timestamp; v++) {
-                waveHi[v] += tcout;
-            }
-        } else {
-            int wl = (psg[0xa] & 0xff | ((psg[0xb] & 7) << 8)) + 1;
-            for (v = channels[2]; v < cpu.timestamp; v++) {
-                waveHi[v] += tcout;
-                wlCount[2]--;
-                if (wlCount[2] == 0) {
-                    wlCount[2] = wl;
-                    triStep++;
-                    tcout = (triStep & 0xf);
-                    if ((triStep & 0x10) == 0) {
-                        tcout ^= 0xf;
-                    }
-                    tcout = tcout * 3;
-                    tcout <<= TRINPCM_SHIFT;
-                }
+            event(2, v, triangleLevel());
+            return;
+        }
+
+        int wl = (psg[0xa] & 0xff | ((psg[0xb] & 7) << 8)) + 1;
+        while (v < end) {
+            event(2, v, triangleLevel());
+            int n = Math.min(wlCount[2], end - v);
+            v += n;
+            wlCount[2] -= n;
+            if (wlCount[2] == 0) {
+                wlCount[2] = wl;
+                triStep++;
             }
         }
-        channels[2] = cpu.timestamp;
     }
 
     /** */
     private void doNoise() {
-        int[] ampTab = new int[2];
+        int v = channels[3];
+        int end = cpu.timestamp;
+        channels[3] = end;
+        if (rewind(3, v)) {
+            return;
+        }
 
-        if ((unitEnvs[2].mode & 0x1) != 0) {
-            ampTab[0] = unitEnvs[2].speed;
-        } else {
-            ampTab[0] = unitEnvs[2].decVolume;
+        if ((disabled & 8) != 0) {
+            event(3, v, 0);
+            return;
         }
 
-        ampTab[0] <<= TRINPCM_SHIFT;
-        ampTab[1] = 0;
+        int amp = (unitEnvs[2].mode & 0x1) != 0 ? unitEnvs[2].speed : unitEnvs[2].decVolume;
+        amp <<= 1;
+        if (lengthCount[3] == 0) {
+            amp = 0;
+        }
 
-        ampTab[0] <<= 1;
+        int wl = NoiseFreqTable[psg[0xe] & 0xf] << 1;
+        int tap = (psg[0xE] & 0x80) != 0 ? 8 : 13; // "short" noise
+        while (v < end) {
+            event(3, v, ((nReg >> 14) & 1) == 0 ? amp : 0);
+            int n = Math.min(wlCount[3], end - v);
+            v += n;
+            wlCount[3] -= n;
+            if (wlCount[3] == 0) {
+                wlCount[3] = wl;
+                int feedback = ((nReg >> tap) & 1) ^ ((nReg >> 14) & 1);
+                nReg = ((nReg << 1) + feedback) & 0x7fff;
+            }
+        }
+    }
 
-        if ((disabled & 8) != 0) {
-            channels[3] = cpu.timestamp;
+    /**
+     * Synthesizes the 2A03 channels by their level changes at the output rate,
+     * instead of accumulating every cpu cycle into {@link #waveHi} and
+     * decimating it by the fir of {@link Filter}, which costs the most.
+     * The levels are mixed by the same tables, the difference is the anti
+     * aliasing filter: a 32 taps windowed sinc at the output rate instead of
+     * the 512 taps fir at the cpu rate and the linear interpolation. Not for
+     * expansion chips, which render into {@link #waveHi}, the fir is used for them.
+     */
+    void setBlep(boolean blep) {
+        blepRequested = blep;
+        updateBlep(false);
+    }
+
+    /**
+     * Turns {@link #blep} on when requested and it can be, the levels are cleared
+     * when it is turned or the channels are moved.
+     * @param moved the channels go into other buses, the levels held there are lost
+     */
+    private void updateBlep(boolean moved) {
+        boolean on = blepRequested && expCount == 0 && buses == null && (filter == null || filter.inputFormat == Filter.FFI_FLOAT);
+        if (on == blep && !moved) {
             return;
         }
+        blep = on;
+        Arrays.fill(eventCounts, 0);
+        Arrays.fill(levels, 0);
+        Arrays.fill(mixLevels, 0);
+        mixed = 0;
+        if (blip != null) {
+            blip.clear();
+        }
+        Arrays.fill(deltas, 0);
+        deltaSum = 0;
+    }
+
+    /**
+     * Records the level of the channel from the time, into the events for
+     * {@link #blep}, otherwise into {@link #deltas}.
+     */
+    private void event(int channel, int time, int level) {
+        if (level != levels[channel]) {
+            if (blep) {
+                int n = eventCounts[channel];
+                if (n == eventTimes[channel].length) {
+                    eventTimes[channel] = Arrays.copyOf(eventTimes[channel], n * 2);
+                    eventLevels[channel] = Arrays.copyOf(eventLevels[channel], n * 2);
+                }
+                eventTimes[channel][n] = time;
+                eventLevels[channel][n] = level;
+                eventCounts[channel] = n + 1;
+            } else {
+                // cycles before lastPoo are mixed already
+                int[] deltas = buses != null ? buses[busOf[channel]].deltas : this.deltas;
+                deltas[Math.max(time, lastPoo)] += (level - levels[channel]) << (channel < 2 ? SQ_SHIFT : channel < 5 ? TRINPCM_SHIFT : 0);
+            }
+            levels[channel] = level;
+        }
+    }
 
-        int outO = ampTab[(nReg >> 14) & 1];
+    /**
+     * Records the level of the channel of the expansion sound from the time until
+     * the next level, instead of adding it to every cycle of {@link #waveHi}.
+     * @param channel of the expansion sound
+     * @param time not before the last {@link ExpSound#syncHi(int)}
+     */
+    @Override
+    public void level(ExpSound exp, int channel, int time, int level) {
+        event(exp.stem + channel, time, level);
+    }
 
-        if (lengthCount[3] == 0) {
-            outO = ampTab[0] = 0;
+    /**
+     * The hacks of {@link #hookSoundCPU} put the timestamp back for a while,
+     * the cycles from there had been accumulated into {@link #waveHi} twice.
+     * So the level ends at the time, the next span starts from 0 on it.
+     * @param time where the channel is rendered up to
+     * @return true when the timestamp is behind the time
+     */
+    private boolean rewind(int channel, int time) {
+        if (blep || time <= cpu.timestamp) {
+            return false;
         }
+        event(channel, time, 0);
+        return true;
+    }
 
-        int wl = NoiseFreqTable[psg[0xe] & 0xf] << 1;
-        if ((psg[0xE] & 0x80) != 0) { // "short" noise
-            for (int v = channels[3]; v < cpu.timestamp; v++) {
-                waveHi[v] += outO;
-                wlCount[3]--;
-                if (wlCount[3] == 0) {
-                    byte feedback;
-                    wlCount[3] = wl;
-                    feedback = (byte) (((nReg >> 8) & 1) ^ ((nReg >> 14) & 1));
-                    nReg = (nReg << 1) + feedback;
-                    nReg &= 0x7fff;
-                    outO = ampTab[(nReg >> 0xe) & 1];
+    /** mixes the events of the frame into {@link #blip} */
+    private int flushBlep() {
+        doSQ1();
+        doSQ2();
+        doTriangle();
+        doNoise();
+        doPCM();
+
+        if (blip == null || blip.rate != filter.rate) {
+            blip = new BlipBuffer(cpu.pal ? X6502.PAL_CPU : X6502.NTSC_CPU, filter.rate, waveHi.length);
+        }
+
+        Arrays.fill(eventHeads, 0);
+        while (true) {
+            int time = Integer.MAX_VALUE;
+            for (int i = 0; i < 5; i++) {
+                if (eventHeads[i] < eventCounts[i] && eventTimes[i][eventHeads[i]] < time) {
+                    time = eventTimes[i][eventHeads[i]];
                 }
             }
-        } else {
-            for (int v = channels[3]; v < cpu.timestamp; v++) {
-                waveHi[v] += outO;
-                wlCount[3]--;
-                if (wlCount[3] == 0) {
-                    byte feedback;
-                    wlCount[3] = wl;
-                    feedback = (byte) (((nReg >> 13) & 1) ^ ((nReg >> 14) & 1));
-                    nReg = (nReg << 1) + feedback;
-                    nReg &= 0x7fff;
-                    outO = ampTab[(nReg >> 0xe) & 1];
+            if (time == Integer.MAX_VALUE) {
+                break;
+            }
+            for (int i = 0; i < 5; i++) {
+                while (eventHeads[i] < eventCounts[i] && eventTimes[i][eventHeads[i]] == time) {
+                    mixLevels[i] = eventLevels[i][eventHeads[i]++];
                 }
             }
+            float level = MixerTables.mix(mixLevels[0] + mixLevels[1], mixLevels[2] + mixLevels[3] + mixLevels[4]);
+            if (level != mixed) {
+                blip.addDelta(time, level - mixed);
+                mixed = level;
+            }
         }
-        channels[3] = cpu.timestamp;
+        Arrays.fill(eventCounts, 0);
+
+        int end = blip.read(cpu.timestamp, waveFinal);
+        filter.execOutput(waveFinal, end);
+
+        for (int j = 0; j < 5; j++) {
+            channels[j] = 0;
+        }
+        cpu.timestampBase += cpu.timestamp;
+        cpu.timestamp = 0;
+        lastPoo = 0;
+        inBuf = end;
+
+        return end;
     }
 
     /** */
@@ -614,7 +1167,7 @@ if (i == 0 && channels[i] < cpu.timestamp) {
     private final Writer psgWriter = new Writer() {
         @Override
         public void exec(int address, int value) {
-            logger.log(Level.TRACE, String.format("PSG Write: 40%02x val=%02x at ts=%d", address & 0x1f, value, cpu.timestamp));
+            if (X6502.TRACE && logger.isLoggable(Level.TRACE)) logger.log(Level.TRACE, String.format("PSG Write: 40%02x val=%02x at ts=%d", address & 0x1f, value, cpu.timestamp));
 
             address &= 0x1f;
 
@@ -928,6 +1481,18 @@ if (i == 0 && channels[i] < cpu.timestamp) {
         }
     }
 
+    /**
+     * The cpu may run this many cycles without calling {@link #hookSoundCPU(int)},
+     * until a frame sequencer tick, a dmc bit or a dmc fetch, which may raise an irq.
+     * Register writes may change it.
+     */
+    public int cyclesToEvent() {
+        if (dmcSize != 0 && dmcHaveDMA == 0) {
+            return 0;
+        }
+        return Math.min((fhCount + 47) / 48, dmcAcc);
+    }
+
     /** */
     public void hookSoundCPU(int cycles) {
 
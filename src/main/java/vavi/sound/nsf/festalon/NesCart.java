@@ -1,11 +1,5 @@
 package vavi.sound.nsf.festalon;
 
-import java.lang.System.Logger;
-import java.lang.System.Logger.Level;
-import java.util.Arrays;
-
-import static java.lang.System.getLogger;
-
 
 /**
  * NesCart.
@@ -15,21 +9,13 @@ import static java.lang.System.getLogger;
  */
 class NesCart {
 
-    private static final Logger logger = getLogger(NesCart.class.getName());
-
-    /** */
-    private static class Page {
-        /** */
-        final byte[] page;
-        /** */
-        final int pagePointer;
+    /** a prg chip */
+    private static class Chip {
         /** */
         byte[] prgPointer;
         /** */
         int prgSize;
         /** */
-        boolean prgIsRAM;
-        /** */
         boolean prgRam;
         /** */
         int prgMask2;
@@ -41,107 +27,103 @@ class NesCart {
         int prgMask16;
         /** */
         int prgMask32;
-        /** */
-        Page(byte[] page, int pagePointer) {
-            this.page = page;
-            this.pagePointer = pagePointer;
-//logger.log(Level.TRACE, "Page: %04X, %04X".formatted(page.length, pagePointer));
-        }
-        public String toString() {
-            return Arrays.toString(page) + ", " + pagePointer + ", " + prgSize + ", " + prgIsRAM;
-        }
-        public byte read(int address) {
-            return page[address + pagePointer];
-        }
-        public void write(int address, byte value) {
-            page[address + pagePointer] = value;
-        }
     }
 
+    // 16 are (sort of) reserved for UNIF/iNES and 16 to map other stuff.
+
     /** */
-    private final Page[] pages = new Page[32];
+    private final Chip[] chips = new Chip[32];
 
-    // 16 are (sort of) reserved for UNIF/iNES and 16 to map other stuff.
+    /** read for unmapped pages, never written */
+    private static final byte[] nothing = new byte[0x10000];
+
+    /** flattened bank table per 2K page, {@code banks[a >> 11][offsets[a >> 11] + a]} */
+    private final byte[][] banks = new byte[32][];
+    /** */
+    private final int[] offsets = new int[32];
+    /** */
+    private final boolean[] writable = new boolean[32];
+
+    /** the cpu which reads banks directly, null when not attached */
+    private X6502 cpu;
 
     /** */
     private void setPagePtr(int s, int address, byte[] p, int pP, boolean ram) {
         int addressBase = address >> 11;
-//logger.log(Level.TRACE, "setPagePtr: %04X, %04X, %s".formatted(address, addressBase, p));
-//new Exception("*** DUMMY ***").printStackTrace();
-
-        if (p != null) {
-            for (int i = 0; i < (s >> 1); i++) {
-//logger.log(Level.TRACE, "0: %04X, %04X\n".formatted(pP, address));
-                pages[addressBase + i] = new Page(p, pP - address);
-                pages[addressBase + i].prgIsRAM = ram;
-//logger.log(Level.DEBUG, "1: page: %d, %04X, %04X".formatted(addressBase + i, pages[addressBase + i].page.length, pages[addressBase + i].pagePointer));
-            }
-        } else {
-            for (int i = 0; i < (s >> 1); i++) {
-                pages[addressBase + i] = new Page(new byte[0x10000], 0);
-                pages[addressBase + i].prgIsRAM = false;
-//logger.log(Level.DEBUG, "3: page: %d, %04X, %04X".formatted(addressBase + i, pages[addressBase + i].page.length, pages[addressBase + i].pagePointer));
-            }
+
+        if (p == null) {
+            p = nothing;
+            pP = address;
+            ram = false;
+        }
+        for (int i = 0; i < (s >> 1); i++) {
+            banks[addressBase + i] = p;
+            offsets[addressBase + i] = pP - address;
+            writable[addressBase + i] = ram;
+        }
+        if (cpu != null) {
+            cpu.moveDirectReader(address, address + (s << 10) - 1, p, pP);
         }
     }
 
-    /** */
-    private final byte[] nothing = new byte[8192];
-
     /** */
     NesCart() {
         for (int i = 0; i < 32; i++) {
-            pages[i] = new Page(nothing, -2048 * i);
-            pages[i].prgPointer = null;
-            pages[i].prgSize = 0;
+            chips[i] = new Chip();
+            banks[i] = nothing;
+        }
+    }
+
+    /**
+     * Lets the cpu read the banks in the range without calling {@link #cartReader},
+     * which must be set as the reader for the range, and follows bank switches.
+     */
+    void setDirectReader(X6502 cpu, int start, int end) {
+        this.cpu = cpu;
+        for (int address = start; address < end; address += 0x800) {
+            int page = address >> 11;
+            cpu.setDirectReader(address, address + 0x7ff, banks[page], offsets[page] + address);
         }
     }
 
     /** */
     void setupPRG(int chip, byte[] p, int size, boolean ram) {
-        pages[chip].prgPointer = p;
-        pages[chip].prgSize = size;
+        Chip c = chips[chip];
+        c.prgPointer = p;
+        c.prgSize = size;
 
-        pages[chip].prgMask2 = (size >> 11) - 1;
-        pages[chip].prgMask4 = (size >> 12) - 1;
-        pages[chip].prgMask8 = (size >> 13) - 1;
-        pages[chip].prgMask16 = (size >> 14) - 1;
-        pages[chip].prgMask32 = (size >> 15) - 1;
+        c.prgMask2 = (size >> 11) - 1;
+        c.prgMask4 = (size >> 12) - 1;
+        c.prgMask8 = (size >> 13) - 1;
+        c.prgMask16 = (size >> 14) - 1;
+        c.prgMask32 = (size >> 15) - 1;
 
-        pages[chip].prgRam = ram;
+        c.prgRam = ram;
     }
 
     /** */
-    private int readCounter = 0;
-    final Reader cartReader = (address, dataBus) -> {
-        int val = pages[address >> 11].read(address) & 0xff;
-        if (readCounter < 100) {
-             logger.log(Level.TRACE, "ROM Read at %04X: %02x".formatted(address, val));
-             readCounter++;
-        }
-        return val;
-    };
+    final Reader cartReader = (address, dataBus) -> banks[address >> 11][offsets[address >> 11] + address] & 0xff;
 
     /** */
     final Writer cartWriter = (address, value) -> {
-        if (pages[address >> 11].prgIsRAM && pages[address >> 11] != null) {
-            pages[address >> 11].write(address, (byte) value);
+        if (writable[address >> 11]) {
+            banks[address >> 11][offsets[address >> 11] + address] = (byte) value;
         }
     };
 
     /** */
     private final Reader cartReaderOB = (address, dataBus) -> {
-        if (pages[address >> 11] == null) {
+        if (banks[address >> 11] == nothing) {
             return dataBus;
         }
-        return pages[address >> 11].read(address) & 0xff;
+        return banks[address >> 11][offsets[address >> 11] + address] & 0xff;
     };
 
     /** */
     void setPrg2r(int r, int address, int value) {
-        value &= pages[r].prgMask2;
+        value &= chips[r].prgMask2;
 
-        setPagePtr(2, address, pages[r].prgPointer, pages[r].prgPointer != null ? value << 11 : 0, pages[r].prgRam);
+        setPagePtr(2, address, chips[r].prgPointer, chips[r].prgPointer != null ? value << 11 : 0, chips[r].prgRam);
     }
 
     /** */
@@ -151,8 +133,8 @@ class NesCart {
 
     /** */
     void setPrg4r(int r, int address, int value) {
-        value &= pages[r].prgMask4;
-        setPagePtr(4, address, pages[r].prgPointer, pages[r].prgPointer != null ? value << 12 : 0, pages[r].prgRam);
+        value &= chips[r].prgMask4;
+        setPagePtr(4, address, chips[r].prgPointer, chips[r].prgPointer != null ? value << 12 : 0, chips[r].prgRam);
     }
 
     /** */
@@ -162,13 +144,13 @@ class NesCart {
 
     /** */
     void setPrg8r(int r, int address, int value) {
-        if (pages[r].prgSize >= 8192) {
-            value &= pages[r].prgMask8;
-            setPagePtr(8, address, pages[r].prgPointer, pages[r].prgPointer != null ? value << 13 : 0, pages[r].prgRam);
+        if (chips[r].prgSize >= 8192) {
+            value &= chips[r].prgMask8;
+            setPagePtr(8, address, chips[r].prgPointer, chips[r].prgPointer != null ? value << 13 : 0, chips[r].prgRam);
         } else {
             int va = value << 2;
             for (int i = 0; i < 4; i++) {
-                setPagePtr(2, address + (i << 11), pages[r].prgPointer, pages[r].prgPointer != null ? ((va + i) & pages[r].prgMask2) << 11 : 0, pages[r].prgRam);
+                setPagePtr(2, address + (i << 11), chips[r].prgPointer, chips[r].prgPointer != null ? ((va + i) & chips[r].prgMask2) << 11 : 0, chips[r].prgRam);
             }
         }
     }
@@ -180,13 +162,13 @@ class NesCart {
 
     /** */
     void setPrg16r(int r, int address, int value) {
-        if (pages[r].prgSize >= 16384) {
-            value &= pages[r].prgMask16;
-            setPagePtr(16, address, pages[r].prgPointer, pages[r].prgPointer != null ? value << 14 : 0, pages[r].prgRam);
+        if (chips[r].prgSize >= 16384) {
+            value &= chips[r].prgMask16;
+            setPagePtr(16, address, chips[r].prgPointer, chips[r].prgPointer != null ? value << 14 : 0, chips[r].prgRam);
         } else {
             int va = value << 3;
             for (int i = 0; i < 8; i++) {
-                setPagePtr(2, address + (i << 11), pages[r].prgPointer, pages[r].prgPointer != null ? ((va + i) & pages[r].prgMask2) << 11 : 0, pages[r].prgRam);
+                setPagePtr(2, address + (i << 11), chips[r].prgPointer, chips[r].prgPointer != null ? ((va + i) & chips[r].prgMask2) << 11 : 0, chips[r].prgRam);
             }
         }
     }
@@ -198,15 +180,15 @@ class NesCart {
 
     /** */
     void setPrg32r(int r, int address, int value) {
-        if (pages[r].prgSize >= 32768) {
-            value &= pages[r].prgMask32;
-            setPagePtr(32, address, pages[r].prgPointer, pages[r].prgPointer != null ? value << 15 : 0, pages[r].prgRam);
+        if (chips[r].prgSize >= 32768) {
+            value &= chips[r].prgMask32;
+            setPagePtr(32, address, chips[r].prgPointer, chips[r].prgPointer != null ? value << 15 : 0, chips[r].prgRam);
         } else {
             int VA = value << 4;
             int x;
 
             for (x = 0; x < 16; x++) {
-                setPagePtr(2, address + (x << 11), pages[r].prgPointer, pages[r].prgPointer != null ? ((VA + x) & pages[r].prgMask2) << 11 : 0, pages[r].prgRam);
+                setPagePtr(2, address + (x << 11), chips[r].prgPointer, chips[r].prgPointer != null ? ((VA + x) & chips[r].prgMask2) << 11 : 0, chips[r].prgRam);
             }
         }
     }
@@ -49,6 +49,8 @@ public class Nsf extends Plugin {
 
     private static final Logger logger = getLogger(Nsf.class.getName());
 
+    /** */
+    static final int FESTAGFI_TAGS = 0x1;
     /** */
     static final int FESTAGFI_TAGS_DATA = 0x2;
     /** */
@@ -101,6 +103,8 @@ public class Nsf extends Plugin {
     private byte[] nsfRom;
     /** */
     private int doodoo;
+    /** by {@link #init()}, powered again by {@link #reset()} */
+    private ExpSound[] expSounds = {};
 
     /** */
     static class Header {
@@ -205,7 +209,7 @@ public class Nsf extends Plugin {
     private final Writer amlWriter = new Writer() {
         @Override public void exec(int address, int value) {
             int addr = address & 0x7ff;
-            if (addr == 0x770 || addr == 0xfb || addr == 0xfa) {
+            if ((addr == 0x770 || addr == 0xfb || addr == 0xfa) && logger.isLoggable(Level.TRACE)) {
                  logger.log(Level.TRACE, String.format("Write to RAM[%04x]: %02x at ts=%d, PC=%04x", addr, value, cpu.timestamp, cpu.pc));
             }
             ram[addr] = (byte) value;
@@ -251,10 +255,11 @@ public class Nsf extends Plugin {
 
     /** */
     private void setBank(int address, int bank) {
-        logger.log(Level.TRACE, "DEBUG: setBank address=" + Integer.toHexString(address) + " bank=" + bank);
+        if (logger.isLoggable(Level.TRACE)) logger.log(Level.TRACE, "DEBUG: setBank address=" + Integer.toHexString(address) + " bank=" + bank);
         bank &= nsfMaxBank;
         if ((soundChip & 4) != 0) {
             System.arraycopy(nsfData, bank << 12, exWRam, address - 0x6000, 4096);
+            cpu.invalidateCode(address, address + 0xfff);
         } else {
             cart.setPrg4(address, bank);
         }
@@ -268,26 +273,87 @@ public class Nsf extends Plugin {
 
 //        nfe = new Nsf();
 
+        nfe.read(buf, size);
+
+        nfe.init();
+
+        return nfe;
+    }
+
+    /**
+     * Loads another nsf into this instance reusing the cpu, the apu, the filter and
+     * the expansion chips, the song is reset to the starting song. The modes like
+     * {@link #setVolume(int)}, {@link #disable(int)}, {@link #setFixedPoint(boolean)},
+     * {@link #setMixer(int, float, float)} and the listeners are the defaults of a
+     * loaded one, set them up the same way. The filter is reused by
+     * {@link #setSound(int, int)} for the same rate and quality.
+     *
+     * @throws IllegalArgumentException the region or the expansion chips differ from the current nsf
+     * @see NsfPool
+     */
+    public void reload(byte[] buf, int size) throws IOException {
+        Nsf info = (Nsf) getFileInfo(buf, size, FESTAGFI_TAGS);
+        if (info == null || info.poolKey() != poolKey()) {
+            throw new IllegalArgumentException("region or expansion chips differ");
+        }
+
+        bsOn = 0;
+        pal = false;
+        videoSystem = 0;
+        Arrays.fill(bankSwitch, (byte) 0);
+        gameName = artist = copyright = ripper = null;
+        songNames = null;
+        songLengths = songFades = null;
+        nsfExtraSize = 0;
+
+        read(buf, size);
+
+        setMetricsListener(null);
+        setTraceListener(null);
+        setJit(false);
+        setPredecode(false);
+        disable(0);
+        outChannels = 1;
+        apu.resetModes();
+
+        reset();
+    }
+
+    /** */
+    private void read(byte[] buf, int size) throws IOException {
         if (size >= 5 && new String(buf, 0, 5).equals("NESM" + (char) 0x1a)) {
             try {
-                nfe.loadNSF(buf, size, 0);
+                loadNSF(buf, size, 0);
             } catch (IOException e) {
-                nfe.close();
+                close();
                 throw e;
             }
         } else if (new String(buf, 0, 4).equals("NSFE")) {
-            if (nfe.load(buf, size, 0) == 0) {
-                nfe.close();
+            if (load(buf, size, 0) == 0) {
+                close();
                 throw new IllegalArgumentException("NSFE");
             }
         } else {
-            nfe.close();
+            close();
             throw new IllegalArgumentException("unknown");
         }
+    }
 
-        nfe.init();
+    /**
+     * @return instances with the same key have the same bus map and expansion chips
+     * @see NsfPool
+     */
+    int poolKey() {
+        return (isPal() ? 0x100 : 0) | soundChip;
+    }
 
-        return nfe;
+    /** */
+    private boolean isPal() {
+        return switch (videoSystem & 0x3) {
+            case 0 -> false;
+            case 1 -> true;
+            default -> pal;
+        };
     }
 
     /*
@@ -387,7 +453,9 @@ logger.log(Level.TRACE, "nsfSize: %04x".formatted(nsfSize));
 logger.log(Level.TRACE, "nsfMaxBank: %04x".formatted(nsfMaxBank));
 
         if (info_only == 0) {
-            nsfData = new byte[nsfMaxBank * 4096];
+            if (nsfData == null || nsfData.length != nsfMaxBank * 4096) {
+                nsfData = new byte[nsfMaxBank * 4096];
+            }
             nsfRawData = nsfData;
             int nsfRawDataP = loadAddr & 0xfff;
             nsfRawDataSize = nsfSize;
@@ -449,11 +517,7 @@ logger.log(Level.TRACE, "here 2");
      */
     private void init() {
 
-        if ((videoSystem & 0x3) == 0) {
-            pal = false;
-        } else if ((videoSystem & 0x3) == 1) {
-            pal = true;
-        }
+        pal = isPal();
 
         if ((soundChip & 4) != 0) {
             exWRam = new byte[32768 + 8192];
@@ -465,9 +529,58 @@ logger.log(Level.TRACE, "here 2");
 
         apu = new NesApu(cpu);
 
+        cart = new NesCart();
+
+        cpu.power();
+
+        // We don't support expansion sound chips in PAL mode. It would be EL
+        // BUTTO PAINO to do so, and probably slow, since it would require
+        // having two resamplers going at once(on some chips; Festalon takes
+        // advantage of the fact that chips like the VRC7 are run at a clock
+        // speed "compatible" with the NES' CPU clock speed, as far as
+        // resampling is concerned).
+
+        totalChannels = 5;
+
+        if (!pal) {
+            // only the chips used, the others would install their handlers
+            ExpSound[] expSounds = new ExpSound[6];
+            int n = 0;
+            for (int i = 0; i < expSounds.length; i++) {
+                if ((soundChip & (1 << i)) != 0) {
+                    ExpSound expSound = switch (i) {
+                        case 0 -> new Vrc6(apu);
+                        case 1 -> new Vrc7(apu);
+                        case 2 -> new Fds(apu);
+                        case 3 -> new Mmc5(apu);
+                        case 4 -> new N106(apu);
+                        default -> new Ay(apu);
+                    };
+                    apu.addExp(expSound);
+                    totalChannels += expSound.channels;
+                    expSounds[n++] = expSound;
+                }
+            }
+            this.expSounds = Arrays.copyOf(expSounds, n);
+        }
+
+        reset();
+    }
+
+    /**
+     * Sets the bus map up and powers the cpu, the apu and the expansion chips on,
+     * for the nsf just loaded.
+     */
+    private void reset() {
+
+        pal = isPal();
+
         cpu.power();
 
         cpu.setReader(0x0000, 0x1fff, amlReader, ram);
+        for (int i = 0x0000; i < 0x2000; i += 0x800) {
+            cpu.setDirectReader(i, i + 0x7ff, ram, 0);
+        }
         cpu.setWriter(0x0000, 0x1fff, amlWriter, ram);
 
         // Fill gaps with ignorant writers first
@@ -486,8 +599,6 @@ logger.log(Level.TRACE, "here 2");
 
         doReset = 0; // 1;
 
-        cart = new NesCart();
-
         if ((soundChip & 4) != 0) {
             cart.setupPRG(0, exWRam, 32768 + 8192, true);
             cart.setPrg32(0x6000, 0);
@@ -526,6 +637,7 @@ logger.log(Level.TRACE, "here 2");
             cpu.setWriter(0x6000, 0x7fff, cart.cartWriter, cart);
             cpu.setReader(0x8000, 0xffff, cart.cartReader, cart);
         }
+        cart.setDirectReader(cpu, 0x6000, 0xffff);
 
         bsOn = 0;
         for (int i = 0; i < 8; i++) {
@@ -579,30 +691,16 @@ logger.log(Level.TRACE, "here 2");
 
         cpu.setWriter(0x3ff0, 0x3fff, nsfWriter, this);
 
-        // We don't support expansion sound chips in PAL mode. It would be EL
-        // BUTTO PAINO to do so, and probably slow, since it would require
-        // having two resamplers going at once(on some chips; Festalon takes
-        // advantage of the fact that chips like the VRC7 are run at a clock
-        // speed "compatible" with the NES' CPU clock speed, as far as
-        // resampling is concerned).
-
-        totalChannels = 5;
-
-        if (!pal) {
-            ExpSound[] expSounds = {
-                new Vrc6(apu), new Vrc7(apu), new Fds(apu), new Mmc5(apu), new N106(apu), new Ay(apu)
-            };
-
-            for (int i = 0; i < expSounds.length; i++) {
-                if ((soundChip & (1 << i)) != 0) {
-                    apu.addExp(expSounds[i]);
-                    totalChannels += expSounds[i].channels;
-                }
-            }
+        for (ExpSound expSound : expSounds) {
+            expSound.power();
+        }
+        if (apu.filter != null) {
+            apu.filter.reset();
         }
 
         currentSong = startingSong;
         songReload = (byte) 0xff;
+        doodoo = 0;
     }
 
     /** */
@@ -649,6 +747,7 @@ logger.log(Level.TRACE, "here 2");
             for (int i = 0; i < 8192; i++) {
                 exWRam[i] = 0x00;
             }
+            cpu.invalidateCode(0x6000, 0x7fff);
             cpu.writeDm(0x4017, 0xc0);
             cpu.writeDm(0x4017, 0xc0);
             cpu.writeDm(0x4017, 0x40);
@@ -673,20 +772,74 @@ logger.log(Level.TRACE, "here 2");
     }
 
     /**
-     * @param count [0]
-     * @return wave
+     * @param count [0] frames
+     * @return wave, interleaved by {@link #setOutChannels(int)}
      */
     @Override
     public float[] emulate(int[] count) {
         if (count != null && count.length > 0 && count[0] > apu.waveFinalLen) {
             apu.waveFinalLen = count[0];
-            apu.waveFinal = new float[apu.waveFinalLen];
+            apu.waveFinal = new float[apu.waveFinalLen * apu.outChannels];
+        }
+
+        count[0] = emulateFrame();
+        return apu.waveFinal;
+    }
+
+    /**
+     * {@link #emulate(int[])} for {@link #setFixedPoint(boolean)}.
+     * @param count [0]
+     * @return 16 bit pcm
+     */
+    public short[] emulate16(int[] count) {
+        if (count != null && count.length > 0 && count[0] > apu.waveFinalLen) {
+            apu.waveFinalLen = count[0];
+            apu.waveFinal = new float[apu.waveFinalLen * apu.outChannels];
+            apu.waveFinal16 = new short[apu.waveFinalLen * apu.outChannels];
+        }
+
+        count[0] = emulateFrame();
+        return apu.waveFinal16;
+    }
+
+    /**
+     * {@link #emulate(int[])} for {@link #setStems(boolean)}.
+     * @param count [0]
+     * @return [stem][sample], {@link #totalChannels} stems
+     */
+    public float[][] emulateStems(int[] count) {
+        if (count != null && count.length > 0 && count[0] > apu.waveFinalLen) {
+            apu.waveFinalLen = count[0];
+            apu.waveFinal = new float[apu.waveFinalLen * apu.outChannels];
+        }
+
+        count[0] = emulateFrame();
+        return apu.stemFinal;
+    }
+
+    /**
+     * {@link #emulate(int[])} for {@link #setStems(boolean)} and {@link #setFixedPoint(boolean)}.
+     * @param count [0]
+     * @return [stem][sample] 16 bit pcm, {@link #totalChannels} stems
+     */
+    public short[][] emulateStems16(int[] count) {
+        if (count != null && count.length > 0 && count[0] > apu.waveFinalLen) {
+            apu.waveFinalLen = count[0];
+            apu.waveFinal = new float[apu.waveFinalLen * apu.outChannels];
+            apu.waveFinal16 = new short[apu.waveFinalLen * apu.outChannels];
         }
 
+        count[0] = emulateFrame();
+        return apu.stemFinal16;
+    }
+
+    /** @return the number of samples */
+    private int emulateFrame() {
         // Reset the stack if we're going to call the play routine or the init
         // routine.
         if (cpu.pc == 0x3800 || songReload != 0) {
-            if (songReload == 0) logger.log(Level.TRACE, "APU: Calling PLAY routine at " + Integer.toHexString(playAddr));
+            boolean trace = logger.isLoggable(Level.TRACE);
+            if (songReload == 0 && trace) logger.log(Level.TRACE, "APU: Calling PLAY routine at " + Integer.toHexString(playAddr));
             // System.err.println("Re-entering frame: pc=" + String.format("%04x", cpu.pc));
             if (songReload != 0) {
                 // System.err.println("Initializing Song: " + currentSong + " InitAddr=" + Integer.toHexString(initAddr));
@@ -704,9 +857,9 @@ logger.log(Level.TRACE, "here 2");
                 cpu.pc = initAddr;
                 songReload = 0;
             } else {
-                logger.log(Level.TRACE, String.format("Entering PLAY: 0x770=%02x, 0xfb=%02x, 0xfa=%02x", ram[0x770], ram[0xfb], ram[0xfa]));
+                if (trace) logger.log(Level.TRACE, String.format("Entering PLAY: 0x770=%02x, 0xfb=%02x, 0xfa=%02x", ram[0x770], ram[0xfb], ram[0xfa]));
                 if (ram[0xfb] != 0 && ram[0x770] == 0) {
-                     logger.log(Level.DEBUG, String.format("Hack triggered: ram[0x770] = ram[0xfb] (%02x)", ram[0xfb]));
+                     if (logger.isLoggable(Level.DEBUG)) logger.log(Level.DEBUG, String.format("Hack triggered: ram[0x770] = ram[0xfb] (%02x)", ram[0xfb]));
                      ram[0x770] = ram[0xfb];
                 }
                 
@@ -738,11 +891,9 @@ logger.log(Level.TRACE, "here 2");
              }
         }
 
-        if (pal) {
-            cpu.run(apu, 312 * (256 + 85) - doodoo);
-        } else {
-            cpu.run(apu, 262 * (256 + 85) - doodoo);
-        }
+        int cycles = (pal ? 312 : 262) * (256 + 85) - doodoo;
+        apu.reserve(cycles);
+        cpu.run(apu, cycles);
         doodoo ^= 1;
 
         cpu.hackSpeed(apu);
@@ -755,8 +906,7 @@ logger.log(Level.TRACE, "here 2");
              logger.log(Level.DEBUG, String.format("RAM[0x770]: %02x", ram[0x770]));
         }
 
-        count[0] = apu.emulateFlush();
-        return apu.waveFinal;
+        return apu.emulateFlush();
     }
 
     @Override
@@ -849,7 +999,11 @@ logger.log(Level.TRACE, "here 2");
                         nsfMaxBank = upPow2(nsfMaxBank);
 
                         if (info_only == 0) {
-                            nsfData = new byte[nsfMaxBank * 4096];
+                            if (nsfData == null || nsfData.length != nsfMaxBank * 4096) {
+                                nsfData = new byte[nsfMaxBank * 4096];
+                            } else {
+                                Arrays.fill(nsfData, (byte) 0x00);
+                            }
                             // return 0;
                             int nsfRawDataP = loadAddr & 0xfff;
                             if (bsOn != 0) {
@@ -1068,22 +1222,143 @@ logger.log(Level.TRACE, e.getMessage(), e);
         }
     }
 
+    /**
+     * @param metricsListener null to stop
+     * @see ApuMetricsListener
+     */
+    public void setMetricsListener(ApuMetricsListener metricsListener) {
+        apu.setMetricsListener(metricsListener);
+    }
+
+    /**
+     * @param traceListener null to stop tracing
+     * @see X6502#setTraceListener(CpuTraceListener)
+     */
+    public void setTraceListener(CpuTraceListener traceListener) {
+        cpu.setTraceListener(traceListener);
+    }
+
+    /**
+     * @param jit true to execute hot blocks of prg compiled to jvm bytecode, experimental
+     */
+    public void setJit(boolean jit) {
+        cpu.setJit(jit);
+    }
+
+    /**
+     * @param predecode true to execute instructions predecoded from prg, experimental
+     */
+    public void setPredecode(boolean predecode) {
+        cpu.setPredecode(predecode);
+    }
+
+    /**
+     * @param blep true to synthesize the 2A03 channels by band limited steps at the
+     *             output rate, much faster but not the same samples, the spectrum
+     *             matches within the tolerance documented in the test
+     * @see NesApu#setBlep(boolean)
+     */
+    public void setBlep(boolean blep) {
+        apu.setBlep(blep);
+    }
+
+    /**
+     * For measuring, the play routine returned or the cpu idled in a {@code JMP *}
+     * loop, and the rest of the frame was not executed instruction by instruction.
+     * @return cpu cycles fast forwarded in the last frame
+     */
+    public int getSkippedCycles() {
+        return cpu.getSkippedCycles();
+    }
+
     /**
      * @before should call {@link #setSound(int, int)}
      */
     public void setVolume(int volume) {
         apu.filter.soundVolume = volume;
+        apu.updateBuses();
     }
 
     /**
      * @before should call {@link #setSound(int, int)}
      */
     public int setLowPass(boolean on, int corner, int order) {
-        return apu.filter.setLowPass(on, corner, order);
+        int r = apu.filter.setLowPass(on, corner, order);
+        apu.updateBuses();
+        return r;
+    }
+
+    /**
+     * @param on true to render 16 bit pcm by fixed point, get them by {@link #emulate16(int[])}.
+     *           the polyphase fir and the band limited steps are not used
+     * @before should call {@link #setSound(int, int)}
+     * @see Filter#exec16(short[], short[], int, int, int[], int)
+     */
+    public void setFixedPoint(boolean on) {
+        apu.setFixedPoint(on);
+    }
+
+    /**
+     * @param on true to render every channel alone in one emulation, get them by
+     *           {@link #emulateStems(int[])}, or by {@link #emulateStems16(int[])} with
+     *           {@link #setFixedPoint(boolean)}. a stem is the same samples as
+     *           {@link #emulate(int[])} or {@link #emulate16(int[])} with the other
+     *           channels disabled
+     * @before should call {@link #setSound(int, int)}
+     * @see NesApu#setStems(boolean)
+     */
+    public void setStems(boolean on) {
+        apu.setStems(on);
+    }
+
+    /**
+     * @param on true to render the expansion chips on the common fork join pool,
+     *           a task per chip, the same samples
+     * @see NesApu#setParallel(boolean)
+     */
+    public void setParallel(boolean on) {
+        apu.setParallel(on);
+    }
+
+    /**
+     * @param channel the bit of {@link #disable(int)}, less than {@link #totalChannels}
+     * @param gain 1 as is
+     * @param pan -1: left ~ 0: center ~ 1: right, for stereo
+     * @see NesApu#setMixer(int, float, float)
+     */
+    public void setMixer(int channel, float gain, float pan) {
+        apu.setMixer(channel, gain, pan);
+    }
+
+    /**
+     * @param channels 1: mono, 2: stereo, {@link #emulate(int[])} and
+     *                 {@link #emulate16(int[])} return the frames interleaved
+     */
+    public void setOutChannels(int channels) {
+        if (channels < 1 || channels > 2) {
+            throw new IllegalArgumentException("channels: " + channels);
+        }
+        outChannels = channels;
+        apu.setOutChannels(channels);
+    }
+
+    /**
+     * @before should call {@link #setSound(int, int)}
+     * @see Filter#setPolyphase(boolean, int)
+     */
+    public void setPolyphase(boolean on, int quality) {
+        apu.filter.setPolyphase(on, quality);
+        apu.updateBuses();
     }
 
     /** */
     public void setSound(int rate, int quality) {
+        if (apu.filter != null && apu.filter.matches(rate, quality)) {
+            // reused, e.g. by NsfPool
+            apu.filter.reset();
+            apu.updateBuses();
+            return;
+        }
 //        if (apu.filter != null) {
 //            apu.filter = null;
 //        }
@@ -1094,7 +1369,8 @@ logger.log(Level.TRACE, e.getMessage(), e);
 //        if (apu.waveFinal != null) {
 //            apu.waveFinal = null;
 //        }
-        apu.waveFinal = new float[apu.waveFinalLen];
+        apu.waveFinal = new float[apu.waveFinalLen * apu.outChannels];
+        apu.updateBuses();
     }
 
     private static int readIntLE(DataInputStream dis) throws IOException {
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Keeps emulators which finished playing, and loads other nsfs into them
+ * instead of allocating the cpu tables, the apu buffers, the filter and the
+ * expansion chips for every file, for batch rendering.
+ * <p>
+ * Emulators are pooled by the region and the expansion chip mask, which fix
+ * the bus map and the chips.
+ * </p>
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+public class NsfPool {
+
+    /** idle emulators by {@link Nsf#poolKey()} */
+    private final Map<Integer, Deque<Nsf>> idles = new HashMap<>();
+
+    /**
+     * @return an idle emulator for the same region and expansion chips reloaded with the nsf,
+     *         or a new one. either is in the defaults of a loaded one, set it up the same way
+     * @see Nsf#reload(byte[], int)
+     */
+    public Nsf acquire(byte[] buf, int size) throws IOException {
+        Nsf info = (Nsf) Nsf.getFileInfo(buf, size, Nsf.FESTAGFI_TAGS);
+        Nsf nsf = null;
+        if (info != null) {
+            synchronized (idles) {
+                Deque<Nsf> nsfs = idles.get(info.poolKey());
+                if (nsfs != null) {
+                    nsf = nsfs.poll();
+                }
+            }
+        }
+        if (nsf == null) {
+            return (Nsf) Nsf.load(buf, size);
+        }
+        nsf.reload(buf, size);
+        return nsf;
+    }
+
+    /**
+     * Returns the emulator to the pool, the caller must not use it any more.
+     */
+    public void release(Nsf nsf) {
+        synchronized (idles) {
+            idles.computeIfAbsent(nsf.poolKey(), k -> new ArrayDeque<>()).push(nsf);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * The inner loops of {@link Filter} by the vector api.
+ * <p>
+ * The float dot product sums by lanes, so it differs from the scalar one by
+ * the rounding of the float additions, the short one widens to int lanes and
+ * is the same. Multiplies and adds are not fused, fma
+ * is emulated on hosts without it. {@link #normalize(float[], int)} is the
+ * same as the scalar one.
+ * </p>
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+class VectorFilterKernel extends FilterKernel {
+
+    /** */
+    private static final VectorSpecies<Float> species = FloatVector.SPECIES_PREFERRED;
+
+    /** */
+    private static final VectorSpecies<Integer> ints = IntVector.SPECIES_PREFERRED;
+
+    /** the same lanes as {@link #ints} */
+    private static final VectorSpecies<Short> shorts = VectorSpecies.of(short.class, VectorShape.forBitSize(ints.vectorBitSize() / 2));
+
+    @Override
+    float dot(float[] in, int offset, float[] coeffs, int length) {
+        FloatVector acc = FloatVector.zero(species);
+        int c = 0;
+        for (int upper = species.loopBound(length); c < upper; c += species.length()) {
+            FloatVector w = FloatVector.fromArray(species, in, offset + c);
+            acc = acc.add(w.mul(FloatVector.fromArray(species, coeffs, c)));
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; c < length; c++) {
+            sum += in[offset + c] * coeffs[c];
+        }
+        return sum;
+    }
+
+    @Override
+    int dot(short[] in, int offset, short[] coeffs, int length) {
+        IntVector acc = IntVector.zero(ints);
+        int c = 0;
+        for (int upper = shorts.loopBound(length); c < upper; c += shorts.length()) {
+            IntVector w = (IntVector) ShortVector.fromArray(shorts, in, offset + c).convertShape(VectorOperators.S2I, ints, 0);
+            acc = acc.add(w.mul((IntVector) ShortVector.fromArray(shorts, coeffs, c).convertShape(VectorOperators.S2I, ints, 0)));
+        }
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; c < length; c++) {
+            sum += in[offset + c] * coeffs[c];
+        }
+        return sum;
+    }
+
+    @Override
+    void normalize(float[] out, int count) {
+        int i = 0;
+        for (int upper = species.loopBound(count); i < upper; i += species.length()) {
+            FloatVector.fromArray(species, out, i).add(32767f).div(65535f).max(0f).min(1f).intoArray(out, i);
+        }
+        normalize(out, i, count);
+    }
+
+    @Override
+    public String toString() {
+        return "vector " + species;
+    }
+}
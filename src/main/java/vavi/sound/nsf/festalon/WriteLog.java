@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+
+
+/**
+ * The register writes of an expansion sound in a frame, logged with their
+ * timestamps while the cpu runs. At the flush the sound replays them as the
+ * cpu had been there, on {@link #task}, into the levels of its own, which
+ * are given to the apu after the join.
+ * <p>
+ * The sound touches nothing but itself and this while replaying, the tables
+ * of the chips are read only.
+ * </p>
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+final class WriteLog implements ExpSound.Levels {
+
+    private final ExpSound exp;
+
+    /** [n] the writes in the order */
+    private int[] times = new int[64];
+    private int[] addresses = new int[64];
+    private int[] values = new int[64];
+    private Writer[] writers = new Writer[64];
+    private int writes;
+
+    /** the time of the write being replayed, see {@link ExpSound#time()} */
+    int time;
+
+    /** the end of the frame {@link #render()} renders up to */
+    private int end;
+
+    /** [n * 3] channel, time, level */
+    private int[] levels = new int[256 * 3];
+    private int count;
+
+    /** {@link #render()} on the fork join pool, reinitialized for every frame */
+    final ForkJoinTask<?> task = ForkJoinTask.adapt(this::render);
+
+    WriteLog(ExpSound exp) {
+        this.exp = exp;
+    }
+
+    /** logs the write instead of the writer */
+    void add(int time, Writer writer, int address, int value) {
+        if (writes == times.length) {
+            times = Arrays.copyOf(times, writes * 2);
+            addresses = Arrays.copyOf(addresses, writes * 2);
+            values = Arrays.copyOf(values, writes * 2);
+            writers = Arrays.copyOf(writers, writes * 2);
+        }
+        times[writes] = time;
+        addresses[writes] = address;
+        values[writes] = value;
+        writers[writes] = writer;
+        writes++;
+    }
+
+    /** applies the writes logged so far, the sound renders up to each of them */
+    void replay() {
+        for (int i = 0; i < writes; i++) {
+            time = times[i];
+            writers[i].exec(addresses[i], values[i]);
+            writers[i] = null;
+        }
+        writes = 0;
+    }
+
+    @Override
+    public void level(ExpSound exp, int channel, int time, int level) {
+        if (count == levels.length) {
+            levels = Arrays.copyOf(levels, count * 2);
+        }
+        levels[count++] = channel;
+        levels[count++] = time;
+        levels[count++] = level;
+    }
+
+    /** before forking {@link #task}, for the frame up to the time */
+    void prepare(int end) {
+        this.end = end;
+        task.reinitialize();
+    }
+
+    /** replays the frame */
+    private void render() {
+        replay();
+        time = end;
+        exp.fillHi();
+    }
+
+    /** gives the levels to the apu, after the join */
+    void merge(NesApu apu) {
+        for (int i = 0; i < count; i += 3) {
+            apu.level(exp, levels[i], levels[i + 1], levels[i + 2]);
+        }
+        count = 0;
+    }
+
+    /** drops the writes and the levels, for the power */
+    void clear() {
+        Arrays.fill(writers, 0, writes, null);
+        writes = 0;
+        count = 0;
+    }
+}
@@ -2,6 +2,10 @@ package vavi.sound.nsf.festalon;
 
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import static java.lang.System.getLogger;
 
@@ -16,17 +20,43 @@ public class X6502 {
 
     private static final Logger logger = getLogger(X6502.class.getName());
 
-    /** */
-    private static class WriteMap {
+    /**
+     * Compile time switch for tracing, when false all trace hooks are
+     * eliminated by the jit.
+     * @see CpuTraceListener
+     */
+    static final boolean TRACE = Boolean.getBoolean("vavi.sound.nsf.festalon.trace");
 
-        Writer writer;
-        Object _private;
-        WriteMap next;
+    /** Two writers hooked on the same address, the newer one is called first. */
+    private static final class WriteChain implements Writer {
+
+        final Writer writer;
+        final Writer next;
+
+        WriteChain(Writer writer, Writer next) {
+            this.writer = writer;
+            this.next = next;
+        }
+
+        @Override
+        public void exec(int address, int value) {
+            writer.exec(address, value);
+            next.exec(address, value);
+        }
     }
 
     /** Temporary cycle counter */
     private int tCount;
 
+    /** part of {@link #tCount} the apu would have been hooked with at the current instruction */
+    private int soundPending;
+
+    /** cycles of a compiled block not added yet, they are added before i/o by {@link #catchUp()} */
+    private int lag;
+
+    /** cycles which can be pending before the apu has an event, {@link NesApu#cyclesToEvent()} */
+    private int soundBudget;
+
     /**
      * I'll change this to uint32 later... I'll need to AND PC after increments
      * to 0xffff when I do, though. Perhaps an IPC() macro?
@@ -52,16 +82,96 @@ public class X6502 {
     /* Sent to the hook functions. */
     final byte[] _private;
 
-    private final Reader[] readers = new Reader[0x1_0000];
-    private final WriteMap[] writers = new WriteMap[0x1_0000];
+    /** bus map page size is 256 bytes */
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    private static final int PAGES = 0x1_0000 >> PAGE_SHIFT;
+
+    /** read handlers per page, a page which has only one handler shares the table in {@link #uniformReaders} */
+    private final Reader[][] readers = new Reader[PAGES][];
+    /** write handlers per page, a page which has only one handler shares the table in {@link #uniformWriters} */
+    private final Writer[][] writers = new Writer[PAGES][];
+    /** */
+    private final Map<Reader, Reader[]> uniformReaders = new IdentityHashMap<>();
+    /** */
+    private final Map<Writer, Writer[]> uniformWriters = new IdentityHashMap<>();
+    /** memory read directly without a handler, null when the page has handlers */
+    private final byte[][] directs = new byte[PAGES][];
+    /** {@link #directs} index is this plus the address */
+    private final int[] directOffsets = new int[PAGES];
+
+    /** instructions decoded from a direct page, for one (bank, address) */
+    private static final class PageCode {
+        /** the bank */
+        final byte[] memory;
+        /** {@code memory} index is this plus the address, as {@link #directOffsets} */
+        final int offset;
+        /** blocks by entry address in the page */
+        final int[][] blocks = new int[PAGE_MASK + 1][];
+        /** compiled blocks by entry address, null until the jit is used */
+        Compiled[] compiled;
+        /** cycles a compiled block may take at most */
+        int[] compiledCycles;
+        /** entries by address until compiled */
+        int[] hits;
+        /** predecoded instructions by address, null until predecoding is used */
+        Decoded[] decoded;
+
+        PageCode(byte[] memory, int offset) {
+            this.memory = memory;
+            this.offset = offset;
+        }
+    }
+
+    /** banks kept decoded per page */
+    private static final int PAGE_CODES = 4;
+    /** instructions per block at most */
+    private static final int BLOCK_SIZE = 32;
+    /** a block entry which could not be decoded */
+    private static final int[] NOT_DECODED = new int[0];
+    /** ram is written by stack and zero page accesses without a writer, never decoded */
+    private static final int FIRST_DECODED_PAGE = 0x2000 >> PAGE_SHIFT;
+
+    /** decoded code per page, the most recent bank first */
+    private final PageCode[][] codes = new PageCode[PAGES][PAGE_CODES];
+
+    /** a block translated to jvm bytecode by {@link X6502Compiler} */
+    interface Compiled {
+        void exec(X6502 cpu);
+    }
+
+    /**
+     * An instruction with its operands, addresses and branch targets resolved
+     * ahead, it leaves pc at the next instruction.
+     * @see #setPredecode(boolean)
+     */
+    interface Decoded {
+        void exec();
+    }
+
+    /** an instruction which runs by the switch */
+    private static final Decoded NOT_PREDECODED = () -> {};
+
+    /** @see #setPredecode(boolean) */
+    private boolean predecode;
 
-    // writeFunc BWrite = new byte[0x10000];
-    private final Object[] readPrivate = new Object[0x1_0000];
+    /** entries before a block is compiled */
+    private static final int HOT = 64;
+    /** a block entry which could not be compiled */
+    private static final Compiled NOT_COMPILED = cpu -> {};
+    /** for defining compiled blocks as nestmates */
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
 
-    // void *BWritePrivate[0x10000];
+    /** @see #setJit(boolean) */
+    private boolean jit;
+    /** the apu of the current {@link #run(NesApu, int)}, for compiled blocks */
+    private NesApu apu;
 
     public int timestamp;
 
+    /** only used when {@link #TRACE} is true */
+    private CpuTraceListener traceListener;
+
     long timestampBase;
 
     static final int N_FLAG = 0x80;
@@ -90,18 +200,651 @@ public class X6502 {
     /** */
     private final Reader nullReader = (address, dataBus) -> dataBus;
 
+    /** */
+    private Reader[] uniformReader(Reader reader) {
+        return uniformReaders.computeIfAbsent(reader, k -> {
+            Reader[] page = new Reader[PAGE_MASK + 1];
+            Arrays.fill(page, k);
+            return page;
+        });
+    }
+
+    /** */
+    private Writer[] uniformWriter(Writer writer) {
+        return uniformWriters.computeIfAbsent(writer, k -> {
+            Writer[] page = new Writer[PAGE_MASK + 1];
+            Arrays.fill(page, k);
+            return page;
+        });
+    }
+
+    /** turns a direct page back to its handlers, before a part of it is overwritten */
+    private void undirect(int page) {
+        directs[page] = null;
+    }
+
     /** */
     public void setReader(int start, int end, Reader reader, Object _private) {
 
         if (reader == null) {
             reader = nullReader;
         }
-        for (int i = start; i <= end; i++) {
-            readers[i] = reader;
-            readPrivate[i] = _private;
+        for (int page = start >> PAGE_SHIFT; page <= end >> PAGE_SHIFT; page++) {
+            int lo = Math.max(start, page << PAGE_SHIFT) & PAGE_MASK;
+            int hi = Math.min(end, (page << PAGE_SHIFT) | PAGE_MASK) & PAGE_MASK;
+            if (lo == 0 && hi == PAGE_MASK) {
+                directs[page] = null;
+                readers[page] = uniformReader(reader);
+            } else {
+                undirect(page);
+                Reader[] table = readers[page];
+                if (table == null) {
+                    table = uniformReader(nullReader);
+                }
+                if (uniformReaders.get(table[0]) == table) {
+                    table = table.clone();
+                    readers[page] = table;
+                }
+                for (int i = lo; i <= hi; i++) {
+                    table[i] = reader;
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps memory to be read without a handler, the fastest path for ram and rom.
+     * The readers set for the range must read the same memory, they take over
+     * when a part of a page is set to another reader.
+     * @param start must be at a page boundary
+     * @param end must be at the end of a page
+     * @param memory {@code memory[offset + (address - start)]} is read
+     * @throws IllegalArgumentException start or end is not aligned to a page
+     */
+    public void setDirectReader(int start, int end, byte[] memory, int offset) {
+        checkAligned(start, end);
+        for (int page = start >> PAGE_SHIFT; page <= end >> PAGE_SHIFT; page++) {
+            directs[page] = memory;
+            directOffsets[page] = offset - start;
+        }
+    }
+
+    /**
+     * Follows a bank switch, only pages which are still direct are moved.
+     * @see #setDirectReader(int, int, byte[], int)
+     */
+    public void moveDirectReader(int start, int end, byte[] memory, int offset) {
+        checkAligned(start, end);
+        for (int page = start >> PAGE_SHIFT; page <= end >> PAGE_SHIFT; page++) {
+            if (directs[page] != null) {
+                directs[page] = memory;
+                directOffsets[page] = offset - start;
+            }
         }
     }
 
+    /** */
+    private static void checkAligned(int start, int end) {
+        if ((start & PAGE_MASK) != 0 || (end & PAGE_MASK) != PAGE_MASK) {
+            throw new IllegalArgumentException("not page aligned: %04x-%04x".formatted(start, end));
+        }
+    }
+
+    /**
+     * Drops decoded and compiled code of the range, for memory changed without the cpu bus.
+     * @see #setJit(boolean)
+     */
+    public void invalidateCode(int start, int end) {
+        for (int page = start >> PAGE_SHIFT; page <= end >> PAGE_SHIFT; page++) {
+            Arrays.fill(codes[page], null);
+        }
+    }
+
+    /**
+     * Writes to a page which has decoded code, the code is dropped when the
+     * write changed the memory. Writes through another address mapping the same
+     * memory are not seen.
+     */
+    private void writeCode(int address, int value) {
+        int page = address >> PAGE_SHIFT;
+        byte[] memory = directs[page];
+        int i = directOffsets[page] + address;
+        byte before = memory != null ? memory[i] : 0;
+        writers[page][address & PAGE_MASK].exec(address, value);
+        if (memory != null && memory[i] != before) {
+            Arrays.fill(codes[page], null);
+        }
+    }
+
+    /** @return the decoded block at the address, {@link #NOT_DECODED} when it is not decodable */
+    private int[] lookupBlock(int address) {
+        PageCode code = pageCode(address);
+        if (code == null) {
+            return NOT_DECODED;
+        }
+        int[] block = code.blocks[address & PAGE_MASK];
+        if (block == null) {
+            block = decodeBlock(code.memory, code.offset, address);
+            code.blocks[address & PAGE_MASK] = block;
+        }
+        return block;
+    }
+
+    /** @return decoded code of the bank mapped at the address, null when it is not decodable */
+    private PageCode pageCode(int address) {
+        int page = address >> PAGE_SHIFT;
+        byte[] memory = directs[page];
+        if (memory == null || page < FIRST_DECODED_PAGE) {
+            return null;
+        }
+        int offset = directOffsets[page];
+        PageCode[] pageCodes = codes[page];
+        PageCode code = pageCodes[0];
+        if (code == null || code.memory != memory || code.offset != offset) {
+            int i = 1;
+            while (i < PAGE_CODES - 1 && (pageCodes[i] == null || pageCodes[i].memory != memory || pageCodes[i].offset != offset)) {
+                i++;
+            }
+            code = pageCodes[i];
+            if (code == null || code.memory != memory || code.offset != offset) {
+                code = new PageCode(memory, offset);
+            }
+            System.arraycopy(pageCodes, 0, pageCodes, 1, i);
+            pageCodes[0] = code;
+        }
+        return code;
+    }
+
+    /**
+     * Decodes instructions until a jump or the end of the page, each as
+     * {@code opcode | operand0 << 8 | operand1 << 16}.
+     */
+    private static int[] decodeBlock(byte[] memory, int offset, int address) {
+        int[] code = new int[BLOCK_SIZE];
+        int n = 0;
+        // the two operand bytes must be in the page
+        int last = (address | PAGE_MASK) - 2;
+        while (n < BLOCK_SIZE && address <= last) {
+            int op = memory[offset + address] & 0xff;
+            code[n++] = op | (memory[offset + address + 1] & 0xff) << 8 | (memory[offset + address + 2] & 0xff) << 16;
+            if (lengthTable[op] == 0) {
+                break;
+            }
+            address += lengthTable[op];
+        }
+        return n == 0 ? NOT_DECODED : Arrays.copyOf(code, n);
+    }
+
+    /**
+     * Experimental, executes hot blocks of prg translated to jvm bytecode by
+     * {@link X6502Compiler}, while interrupts are disabled. Blocks are decoded
+     * from direct pages and kept per bank, they are dropped when the memory
+     * under them is written, or by {@link #invalidateCode(int, int)}.
+     * Can be switched at any time. Ignored while tracing.
+     */
+    public void setJit(boolean jit) {
+        this.jit = jit;
+    }
+
+    /** @return true when a compiled block was executed at pc */
+    private boolean runCompiled() {
+        PageCode code = pageCode(pc);
+        if (code == null) {
+            return false;
+        }
+        if (code.compiled == null) {
+            code.compiled = new Compiled[PAGE_MASK + 1];
+            code.compiledCycles = new int[PAGE_MASK + 1];
+            code.hits = new int[PAGE_MASK + 1];
+        }
+        int i = pc & PAGE_MASK;
+        Compiled compiled = code.compiled[i];
+        if (compiled == null) {
+            if (++code.hits[i] < HOT) {
+                return false;
+            }
+            compiled = NOT_COMPILED;
+            int[] block = lookupBlock(pc);
+            if (block != NOT_DECODED) {
+                try {
+                    X6502Compiler.Result result = X6502Compiler.compile(lookup, block, pc, cycTable, lengthTable);
+                    if (result != null) {
+                        compiled = result.compiled();
+                        code.compiledCycles[i] = result.maxCycles();
+                    }
+                } catch (RuntimeException | LinkageError e) {
+                    logger.log(Level.WARNING, "compile failed at %04x, the jit is stopped".formatted(pc), e);
+                    jit = false;
+                }
+            }
+            code.compiled[i] = compiled;
+        }
+        // every instruction of the block must start with count > 0, as in run
+        if (compiled == NOT_COMPILED || count <= code.compiledCycles[i] * 48) {
+            return false;
+        }
+        compiled.exec(this);
+        return true;
+    }
+
+    /**
+     * What {@link #run(NesApu, int)} does before an instruction, for the last
+     * instruction of a compiled block. The cycles are the ones since the last
+     * i/o of the block, including the instruction.
+     */
+    private void step(int next, int cycles, int op) {
+        mooPI = p;
+        db = op;
+        addCYC(lag + cycles);
+        lag = 0;
+        soundPending = tCount;
+        if (tCount >= soundBudget) {
+            hookSound();
+        }
+        pc = next;
+    }
+
+    /**
+     * Experimental, executes instructions predecoded from direct pages instead
+     * of the switch, their operands, addresses and branch targets are resolved
+     * once. They are kept per bank and dropped as the blocks of the jit.
+     * Undocumented instructions and {@code JMP *} still run by the switch.
+     * Can be switched at any time. Ignored while tracing.
+     * @see #setJit(boolean)
+     */
+    public void setPredecode(boolean predecode) {
+        this.predecode = predecode;
+    }
+
+    /** @return the instruction predecoded at pc, null when it runs by the switch */
+    private Decoded predecoded() {
+        PageCode code = pageCode(pc);
+        if (code == null) {
+            return null;
+        }
+        if (code.decoded == null) {
+            code.decoded = new Decoded[PAGE_MASK + 1];
+        }
+        int i = pc & PAGE_MASK;
+        Decoded decoded = code.decoded[i];
+        if (decoded == null) {
+            decoded = predecode(code.memory, code.offset, pc);
+            code.decoded[i] = decoded;
+        }
+        return decoded != NOT_PREDECODED ? decoded : null;
+    }
+
+    /** addressing modes of predecoded instructions */
+    private static final int IMMEDIATE = 0, ZERO_PAGE = 1, ZERO_PAGE_X = 2, ZERO_PAGE_Y = 3, ABSOLUTE = 4,
+            ABSOLUTE_X = 5, ABSOLUTE_Y = 6, INDEXED_INDIRECT = 7, INDIRECT_INDEXED = 8, ACCUMULATOR = 9;
+
+    /** instruction lengths by the addressing mode */
+    private static final int[] modeLengths = {2, 2, 2, 2, 3, 3, 3, 2, 2, 1};
+
+    /** addressing modes of the instructions ending with 01 by the bits 2-4 */
+    private static final int[] groupOneModes = {
+            INDEXED_INDIRECT, ZERO_PAGE, IMMEDIATE, ABSOLUTE, INDIRECT_INDEXED, ZERO_PAGE_X, ABSOLUTE_Y, ABSOLUTE_X
+    };
+
+    /** flags tested by the branches by the bits 6-7 */
+    private static final int[] branchFlags = {N_FLAG, V_FLAG, C_FLAG, Z_FLAG};
+
+    /** @return the addressing mode of a documented load, store or rmw instruction */
+    private static int addressing(int op) {
+        if ((op & 3) == 1) {
+            return groupOneModes[(op >> 2) & 7];
+        }
+        return switch ((op >> 2) & 7) {
+            case 0 -> IMMEDIATE;
+            case 1 -> ZERO_PAGE;
+            case 2 -> ACCUMULATOR;
+            case 3 -> ABSOLUTE;
+            case 5 -> op == 0x96 || op == 0xb6 ? ZERO_PAGE_Y : ZERO_PAGE_X;
+            default -> op == 0xbe ? ABSOLUTE_Y : ABSOLUTE_X;
+        };
+    }
+
+    /**
+     * Decodes a documented instruction into what the switch of
+     * {@link #run(NesApu, int)} does for it after the opcode fetch.
+     * @return {@link #NOT_PREDECODED} for the switch
+     */
+    private Decoded predecode(byte[] memory, int offset, int address) {
+        int op = memory[offset + address] & 0xff;
+        // the operands must be in the page, whose code is dropped when it is written
+        int room = PAGE_MASK - (address & PAGE_MASK);
+        int o0 = room >= 1 ? memory[offset + address + 1] & 0xff : -1;
+        int o1 = room >= 2 ? memory[offset + address + 2] & 0xff : -1;
+        int next = (address + 1) & 0xffff;
+        return switch (op) {
+            case 0xa9, 0xa5, 0xb5, 0xad, 0xbd, 0xb9, 0xa1, 0xb1 -> load(op, address, o0, o1, lda);
+            case 0xa2, 0xa6, 0xb6, 0xae, 0xbe -> load(op, address, o0, o1, ldx);
+            case 0xa0, 0xa4, 0xb4, 0xac, 0xbc -> load(op, address, o0, o1, ldy);
+            case 0x29, 0x25, 0x35, 0x2d, 0x3d, 0x39, 0x21, 0x31 -> load(op, address, o0, o1, and);
+            case 0x09, 0x05, 0x15, 0x0d, 0x1d, 0x19, 0x01, 0x11 -> load(op, address, o0, o1, ora);
+            case 0x49, 0x45, 0x55, 0x4d, 0x5d, 0x59, 0x41, 0x51 -> load(op, address, o0, o1, eor);
+            case 0x69, 0x65, 0x75, 0x6d, 0x7d, 0x79, 0x61, 0x71 -> load(op, address, o0, o1, adc);
+            case 0xe9, 0xe5, 0xf5, 0xed, 0xfd, 0xf9, 0xe1, 0xf1 -> load(op, address, o0, o1, sbc);
+            case 0xc9, 0xc5, 0xd5, 0xcd, 0xdd, 0xd9, 0xc1, 0xd1 -> load(op, address, o0, o1, cmp);
+            case 0xe0, 0xe4, 0xec -> load(op, address, o0, o1, cpx);
+            case 0xc0, 0xc4, 0xcc -> load(op, address, o0, o1, cpy);
+            case 0x24, 0x2c -> load(op, address, o0, o1, bit);
+            case 0x85, 0x95, 0x8d, 0x9d, 0x99, 0x81, 0x91, 0x86, 0x96, 0x8e, 0x84, 0x94, 0x8c -> store(op, address, o0, o1);
+            case 0x0a, 0x06, 0x16, 0x0e, 0x1e -> rmw(op, address, o0, o1, asl);
+            case 0x4a, 0x46, 0x56, 0x4e, 0x5e -> rmw(op, address, o0, o1, lsr);
+            case 0x2a, 0x26, 0x36, 0x2e, 0x3e -> rmw(op, address, o0, o1, rol);
+            case 0x6a, 0x66, 0x76, 0x6e, 0x7e -> rmw(op, address, o0, o1, ror);
+            case 0xc6, 0xd6, 0xce, 0xde -> rmw(op, address, o0, o1, dec);
+            case 0xe6, 0xf6, 0xee, 0xfe -> rmw(op, address, o0, o1, inc);
+            case 0x10, 0x30, 0x50, 0x70, 0x90, 0xb0, 0xd0, 0xf0 -> branch(op, address, o0);
+            case 0x20 -> { // JSR
+                if (o1 < 0) {
+                    yield NOT_PREDECODED;
+                }
+                int target = o0 | o1 << 8;
+                int last = address + 2;
+                yield () -> {
+                    db = o1;
+                    push(last >> 8);
+                    push(last);
+                    pc = target;
+                };
+            }
+            case 0x4c -> { // JMP ABSOLUTE
+                int target = o0 | o1 << 8;
+                if (o1 < 0 || target == address) {
+                    yield NOT_PREDECODED; // JMP * stops the frame
+                }
+                yield () -> {
+                    db = o1;
+                    pc = target;
+                };
+            }
+            case 0x60 -> () -> { // RTS
+                pc = pop();
+                pc |= pop() << 8;
+                pc++;
+            };
+            case 0x48 -> () -> { // PHA
+                pc = next;
+                push(a);
+            };
+            case 0x08 -> () -> { // PHP
+                pc = next;
+                push(p | U_FLAG | B_FLAG);
+            };
+            case 0x68 -> () -> { // PLA
+                pc = next;
+                a = pop();
+                x_zn(a);
+            };
+            case 0x28 -> () -> { // PLP
+                pc = next;
+                p = pop();
+            };
+            case 0xaa -> () -> { // TAX
+                pc = next;
+                x = a;
+                x_zn(a);
+            };
+            case 0x8a -> () -> { // TXA
+                pc = next;
+                a = x;
+                x_zn(a);
+            };
+            case 0xa8 -> () -> { // TAY
+                pc = next;
+                y = a;
+                x_zn(a);
+            };
+            case 0x98 -> () -> { // TYA
+                pc = next;
+                a = y;
+                x_zn(a);
+            };
+            case 0xba -> () -> { // TSX
+                pc = next;
+                x = s;
+                x_zn(x);
+            };
+            case 0x9a -> () -> { // TXS
+                pc = next;
+                s = x;
+            };
+            case 0xca -> () -> { // DEX
+                pc = next;
+                x = (x - 1) & 0xff;
+                x_zn(x);
+            };
+            case 0x88 -> () -> { // DEY
+                pc = next;
+                y = (y - 1) & 0xff;
+                x_zn(y);
+            };
+            case 0xe8 -> () -> { // INX
+                pc = next;
+                x = (x + 1) & 0xff;
+                x_zn(x);
+            };
+            case 0xc8 -> () -> { // INY
+                pc = next;
+                y = (y + 1) & 0xff;
+                x_zn(y);
+            };
+            case 0x18, 0xd8, 0x58, 0xb8 -> { // CLC, CLD, CLI, CLV
+                int flag = op == 0x18 ? C_FLAG : op == 0xd8 ? D_FLAG : op == 0x58 ? I_FLAG : V_FLAG;
+                yield () -> {
+                    pc = next;
+                    p &= ~flag;
+                };
+            }
+            case 0x38, 0xf8, 0x78 -> { // SEC, SED, SEI
+                int flag = op == 0x38 ? C_FLAG : op == 0xf8 ? D_FLAG : I_FLAG;
+                yield () -> {
+                    pc = next;
+                    p |= flag;
+                };
+            }
+            case 0xea -> () -> pc = next; // NOP
+            default -> NOT_PREDECODED;
+        };
+    }
+
+    /** @return the address after the instruction, -1 when its operands are not in the page */
+    private static int next(int address, int mode, int o0, int o1) {
+        int length = modeLengths[mode];
+        if (length == 3 ? o1 < 0 : length == 2 && o0 < 0) {
+            return -1;
+        }
+        return (address + length) & 0xffff;
+    }
+
+    /** as ldIM ... ldIY */
+    private Decoded load(int op, int address, int o0, int o1, OP operation) {
+        int mode = addressing(op);
+        int next = next(address, mode, o0, o1);
+        if (next < 0) {
+            return NOT_PREDECODED;
+        }
+        int target = o0 | o1 << 8;
+        return switch (mode) {
+            case IMMEDIATE -> () -> {
+                db = o0;
+                pc = next;
+                operation.exec(o0);
+            };
+            case ZERO_PAGE -> () -> {
+                db = o0;
+                pc = next;
+                operation.exec(readRAM(o0));
+            };
+            case ZERO_PAGE_X -> () -> {
+                db = o0;
+                pc = next;
+                operation.exec(readRAM((o0 + x) & 0xff));
+            };
+            case ZERO_PAGE_Y -> () -> {
+                db = o0;
+                pc = next;
+                operation.exec(readRAM((o0 + y) & 0xff));
+            };
+            case ABSOLUTE -> () -> {
+                db = o1;
+                pc = next;
+                operation.exec(readMemory(target));
+            };
+            case ABSOLUTE_X -> () -> {
+                db = o1;
+                pc = next;
+                operation.exec(readMemory(absIndexedRead(target, x)));
+            };
+            case ABSOLUTE_Y -> () -> {
+                db = o1;
+                pc = next;
+                operation.exec(readMemory(absIndexedRead(target, y)));
+            };
+            case INDEXED_INDIRECT -> () -> {
+                db = o0;
+                pc = next;
+                operation.exec(readMemory(indexedIndirect(o0)));
+            };
+            case INDIRECT_INDEXED -> () -> {
+                db = o0;
+                pc = next;
+                operation.exec(readMemory(indirectIndexedRead(o0)));
+            };
+            default -> NOT_PREDECODED;
+        };
+    }
+
+    /** @return the register stored by STA, STX or STY, by the lowest bits of the opcode */
+    private int register(int op) {
+        return switch (op & 3) {
+            case 1 -> a;
+            case 2 -> x;
+            default -> y;
+        };
+    }
+
+    /** as stZP ... stIY */
+    private Decoded store(int op, int address, int o0, int o1) {
+        int mode = addressing(op);
+        int next = next(address, mode, o0, o1);
+        if (next < 0) {
+            return NOT_PREDECODED;
+        }
+        int target = o0 | o1 << 8;
+        return switch (mode) {
+            case ZERO_PAGE -> () -> {
+                db = o0;
+                pc = next;
+                writeRAM(o0, register(op));
+            };
+            case ZERO_PAGE_X -> () -> {
+                db = o0;
+                pc = next;
+                writeRAM((o0 + x) & 0xff, register(op));
+            };
+            case ZERO_PAGE_Y -> () -> {
+                db = o0;
+                pc = next;
+                writeRAM((o0 + y) & 0xff, register(op));
+            };
+            case ABSOLUTE -> () -> {
+                db = o1;
+                pc = next;
+                writeMemory(target, register(op));
+            };
+            case ABSOLUTE_X -> () -> {
+                db = o1;
+                pc = next;
+                writeMemory(absIndexedWrite(target, x), register(op));
+            };
+            case ABSOLUTE_Y -> () -> {
+                db = o1;
+                pc = next;
+                writeMemory(absIndexedWrite(target, y), register(op));
+            };
+            case INDEXED_INDIRECT -> () -> {
+                db = o0;
+                pc = next;
+                writeMemory(indexedIndirect(o0), register(op));
+            };
+            case INDIRECT_INDEXED -> () -> {
+                db = o0;
+                pc = next;
+                writeMemory(indirectIndexedWrite(o0), register(op));
+            };
+            default -> NOT_PREDECODED;
+        };
+    }
+
+    /** as rmwA ... rmwABX */
+    private Decoded rmw(int op, int address, int o0, int o1, OP operation) {
+        int mode = addressing(op);
+        int next = next(address, mode, o0, o1);
+        if (next < 0) {
+            return NOT_PREDECODED;
+        }
+        int target = o0 | o1 << 8;
+        return switch (mode) {
+            case ACCUMULATOR -> () -> {
+                pc = next;
+                a = operation.exec(a);
+            };
+            case ZERO_PAGE -> () -> {
+                db = o0;
+                pc = next;
+                rmwRAM(o0, operation);
+            };
+            case ZERO_PAGE_X -> () -> {
+                db = o0;
+                pc = next;
+                rmwRAM((o0 + x) & 0xff, operation);
+            };
+            case ABSOLUTE -> () -> {
+                db = o1;
+                pc = next;
+                rmwMemory(target, operation);
+            };
+            case ABSOLUTE_X -> () -> {
+                db = o1;
+                pc = next;
+                rmwMemory(absIndexedWrite(target, x), operation);
+            };
+            default -> NOT_PREDECODED;
+        };
+    }
+
+    /** as jr, the cycles of the taken branch are counted ahead */
+    private Decoded branch(int op, int address, int o0) {
+        if (o0 < 0) {
+            return NOT_PREDECODED;
+        }
+        int next = (address + 2) & 0xffff;
+        int target = (next + (byte) o0) & 0xffff;
+        int cycles = ((next ^ target) & 0x100) != 0 ? 2 : 1;
+        int flag = branchFlags[op >> 6];
+        int taken = (op & 0x20) != 0 ? flag : 0;
+        return () -> {
+            if ((p & flag) == taken) {
+                db = o0;
+                addCYC(cycles);
+                pc = target;
+            } else {
+                pc = next;
+            }
+        };
+    }
+
+    /** fetches the next byte of the instruction */
+    private int fetch() {
+        int value = readMemory(pc);
+        pc++;
+        pc &= 0xffff;
+        return value;
+    }
+
     /** */
     public void setWriter(int start, int end, Writer writer, Object _private) {
 
@@ -109,25 +852,40 @@ public class X6502 {
             writer = nullWriter;
         }
 
-        for (int i = start; i <= end; i++) {
-            if (writers[i] != null && writers[i].writer != null && writers[i].writer != nullWriter) {
-                WriteMap oldHead = writers[i];
-                WriteMap newHead = new WriteMap();
-
-                newHead.writer = writer;
-                newHead._private = _private;
-                newHead.next = oldHead;
-
-                writers[i] = newHead;
+        // one chain per distinct previous writer, not per address
+        Map<Writer, Writer> chains = new IdentityHashMap<>();
+        for (int page = start >> PAGE_SHIFT; page <= end >> PAGE_SHIFT; page++) {
+            int lo = Math.max(start, page << PAGE_SHIFT) & PAGE_MASK;
+            int hi = Math.min(end, (page << PAGE_SHIFT) | PAGE_MASK) & PAGE_MASK;
+            Writer[] table = writers[page];
+            boolean uniform = table != null && uniformWriters.get(table[0]) == table;
+            if (lo == 0 && hi == PAGE_MASK && (table == null || uniform)) {
+                writers[page] = uniformWriter(chain(writer, table != null ? table[0] : null, chains));
             } else {
-                writers[i] = new WriteMap();
-                writers[i].writer = writer;
-                writers[i]._private = _private;
-                writers[i].next = null;
+                if (table == null) {
+                    table = uniformWriter(nullWriter);
+                    uniform = true;
+                }
+                if (uniform) {
+                    table = table.clone();
+                    writers[page] = table;
+                }
+                for (int i = lo; i <= hi; i++) {
+                    table[i] = chain(writer, table[i], chains);
+                }
             }
         }
     }
 
+    /** */
+    private Writer chain(Writer writer, Writer old, Map<Writer, Writer> chains) {
+        if (old != null && old != nullWriter) {
+            return chains.computeIfAbsent(old, k -> new WriteChain(writer, k));
+        } else {
+            return writer;
+        }
+    }
+
     /** */
     private void addCYC(int x) {
         int __x = x;
@@ -136,26 +894,91 @@ public class X6502 {
         count -= __x * 48;
     }
 
+    /**
+     * Sets a trace listener, effective only when the system property
+     * {@code vavi.sound.nsf.festalon.trace} is true.
+     * @param traceListener null to stop tracing
+     */
+    public void setTraceListener(CpuTraceListener traceListener) {
+        if (!TRACE && traceListener != null) {
+            logger.log(Level.WARNING, "tracing is compiled out, set -Dvavi.sound.nsf.festalon.trace=true");
+        }
+        this.traceListener = traceListener;
+    }
+
     /** */
     private int readMemory(int address) {
-//logger.log(Level.TRACE, "address: %04x, %s".formatted(address, readers[address]));
-        if (address == 0x770) logger.log(Level.TRACE, "Reader[770]: %s".formatted(readers[address]));
-        return db = readers[address & 0xffff].exec(address & 0xffff, db); // AReadPrivate[A]
+        address &= 0xffff;
+        int page = address >> PAGE_SHIFT;
+        byte[] memory = directs[page];
+        if (memory != null) {
+            db = memory[directOffsets[page] + address] & 0xff;
+        } else {
+            catchUp();
+            syncSound();
+            db = readers[page][address & PAGE_MASK].exec(address, db); // AReadPrivate[A]
+            updateSoundBudget();
+        }
+        if (TRACE && traceListener != null) traceListener.read(address, db, timestamp);
+        return db;
     }
 
     /** */
     private void writeMemory(int address, int value) {
-        if (address >= 0x4000 && address <= 0x4017)
-            logger.log(Level.TRACE, "APU WRITE: %04x = %02x".formatted(address, value));
-        else if (address < 0x800)
-            logger.log(Level.TRACE, "WRITE: %04x = %02x".formatted(address, value));
-        WriteMap wm = writers[address & 0xffff];
+        address &= 0xffff;
+        if (TRACE && traceListener != null) traceListener.write(address, value, timestamp);
+        catchUp();
+        syncSound();
+        if (codes[address >> PAGE_SHIFT][0] != null) {
+            writeCode(address, value);
+        } else {
+            writers[address >> PAGE_SHIFT][address & PAGE_MASK].exec(address, value); // wm._private
+        }
+        updateSoundBudget();
+    }
 
-        do {
-            wm.writer.exec(address & 0xffff, value); // wm._private
-            wm = wm.next;
-        } while (wm != null);
-        // X.BWrite[A].func(X.BWrite[A].private,A,V);
+    /** hooks the apu with all cycles pending, when it has an event */
+    private void hookSound() {
+        int temp = tCount;
+        tCount = 0;
+        soundPending = 0;
+        apu.hookSoundCPU(temp);
+        soundBudget = apu.cyclesToEvent();
+    }
+
+    /**
+     * What {@link #run(NesApu, int)} would have done before the current
+     * instruction, when a compiled block has cycles not added yet.
+     */
+    private void catchUp() {
+        if (lag != 0) {
+            addCYC(lag);
+            lag = 0;
+            soundPending = tCount;
+            if (tCount >= soundBudget) {
+                hookSound();
+            }
+        }
+    }
+
+    /**
+     * Hooks the apu up to the start of the current instruction before i/o,
+     * as if it was hooked at every instruction.
+     */
+    private void syncSound() {
+        if (soundPending != 0) {
+            int temp = soundPending;
+            tCount -= temp;
+            soundPending = 0;
+            apu.hookSoundCPU(temp);
+        }
+    }
+
+    /** i/o may have started an apu event */
+    private void updateSoundBudget() {
+        if (apu != null) {
+            soundBudget = apu.cyclesToEvent();
+        }
     }
 
     /** */
@@ -171,20 +994,18 @@ public class X6502 {
     /** */
     int readDm(int address) {
         addCYC(1);
-        return db = readers[address].exec(address, db); // AReadPrivate[A]
+        return readMemory(address);
     }
 
     /** */
     void writeDm(int address, int value) {
-        X6502.WriteMap wm;
         db = value;
 
-        wm = writers[address];
-
-        do {
-            wm.writer.exec(address, value); // wm._private
-            wm = wm.next;
-        } while (wm != null);
+        if (codes[address >> PAGE_SHIFT][0] != null) {
+            writeCode(address, value);
+            return;
+        }
+        writers[address >> PAGE_SHIFT][address & PAGE_MASK].exec(address, value); // wm._private
     }
 
     /** */
@@ -251,8 +1072,7 @@ public class X6502 {
         if (cond) {
             int tmp;
             int disp;
-            disp = readMemory(pc);
-            pc++;
+            disp = fetch();
             addCYC(1);
             tmp = pc;
             pc += (byte) disp;
@@ -268,8 +1088,8 @@ public class X6502 {
 
     private final OP lda = new OP() {
         @Override
-        int exec(int... i) {
-            a = i[0];
+        int exec(int v) {
+            a = v;
             x_zn(a);
             return a;
         }
@@ -277,8 +1097,8 @@ public class X6502 {
 
     private final OP ldx = new OP() {
         @Override
-        int exec(int... i) {
-            x = i[0];
+        int exec(int v) {
+            x = v;
             x_zn(x);
             return x;
         }
@@ -286,8 +1106,8 @@ public class X6502 {
 
     private final OP ldy = new OP() {
         @Override
-        int exec(int... i) {
-            y = i[0];
+        int exec(int v) {
+            y = v;
             x_zn(y);
             return y;
         }
@@ -296,8 +1116,8 @@ public class X6502 {
     /* All of the freaky arithmetic operations. */
     private final OP and = new OP() {
         @Override
-        int exec(int... i) {
-            a &= i[0];
+        int exec(int v) {
+            a &= v;
             x_zn(a);
             return a;
         }
@@ -305,18 +1125,18 @@ public class X6502 {
 
     private final OP bit = new OP() {
         @Override
-        int exec(int... i) {
+        int exec(int v) {
             p &= ~(Z_FLAG | V_FLAG | N_FLAG);
-            p |= znTable[i[0] & a] & Z_FLAG;
-            p |= i[0] & (V_FLAG | N_FLAG);
-            return i[0];
+            p |= znTable[v & a] & Z_FLAG;
+            p |= v & (V_FLAG | N_FLAG);
+            return v;
         }
     };
 
     private final OP eor = new OP() {
         @Override
-        int exec(int... i) {
-            a ^= i[0];
+        int exec(int v) {
+            a ^= v;
             x_zn(a);
             return a;
         }
@@ -324,8 +1144,8 @@ public class X6502 {
 
     private final OP ora = new OP() {
         @Override
-        int exec(int... i) {
-            a |= i[0];
+        int exec(int v) {
+            a |= v;
             x_zn(a);
             return a;
         }
@@ -333,10 +1153,10 @@ public class X6502 {
 
     private final OP adc = new OP() {
         @Override
-        int exec(int... i) {
-            int l = a + i[0] + (p & 1);
+        int exec(int v) {
+            int l = a + v + (p & 1);
             p &= ~(Z_FLAG | C_FLAG | N_FLAG | V_FLAG);
-            p |= ((((a ^ i[0]) & 0x80) ^ 0x80) & ((a ^ l) & 0x80)) >> 1;
+            p |= ((((a ^ v) & 0x80) ^ 0x80) & ((a ^ l) & 0x80)) >> 1;
             p |= (l >> 8) & C_FLAG;
             a = l & 0xff;
             x_znt(a);
@@ -346,10 +1166,10 @@ public class X6502 {
 
     private final OP sbc = new OP() {
         @Override
-        int exec(int... i) {
-            int l = a - i[0] - ((p & 1) ^ 1);
+        int exec(int v) {
+            int l = a - v - ((p & 1) ^ 1);
             p &= ~(Z_FLAG | C_FLAG | N_FLAG | V_FLAG);
-            p |= ((a ^ l) & (a ^ i[0]) & 0x80) >> 1;
+            p |= ((a ^ l) & (a ^ v) & 0x80) >> 1;
             p |= ((l >> 8) & C_FLAG) ^ C_FLAG;
             a = l & 0xff;
             x_znt(a);
@@ -357,22 +1177,19 @@ public class X6502 {
         }
     };
 
-    private final OP cmpl = new OP() {
-        @Override
-        int exec(int... i) {
-            int t = i[0] - i[1];
-            x_zn(t & 0xff);
-            p &= ~C_FLAG;
-            p |= ((t >> 8) & C_FLAG) ^ C_FLAG;
-            return i[0];
-        }
-    };
+    /** */
+    private void cmpl(int r, int v) {
+        int t = r - v;
+        x_zn(t & 0xff);
+        p &= ~C_FLAG;
+        p |= ((t >> 8) & C_FLAG) ^ C_FLAG;
+    }
 
     /* Special undocumented operation. Very similar to CMP. */
     private final OP axs = new OP() {
         @Override
-        int exec(int... i) {
-            int t = (a & x) - i[0];
+        int exec(int v) {
+            int t = (a & x) - v;
             x_zn(t & 0xff);
             p &= ~C_FLAG;
             p |= ((t >> 8) & C_FLAG) ^ C_FLAG;
@@ -383,33 +1200,33 @@ public class X6502 {
 
     private final OP cmp = new OP() {
         @Override
-        int exec(int... i) {
-            cmpl.exec(a, i[0]);
-            return i[0];
+        int exec(int v) {
+            cmpl(a, v);
+            return v;
         }
     };
 
     private final OP cpx = new OP() {
         @Override
-        int exec(int... i) {
-            cmpl.exec(x, i[0]);
-            return i[0];
+        int exec(int v) {
+            cmpl(x, v);
+            return v;
         }
     };
 
     private final OP cpy = new OP() {
         @Override
-        int exec(int... i) {
-            cmpl.exec(y, i[0]);
-            return i[0];
+        int exec(int v) {
+            cmpl(y, v);
+            return v;
         }
     };
 
     /* The following operations modify the byte being worked on. */
     private final OP dec = new OP() {
         @Override
-        int exec(int... i) {
-            int val = (i[0] - 1) & 0xff;
+        int exec(int v) {
+            int val = (v - 1) & 0xff;
             x_zn(val);
             return val;
         }
@@ -417,8 +1234,8 @@ public class X6502 {
 
     private final OP inc = new OP() {
         @Override
-        int exec(int... i) {
-            int val = (i[0] + 1) & 0xff;
+        int exec(int v) {
+            int val = (v + 1) & 0xff;
             x_zn(val);
             return val;
         }
@@ -426,8 +1243,8 @@ public class X6502 {
 
     private final OP asl = new OP() {
         @Override
-        int exec(int... i) {
-            int val = i[0] & 0xff;
+        int exec(int v) {
+            int val = v & 0xff;
             p &= ~C_FLAG;
             p |= (val >> 7) & C_FLAG;
             val = (val << 1) & 0xff;
@@ -438,8 +1255,8 @@ public class X6502 {
 
     private final OP lsr = new OP() {
         @Override
-        int exec(int... i) {
-            int val = i[0] & 0xff;
+        int exec(int v) {
+            int val = v & 0xff;
             p &= ~(C_FLAG | N_FLAG | Z_FLAG);
             p |= val & 1;
             val >>= 1;
@@ -451,7 +1268,7 @@ public class X6502 {
     /* For undocumented instructions, maybe for other things later... */
     private final OP lsra = new OP() {
         @Override
-        int exec(int... i) {
+        int exec(int v) {
             p &= ~(C_FLAG | N_FLAG | Z_FLAG);
             p |= a & 1;
             a >>= 1;
@@ -462,8 +1279,8 @@ public class X6502 {
 
     private final OP rol = new OP() {
         @Override
-        int exec(int... i) {
-            int val = i[0] & 0xff;
+        int exec(int v) {
+            int val = v & 0xff;
             int l = (val >> 7) & C_FLAG;
             val = ((val << 1) | (p & C_FLAG)) & 0xff;
             p &= ~(Z_FLAG | N_FLAG | C_FLAG);
@@ -475,8 +1292,8 @@ public class X6502 {
 
     private final OP ror = new OP() {
         @Override
-        int exec(int... i) {
-            int val = i[0] & 0xff;
+        int exec(int v) {
+            int val = v & 0xff;
             int l = val & 1;
             val = ((val >> 1) | ((p & C_FLAG) << 7)) & 0xff;
             p &= ~(Z_FLAG | N_FLAG | C_FLAG);
@@ -486,6 +1303,148 @@ public class X6502 {
         }
     };
 
+
+    /* Undocumented operations, composed of the ones above. */
+
+    /** AAC (ANC) */
+    private final OP aac = new OP() {
+        @Override
+        int exec(int v) {
+            and.exec(v);
+            p &= ~C_FLAG;
+            p |= (a >> 7) & C_FLAG;
+            return a;
+        }
+    };
+
+    /** ARR */
+    private final OP arr = new OP() {
+        @Override
+        int exec(int v) {
+            int arrtmp;
+            and.exec(v);
+            p &= ~V_FLAG;
+            p |= (a ^ (a >> 1)) & 0x40;
+            arrtmp = (a >> 7) & C_FLAG;
+            a = (a >> 1) & 0xff;
+            a |= (p & C_FLAG) << 7;
+            p &= ~C_FLAG;
+            p |= arrtmp;
+            x_zn(a);
+            return a;
+        }
+    };
+
+    /** ASR (ALR) */
+    private final OP asr = new OP() {
+        @Override
+        int exec(int v) {
+            lsra.exec(v);
+            and.exec(v);
+            return a;
+        }
+    };
+
+    /** ATX (LXA) */
+    private final OP atx = new OP() {
+        @Override
+        int exec(int v) {
+            a |= 0xEE;
+            and.exec(v);
+            x = a;
+            return a;
+        }
+    };
+
+    /** DCP */
+    private final OP dcp = new OP() {
+        @Override
+        int exec(int v) {
+            int val = dec.exec(v);
+            cmp.exec(val);
+            return val;
+        }
+    };
+
+    /** ISC */
+    private final OP isc = new OP() {
+        @Override
+        int exec(int v) {
+            int val = inc.exec(v);
+            sbc.exec(val);
+            return val;
+        }
+    };
+
+    /** LAR (LAS) */
+    private final OP lar = new OP() {
+        @Override
+        int exec(int v) {
+            s &= v;
+            a = x = s;
+            x_zn(x);
+            return v;
+        }
+    };
+
+    /** LAX */
+    private final OP lax = new OP() {
+        @Override
+        int exec(int v) {
+            lda.exec(v);
+            ldx.exec(v);
+            return v;
+        }
+    };
+
+    /** RLA */
+    private final OP rla = new OP() {
+        @Override
+        int exec(int v) {
+            int val = rol.exec(v);
+            and.exec(val);
+            return val;
+        }
+    };
+
+    /** RRA */
+    private final OP rra = new OP() {
+        @Override
+        int exec(int v) {
+            int val = ror.exec(v);
+            adc.exec(val);
+            return val;
+        }
+    };
+
+    /** SLO */
+    private final OP slo = new OP() {
+        @Override
+        int exec(int v) {
+            int val = asl.exec(v);
+            ora.exec(val);
+            return val;
+        }
+    };
+
+    /** SRE */
+    private final OP sre = new OP() {
+        @Override
+        int exec(int v) {
+            int val = lsr.exec(v);
+            eor.exec(val);
+            return val;
+        }
+    };
+
+    /** TOP, the operand is read and thrown away */
+    private final OP nop = new OP() {
+        @Override
+        int exec(int v) {
+            return v;
+        }
+    };
+
     /*
      * Icky icky thing for some undocumented instructions. Can easily be broken
      * if names of local variables are changed.
@@ -493,22 +1452,23 @@ public class X6502 {
 
     /** Absolute */
     private int getAB() {
-        int target = readMemory(pc);
-        pc++;
-        pc &= 0xffff;
-        target |= readMemory(pc) << 8;
-        pc++;
-        pc &= 0xffff;
+        int target = fetch();
+        target |= fetch() << 8;
         return target;
     }
 
     /** Absolute Indexed(for reads) */
     private int getABIRD(int i) {
-        int tmp = getAB();
+        return absIndexedRead(getAB(), i);
+    }
+
+    /** */
+    private int absIndexedRead(int tmp, int i) {
         int target = tmp;
         target += i;
         if (((target ^ tmp) & 0x100) != 0) {
             target &= 0xffff;
+            catchUp();
             readMemory(target ^ 0x100);
             addCYC(1);
         }
@@ -517,7 +1477,11 @@ public class X6502 {
 
     /** Absolute Indexed(for writes and rmws) */
     private int getABIWR(int i) {
-        int rt = getAB();
+        return absIndexedWrite(getAB(), i);
+    }
+
+    /** */
+    private int absIndexedWrite(int rt, int i) {
         int target = (rt + i) & 0xffff;
         readMemory((target & 0x00ff) | (rt & 0xff00));
         return target;
@@ -525,26 +1489,23 @@ public class X6502 {
 
     /** Zero Page */
     private int getZP() {
-        int target = readMemory(pc);
-        pc++;
-        pc &= 0xffff;
+        int target = fetch();
         return target;
     }
 
     /** Zero Page Indexed */
     private int getZPI(int i) {
-        int target = (readMemory(pc) + i) & 0xff;
-        pc++;
-        pc &= 0xffff;
+        int target = (fetch() + i) & 0xff;
         return target;
     }
 
     /** Indexed Indirect */
     private int getIX() {
-        int tmp;
-        tmp = readMemory(pc);
-        pc++;
-        pc &= 0xffff;
+        return indexedIndirect(fetch());
+    }
+
+    /** */
+    private int indexedIndirect(int tmp) {
         tmp = (tmp + x) & 0xff;
         int target = readRAM(tmp);
         target |= readRAM((tmp + 1) & 0xff) << 8;
@@ -553,16 +1514,18 @@ public class X6502 {
 
     /** Indirect Indexed (for reads) */
     private int getIYRD() {
+        return indirectIndexedRead(fetch());
+    }
+
+    /** */
+    private int indirectIndexedRead(int tmp) {
         int rt;
-        int tmp;
-        tmp = readMemory(pc);
-        pc++;
-        pc &= 0xffff;
         rt = readRAM(tmp);
         rt |= readRAM((tmp + 1) & 0xff) << 8;
         int target = rt + y;
         if (((target ^ rt) & 0x100) != 0) {
             target &= 0xffff;
+            catchUp();
             readMemory(target ^ 0x100);
             addCYC(1);
         }
@@ -571,11 +1534,12 @@ public class X6502 {
 
     /** Indirect Indexed (for writes and rmws) */
     private int getIYWR() {
+        return indirectIndexedWrite(fetch());
+    }
+
+    /** */
+    private int indirectIndexedWrite(int tmp) {
         int rt;
-        int tmp;
-        tmp = readMemory(pc);
-        pc++;
-        pc &= 0xffff;
         rt = readRAM(tmp);
         rt |= readRAM((tmp + 1) & 0xff) << 8;
         int target = (rt + y) & 0xffff;
@@ -585,7 +1549,7 @@ public class X6502 {
 
     private abstract static class OP {
 
-        abstract int exec(int... i);
+        abstract int exec(int v);
     }
 
     /*
@@ -600,20 +1564,12 @@ public class X6502 {
 
     /* Meh... */
     private void rmwAB(OP op) {
-        int address = getAB();
-        int value = readMemory(address);
-        writeMemory(address, value);
-        value = op.exec(value);
-        writeMemory(address, value);
+        rmwMemory(getAB(), op);
     }
 
     /** */
     private void rmwABI(int reg, OP op) {
-        int address = getABIWR(reg);
-        int value = readMemory(address);
-        writeMemory(address, value);
-        value = op.exec(value);
-        writeMemory(address, value);
+        rmwMemory(getABIWR(reg), op);
     }
 
     /** */
@@ -628,16 +1584,16 @@ public class X6502 {
 
     /** */
     private void rmwIX(OP op) {
-        int address = getIX();
-        int value = readMemory(address);
-        writeMemory(address, value);
-        value = op.exec(value);
-        writeMemory(address, value);
+        rmwMemory(getIX(), op);
     }
 
     /** */
     private void rmwIY(OP op) {
-        int address = getIYWR();
+        rmwMemory(getIYWR(), op);
+    }
+
+    /** read, dummy write and write back */
+    private void rmwMemory(int address, OP op) {
         int value = readMemory(address);
         writeMemory(address, value);
         value = op.exec(value);
@@ -646,23 +1602,21 @@ public class X6502 {
 
     /** */
     private void rmwZP(OP op) {
-        int address = getZP();
-        int value = readRAM(address);
-        value = op.exec(value);
-        writeRAM(address, value);
+        rmwRAM(getZP(), op);
     }
 
     /** */
     private void rmwZPX(OP op) {
-        int address = getZPI(x);
-        int value = readRAM(address);
-        value = op.exec(value);
-        writeRAM(address, value);
+        rmwRAM(getZPI(x), op);
     }
 
     /** */
     private void rmwZPY(OP op) {
-        int address = getZPI(y);
+        rmwRAM(getZPI(y), op);
+    }
+
+    /** */
+    private void rmwRAM(int address, OP op) {
         int value = readRAM(address);
         value = op.exec(value);
         writeRAM(address, value);
@@ -670,9 +1624,7 @@ public class X6502 {
 
     /** */
     private void ldIM(OP op) {
-        int value = readMemory(pc);
-        pc++;
-        pc &= 0xffff;
+        int value = fetch();
         op.exec(value);
     }
 
@@ -812,6 +1764,26 @@ public class X6502 {
             /* 0xF0 */ 2, 5, 2, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
     };
 
+    /** instruction lengths as executed by this core, 0 for instructions which end a decoded block */
+    private static final byte[] lengthTable = {
+            /* 0x00 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 2, 1, 2, 3, 3, 3, 3,
+            /* 0x10 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 3, 1, 3, 1, 3, 3, 3,
+            /* 0x20 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 2, 1, 2, 3, 3, 3, 3,
+            /* 0x30 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 3, 1, 3, 1, 3, 3, 3,
+            /* 0x40 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 2, 1, 2, 0, 3, 3, 3,
+            /* 0x50 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 3, 1, 3, 1, 3, 3, 3,
+            /* 0x60 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 2, 1, 2, 0, 3, 3, 3,
+            /* 0x70 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 3, 1, 3, 1, 3, 3, 3,
+            /* 0x80 */ 2, 2, 2, 2, 2, 2, 2, 2, 1, 2, 1, 2, 3, 3, 3, 3,
+            /* 0x90 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 3, 1, 3, 3, 3, 3, 3,
+            /* 0xA0 */ 2, 2, 2, 2, 2, 2, 2, 2, 1, 2, 1, 2, 3, 3, 3, 3,
+            /* 0xB0 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 3, 1, 3, 3, 3, 3, 3,
+            /* 0xC0 */ 2, 2, 2, 2, 2, 2, 2, 2, 1, 2, 1, 2, 3, 3, 3, 3,
+            /* 0xD0 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 3, 1, 3, 1, 3, 3, 3,
+            /* 0xE0 */ 2, 2, 2, 2, 2, 2, 2, 2, 1, 2, 1, 1, 3, 3, 3, 3,
+            /* 0xF0 */ 0, 2, 0, 2, 2, 2, 2, 2, 1, 3, 1, 3, 3, 3, 3, 3,
+    };
+
     /** */
     public void beginIRQ(int w) {
         irqLow |= w;
@@ -836,15 +1808,21 @@ public class X6502 {
 
     /** */
     public void power() {
-        count = tCount = irqLow = pc = a = x = y = s = p = mooPI = db = jammed = 0;
+        count = tCount = soundPending = lag = irqLow = pc = a = x = y = s = p = mooPI = db = jammed = 0;
         timestamp = 0;
+        timestampBase = 0;
+        Arrays.fill(directs, null);
+        Arrays.fill(writers, null);
+        invalidateCode(0x0000, 0xffff);
+        uniformReaders.clear();
+        uniformWriters.clear();
         setReader(0x0000, 0xffff, null, null);
         setWriter(0x0000, 0xffff, null, null);
         reset();
     }
 
     public void run(NesApu apu, int cycles) {
-        logger.log(Level.TRACE, "run entered: " + cycles);
+        if (TRACE && logger.isLoggable(Level.TRACE)) logger.log(Level.TRACE, "run entered: " + cycles);
         if (pal) {
             cycles *= 15; // 15 * 4 = 60
         } else {
@@ -852,13 +1830,15 @@ public class X6502 {
         }
 
         count += cycles;
+        this.apu = apu;
+        soundBudget = apu.cyclesToEvent();
 
+        boolean idle = false;
         while (count > 0) {
-            int temp;
             int b1;
             int t;
 
-            logger.log(Level.TRACE, "PC: %04x A:%02x X:%02x Y:%02x S:%02x P:%02x".formatted(pc, a, x, y, s, p));
+            if (TRACE && traceListener != null) traceListener.instruction(pc, a, x, y, s, p, timestamp);
 
             // Fetch Opcode
             // t = (int) (readers[pc].exec(pc, 0) & 0xff);
@@ -882,21 +1862,35 @@ public class X6502 {
                 }
                 if (count <= 0) {
                     mooPI = p;
+                    syncSound();
                     return;
                 } // Should increase accuracy without a major speed hit.
             }
 
             mooPI = p;
+            if (!TRACE && jit && (p & I_FLAG) != 0 && runCompiled()) {
+                continue;
+            }
+            Decoded decoded = !TRACE && predecode ? predecoded() : null;
             b1 = readMemory(pc);
 // if (CC++ < 300) { logger.log(Level.DEBUG, "%04x: %02x".formatted(pc, b1)); }
 // if (debug) System.err.printf("Fetched Opcode: %02x%n", b1);
 // else { System.exit(0); }
             addCYC(cycTable[b1]);
 
-            temp = tCount;
-            tCount = 0;
+            // the apu is hooked only when it has an event, or before i/o
+            soundPending = tCount;
+            if (tCount >= soundBudget) {
+                hookSound();
+            }
 
-            apu.hookSoundCPU(temp);
+            if (decoded != null) {
+                decoded.exec();
+                if (pc == 0x3800) {
+                    break;
+                }
+                continue;
+            }
 
 //logger.log(Level.DEBUG, "%04x:$%02x".formatted(_PC, b1));
             pc++;
@@ -942,9 +1936,11 @@ public class X6502 {
                     int ptmp = pc;
                     int npc;
 
-                    npc = readMemory(ptmp);
-                    ptmp++;
-                    npc |= readMemory(ptmp) << 8;
+                    npc = fetch();
+                    npc |= fetch() << 8;
+                    if (npc == ptmp - 1) {
+                        idle = true; // JMP *
+                    }
                     pc = npc;
                 }
                 break; // JMP ABSOLUTE
@@ -957,11 +1953,10 @@ public class X6502 {
                 break;
                 case 0x20: { // JSR
                     int npc;
-                    npc = readMemory(pc);
-                    pc++;
+                    npc = fetch();
                     push(pc >> 8);
                     push(pc);
-                    pc = readMemory(pc) << 8;
+                    pc = fetch() << 8;
                     pc |= npc;
                 }
                 break;
@@ -1452,15 +2447,7 @@ public class X6502 {
 
                 case 0x2b: // AAC
                 case 0x0b:
-                    ldIM(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            and.exec(i);
-                            p &= ~C_FLAG;
-                            p |= (a >> 7) & C_FLAG;
-                            return a;
-                        }
-                    });
+                    ldIM(aac);
                     break;
 
                 case 0x87: // AAX
@@ -1477,46 +2464,16 @@ public class X6502 {
                     break;
 
                 case 0x6b: { // ARR - ARGH, MATEY!
-                    ldIM(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int arrtmp;
-                            and.exec(i);
-                            p &= ~V_FLAG;
-                            p |= (a ^ (a >> 1)) & 0x40;
-                            arrtmp = (a >> 7) & C_FLAG;
-                            a = (a >> 1) & 0xff;
-                            a |= (p & C_FLAG) << 7;
-                            p &= ~C_FLAG;
-                            p |= arrtmp;
-                            x_zn(a);
-                            return a;
-                        }
-                    });
+                    ldIM(arr);
                 }
                 break;
 
                 case 0x4b: // ASR
-                    ldIM(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            lsra.exec(i);
-                            and.exec(i);
-                            return a;
-                        }
-                    });
+                    ldIM(asr);
                     break;
 
                 case 0xab: // ATX(OAL) Is this(OR with $EE) correct?
-                    ldIM(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            a |= 0xEE;
-                            and.exec(i);
-                            x = a;
-                            return a;
-                        }
-                    });
+                    ldIM(atx);
                     break;
 
                 case 0xcb: // AXS
@@ -1524,145 +2481,47 @@ public class X6502 {
                     break;
 
                 case 0xc7: // DCP
-                    ldZP(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = dec.exec(i[0]);
-                            cmp.exec(val);
-                            return val;
-                        }
-                    });
+                    ldZP(dcp);
                     break;
                 case 0xd7:
-                    ldZPX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = dec.exec(i[0]);
-                            cmp.exec(val);
-                            return val;
-                        }
-                    });
+                    ldZPX(dcp);
                     break;
                 case 0xcf:
-                    ldAB(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = dec.exec(i[0]);
-                            cmp.exec(val);
-                            return val;
-                        }
-                    });
+                    ldAB(dcp);
                     break;
                 case 0xdf:
-                    ldABX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = dec.exec(i[0]);
-                            cmp.exec(val);
-                            return val;
-                        }
-                    });
+                    ldABX(dcp);
                     break;
                 case 0xdb:
-                    ldABY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = dec.exec(i[0]);
-                            cmp.exec(val);
-                            return val;
-                        }
-                    });
+                    ldABY(dcp);
                     break;
                 case 0xc3:
-                    ldIX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = dec.exec(i[0]);
-                            cmp.exec(val);
-                            return val;
-                        }
-                    });
+                    ldIX(dcp);
                     break;
                 case 0xd3:
-                    ldIY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = dec.exec(i[0]);
-                            cmp.exec(val);
-                            return val;
-                        }
-                    });
+                    ldIY(dcp);
                     break;
 
                 case 0xe7: // ISC
-                    ldZP(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = inc.exec(i[0]);
-                            sbc.exec(val);
-                            return val;
-                        }
-                    });
+                    ldZP(isc);
                     break;
                 case 0xf7:
-                    ldZPX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = inc.exec(i[0]);
-                            sbc.exec(val);
-                            return val;
-                        }
-                    });
+                    ldZPX(isc);
                     break;
                 case 0xef:
-                    ldAB(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = inc.exec(i[0]);
-                            sbc.exec(val);
-                            return val;
-                        }
-                    });
+                    ldAB(isc);
                     break;
                 case 0xff:
-                    ldABX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = inc.exec(i[0]);
-                            sbc.exec(val);
-                            return val;
-                        }
-                    });
+                    ldABX(isc);
                     break;
                 case 0xfb:
-                    ldABY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = inc.exec(i[0]);
-                            sbc.exec(val);
-                            return val;
-                        }
-                    });
+                    ldABY(isc);
                     break;
                 case 0xe3:
-                    ldIX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = inc.exec(i[0]);
-                            sbc.exec(val);
-                            return val;
-                        }
-                    });
+                    ldIX(isc);
                     break;
                 case 0xf3:
-                    ldIY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = inc.exec(i[0]);
-                            sbc.exec(val);
-                            return val;
-                        }
-                    });
+                    ldIY(isc);
                     break;
 
                 case 0x04: // DOP
@@ -1727,76 +2586,26 @@ public class X6502 {
                     break;
 
                 case 0xbb: // LAR
-                    rmwABY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            s &= i[0];
-                            a = x = s;
-                            x_zn(x);
-                            return i[0];
-                        }
-                    });
+                    rmwABY(lar);
                     break;
 
                 case 0xa7: // LAX
-                    ldZP(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            lda.exec(i);
-                            ldx.exec(i);
-                            return i[0];
-                        }
-                    });
+                    ldZP(lax);
                     break;
                 case 0xb7:
-                    ldZPY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            lda.exec(i);
-                            ldx.exec(i);
-                            return i[0];
-                        }
-                    });
+                    ldZPY(lax);
                     break;
                 case 0xaf:
-                    ldAB(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            lda.exec(i);
-                            ldx.exec(i);
-                            return i[0];
-                        }
-                    });
+                    ldAB(lax);
                     break;
                 case 0xbf:
-                    ldABY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            lda.exec(i);
-                            ldx.exec(i);
-                            return i[0];
-                        }
-                    });
+                    ldABY(lax);
                     break;
                 case 0xa3:
-                    ldIX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            lda.exec(i);
-                            ldx.exec(i);
-                            return i[0];
-                        }
-                    });
+                    ldIX(lax);
                     break;
                 case 0xb3:
-                    ldIY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            lda.exec(i);
-                            ldx.exec(i);
-                            return i[0];
-                        }
-                    });
+                    ldIY(lax);
                     break;
 
                 case 0x1a: // NOP
@@ -1808,287 +2617,91 @@ public class X6502 {
                     break;
 
                 case 0x27: // RLA
-                    rmwZP(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = rol.exec(i[0]);
-                            and.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwZP(rla);
                     break;
                 case 0x37:
-                    rmwZPX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = rol.exec(i[0]);
-                            and.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwZPX(rla);
                     break;
                 case 0x2f:
-                    rmwAB(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = rol.exec(i[0]);
-                            and.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwAB(rla);
                     break;
                 case 0x3f:
-                    rmwABX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = rol.exec(i[0]);
-                            and.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwABX(rla);
                     break;
                 case 0x3b:
-                    rmwABY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = rol.exec(i[0]);
-                            and.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwABY(rla);
                     break;
                 case 0x23:
-                    rmwIX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = rol.exec(i[0]);
-                            and.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwIX(rla);
                     break;
                 case 0x33:
-                    rmwIY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = rol.exec(i[0]);
-                            and.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwIY(rla);
                     break;
 
                 case 0x67: // RRA
-                    rmwZP(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = ror.exec(i[0]);
-                            adc.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwZP(rra);
                     break;
                 case 0x77:
-                    rmwZPX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = ror.exec(i[0]);
-                            adc.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwZPX(rra);
                     break;
                 case 0x6f:
-                    rmwAB(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = ror.exec(i[0]);
-                            adc.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwAB(rra);
                     break;
                 case 0x7f:
-                    rmwABX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = ror.exec(i[0]);
-                            adc.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwABX(rra);
                     break;
                 case 0x7b:
-                    rmwABY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = ror.exec(i[0]);
-                            adc.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwABY(rra);
                     break;
                 case 0x63:
-                    rmwIX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = ror.exec(i[0]);
-                            adc.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwIX(rra);
                     break;
                 case 0x73:
-                    rmwIY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = ror.exec(i[0]);
-                            adc.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwIY(rra);
                     break;
 
                 case 0x07: // SLO
-                    rmwZP(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = asl.exec(i[0]);
-                            ora.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwZP(slo);
                     break;
                 case 0x17:
-                    rmwZPX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = asl.exec(i[0]);
-                            ora.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwZPX(slo);
                     break;
                 case 0x0f:
-                    rmwAB(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = asl.exec(i[0]);
-                            ora.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwAB(slo);
                     break;
                 case 0x1f:
-                    rmwABX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = asl.exec(i[0]);
-                            ora.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwABX(slo);
                     break;
                 case 0x1b:
-                    rmwABY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = asl.exec(i[0]);
-                            ora.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwABY(slo);
                     break;
                 case 0x03:
-                    rmwIX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = asl.exec(i[0]);
-                            ora.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwIX(slo);
                     break;
                 case 0x13:
-                    rmwIY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = asl.exec(i[0]);
-                            ora.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwIY(slo);
                     break;
 
                 case 0x47: // SRE
-                    rmwZP(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = lsr.exec(i[0]);
-                            eor.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwZP(sre);
                     break;
                 case 0x57:
-                    rmwZPX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = lsr.exec(i[0]);
-                            eor.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwZPX(sre);
                     break;
                 case 0x4f:
-                    rmwAB(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = lsr.exec(i[0]);
-                            eor.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwAB(sre);
                     break;
                 case 0x5f:
-                    rmwABX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = lsr.exec(i[0]);
-                            eor.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwABX(sre);
                     break;
                 case 0x5b:
-                    rmwABY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = lsr.exec(i[0]);
-                            eor.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwABY(sre);
                     break;
                 case 0x43:
-                    rmwIX(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = lsr.exec(i[0]);
-                            eor.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwIX(sre);
                     break;
                 case 0x53:
-                    rmwIY(new OP() {
-                        @Override
-                        int exec(int... i) {
-                            int val = lsr.exec(i[0]);
-                            eor.exec(val);
-                            return val;
-                        }
-                    });
+                    rmwIY(sre);
                     break;
 
                 case 0x93: // AXA - SHA
@@ -2112,7 +2725,7 @@ public class X6502 {
                     break;
 
                 case 0x0c: // TOP
-                    ldAB(null);
+                    ldAB(nop);
                     break;
                 case 0x1c:
                     break;
@@ -2125,7 +2738,7 @@ public class X6502 {
                 case 0xdc:
                     break;
                 case 0xfc:
-                    ldABX(null);
+                    ldABX(nop);
                     break;
 
                 case 0x8b: // XAA - BIG QUESTION MARK HERE
@@ -2134,19 +2747,32 @@ public class X6502 {
                     ldIM(and);
                     break;
                 default:
-                    logger.log(Level.TRACE, "UNKNOWN OP: %02x at %04x".formatted(b1, pc - 1));
+                    if (TRACE && logger.isLoggable(Level.TRACE)) logger.log(Level.TRACE, "UNKNOWN OP: %02x at %04x".formatted(b1, pc - 1));
                     break;
             }
-            if (pc == 0x3800) {
-                break;
+            if (pc == 0x3800 || idle) {
+                break; // the rest is fast forwarded by hackSpeed
             }
         }
+        syncSound();
     }
 
-    /** */
+    /** cycles fast forwarded by the last {@link #hackSpeed(NesApu)} */
+    private int skippedCycles;
+
+    /** @return cycles fast forwarded in the last frame */
+    public int getSkippedCycles() {
+        return skippedCycles;
+    }
+
+    /**
+     * Fast forwards the rest of the frame after {@link #run(NesApu, int)} stopped
+     * at the trap or in a {@code JMP *} idle loop, the apu is advanced in one batch.
+     */
     public void hackSpeed(NesApu apu) {
         int howMuch;
 
+        skippedCycles = 0;
         mooPI = p;
 
         if (irqLow != 0 && (mooPI & I_FLAG) == 0) {
@@ -2158,6 +2784,7 @@ public class X6502 {
             while (count > 0) {
                 count -= 7 * 48;
                 timestamp += 7;
+                skippedCycles += 7;
                 apu.hookSoundCPU(7);
                 if (irqLow != 0) {
                     run(apu, 0);
@@ -2168,6 +2795,7 @@ public class X6502 {
             if (howMuch > 0) {
                 count -= howMuch * 48;
                 timestamp += howMuch;
+                skippedCycles += howMuch;
                 apu.hookSoundCPU(howMuch);
             }
         }
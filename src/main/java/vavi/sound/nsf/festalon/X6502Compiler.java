@@ -0,0 +1,594 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Translates a decoded 6502 block into a hidden class of straight line
+ * jvm bytecode, so that hotspot compiles the guest code itself.
+ * <p>
+ * The generated code calls back the same private helpers and {@code OP}s
+ * the interpreter uses, as a nestmate of {@link X6502}, so the result is
+ * exactly the interpreter's. There are no jvm branches, the block stops
+ * before a jump, a branch or an instruction changing the I flag, and after
+ * a write out of the ram, which may switch a bank or touch the code.
+ * <p>
+ * Cycles are not added per instruction. Instructions which may go through
+ * the bus add theirs to {@code lag}, which the cpu adds before a handler is
+ * called, and the last instruction adds the rest by {@code step}.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+final class X6502Compiler {
+
+    private static final String CPU = "vavi/sound/nsf/festalon/X6502";
+    private static final String OP = CPU + "$OP";
+    private static final String COMPILED = CPU + "$Compiled";
+    private static final String BLOCK = CPU + "Block";
+
+    /** addressing modes */
+    private static final int IMP = 0, IM = 1, ZP = 2, ZPX = 3, ZPY = 4, AB = 5, ABX = 6, ABY = 7, IX = 8, IY = 9;
+
+    /** kinds */
+    private static final int LOAD = 1, STORE = 2, RMW = 3, IMPLIED = 4;
+
+    /** by opcode */
+    private static final int[] kinds = new int[256];
+    /** by opcode */
+    private static final int[] modes = new int[256];
+    /** the {@code OP} field or the stored register by opcode */
+    private static final String[] names = new String[256];
+
+    private static void define(int kind, int mode, String name, int... ops) {
+        for (int op : ops) {
+            kinds[op] = kind;
+            modes[op] = mode;
+            names[op] = name;
+        }
+    }
+
+    static {
+        //                     IM    ZP    ZPX   AB    ABX   ABY   IX    IY
+        for (Object[] l : new Object[][] {
+                {"adc", new int[] {0x69, 0x65, 0x75, 0x6d, 0x7d, 0x79, 0x61, 0x71}},
+                {"and", new int[] {0x29, 0x25, 0x35, 0x2d, 0x3d, 0x39, 0x21, 0x31}},
+                {"cmp", new int[] {0xc9, 0xc5, 0xd5, 0xcd, 0xdd, 0xd9, 0xc1, 0xd1}},
+                {"eor", new int[] {0x49, 0x45, 0x55, 0x4d, 0x5d, 0x59, 0x41, 0x51}},
+                {"lda", new int[] {0xa9, 0xa5, 0xb5, 0xad, 0xbd, 0xb9, 0xa1, 0xb1}},
+                {"ora", new int[] {0x09, 0x05, 0x15, 0x0d, 0x1d, 0x19, 0x01, 0x11}},
+                {"sbc", new int[] {0xe9, 0xe5, 0xf5, 0xed, 0xfd, 0xf9, 0xe1, 0xf1}},
+        }) {
+            int[] ops = (int[]) l[1];
+            int[] ms = {IM, ZP, ZPX, AB, ABX, ABY, IX, IY};
+            for (int i = 0; i < ops.length; i++) {
+                define(LOAD, ms[i], (String) l[0], ops[i]);
+            }
+        }
+        define(LOAD, ZP, "bit", 0x24);
+        define(LOAD, AB, "bit", 0x2c);
+        define(LOAD, IM, "cpx", 0xe0);
+        define(LOAD, ZP, "cpx", 0xe4);
+        define(LOAD, AB, "cpx", 0xec);
+        define(LOAD, IM, "cpy", 0xc0);
+        define(LOAD, ZP, "cpy", 0xc4);
+        define(LOAD, AB, "cpy", 0xcc);
+        define(LOAD, IM, "ldx", 0xa2);
+        define(LOAD, ZP, "ldx", 0xa6);
+        define(LOAD, ZPY, "ldx", 0xb6);
+        define(LOAD, AB, "ldx", 0xae);
+        define(LOAD, ABY, "ldx", 0xbe);
+        define(LOAD, IM, "ldy", 0xa0);
+        define(LOAD, ZP, "ldy", 0xa4);
+        define(LOAD, ZPX, "ldy", 0xb4);
+        define(LOAD, AB, "ldy", 0xac);
+        define(LOAD, ABX, "ldy", 0xbc);
+
+        define(STORE, ZP, "a", 0x85);
+        define(STORE, ZPX, "a", 0x95);
+        define(STORE, AB, "a", 0x8d);
+        define(STORE, ABX, "a", 0x9d);
+        define(STORE, ABY, "a", 0x99);
+        define(STORE, IX, "a", 0x81);
+        define(STORE, IY, "a", 0x91);
+        define(STORE, ZP, "x", 0x86);
+        define(STORE, ZPY, "x", 0x96);
+        define(STORE, AB, "x", 0x8e);
+        define(STORE, ZP, "y", 0x84);
+        define(STORE, ZPX, "y", 0x94);
+        define(STORE, AB, "y", 0x8c);
+
+        //                     A     ZP    ZPX   AB    ABX
+        for (Object[] l : new Object[][] {
+                {"asl", new int[] {0x0a, 0x06, 0x16, 0x0e, 0x1e}},
+                {"lsr", new int[] {0x4a, 0x46, 0x56, 0x4e, 0x5e}},
+                {"rol", new int[] {0x2a, 0x26, 0x36, 0x2e, 0x3e}},
+                {"ror", new int[] {0x6a, 0x66, 0x76, 0x6e, 0x7e}},
+                {"dec", new int[] {-1, 0xc6, 0xd6, 0xce, 0xde}},
+                {"inc", new int[] {-1, 0xe6, 0xf6, 0xee, 0xfe}},
+        }) {
+            int[] ops = (int[]) l[1];
+            int[] ms = {IMP, ZP, ZPX, AB, ABX};
+            for (int i = 0; i < ops.length; i++) {
+                if (ops[i] >= 0) {
+                    define(RMW, ms[i], (String) l[0], ops[i]);
+                }
+            }
+        }
+
+        define(IMPLIED, IMP, null,
+                0xaa, 0x8a, 0xa8, 0x98, 0xba, 0x9a, // transfers
+                0xca, 0x88, 0xe8, 0xc8, // inc/dec x, y
+                0x18, 0xd8, 0xb8, 0x38, 0xf8, 0x78, // flags but cli
+                0xea, 0xeb, // nop
+                0x48, 0x08, 0x68); // pha, php, pla
+    }
+
+    /** @return maximum cycles of an instruction, including a page crossing */
+    private static int maxCycles(int op, int cycles) {
+        return kinds[op] == LOAD && (modes[op] == ABX || modes[op] == ABY || modes[op] == IY) ? cycles + 1 : cycles;
+    }
+
+    /** a compiled block and what it needs to enter */
+    record Result(X6502.Compiled compiled, int maxCycles) {}
+
+    /**
+     * @param lookup a full privilege lookup on {@link X6502}
+     * @param code a decoded block, {@code opcode | operand0 << 8 | operand1 << 16}
+     * @param address of the block
+     * @param cycTable cycles by opcode
+     * @param lengthTable instruction lengths by opcode
+     * @return null when not even the first instruction is compilable
+     */
+    static Result compile(MethodHandles.Lookup lookup, int[] code, int address, byte[] cycTable, byte[] lengthTable) {
+        int maxCycles = 0;
+        int n = 0;
+        for (int c : code) {
+            int op = c & 0xff;
+            if (kinds[op] == 0 || lengthTable[op] == 0) {
+                break;
+            }
+            maxCycles += maxCycles(op, cycTable[op]);
+            n++;
+            if (writesOutOfRam(op, c >>> 8)) {
+                break;
+            }
+        }
+        if (n == 0) {
+            return null;
+        }
+        X6502Compiler compiler = new X6502Compiler();
+        // cycles since the last instruction which added them
+        int cycles = 0;
+        for (int i = 0; i < n; i++) {
+            int op = code[i] & 0xff;
+            int next = (address + lengthTable[op]) & 0xffff;
+            cycles += cycTable[op];
+            if (i == n - 1) {
+                compiler.step(next, cycles, op);
+            } else if (bus(op)) {
+                compiler.lag(next, cycles);
+                cycles = 0;
+            }
+            compiler.instruction(op, code[i] >>> 8, lengthTable[op]);
+            address = next;
+        }
+        try {
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(compiler.toByteArray(), true, MethodHandles.Lookup.ClassOption.NESTMATE);
+            X6502.Compiled compiled = (X6502.Compiled) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+            return new Result(compiled, maxCycles);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /** may read or write through a handler */
+    private static boolean bus(int op) {
+        int kind = kinds[op];
+        if (kind != LOAD && kind != STORE && kind != RMW) {
+            return false;
+        }
+        int mode = modes[op];
+        return mode != IMP && mode != IM && !ram(mode);
+    }
+
+    /** may switch a bank or overwrite code */
+    private static boolean writesOutOfRam(int op, int operand) {
+        int kind = kinds[op];
+        if (kind != STORE && kind != RMW) {
+            return false;
+        }
+        return switch (modes[op]) {
+            case AB -> operand >= 0x2000;
+            case ABX, ABY -> operand + 0xff >= 0x2000;
+            case IX, IY -> true;
+            default -> false; // zero page or accumulator
+        };
+    }
+
+    /** constant pool */
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    /** code of exec */
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    private int utf8(String s) {
+        return entries.computeIfAbsent("U" + s, k -> entry(out -> {
+            out.writeByte(1);
+            out.writeUTF(s);
+        }));
+    }
+
+    private int classRef(String name) {
+        int n = utf8(name);
+        return entries.computeIfAbsent("C" + name, k -> entry(out -> {
+            out.writeByte(7);
+            out.writeShort(n);
+        }));
+    }
+
+    private int integer(int value) {
+        return entries.computeIfAbsent("I" + value, k -> entry(out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        }));
+    }
+
+    private int member(int tag, String owner, String name, String type) {
+        int c = classRef(owner);
+        int n = utf8(name);
+        int t = utf8(type);
+        int nat = entries.computeIfAbsent("N" + name + ":" + type, k -> entry(out -> {
+            out.writeByte(12);
+            out.writeShort(n);
+            out.writeShort(t);
+        }));
+        return entries.computeIfAbsent(tag + owner + "." + name + ":" + type, k -> entry(out -> {
+            out.writeByte(tag);
+            out.writeShort(c);
+            out.writeShort(nat);
+        }));
+    }
+
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(Entry entry) {
+        try {
+            entry.write(poolOut);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return poolCount++;
+    }
+
+    private void op(int... bytes) {
+        for (int b : bytes) {
+            code.write(b);
+        }
+    }
+
+    private void op2(int opcode, int index) {
+        op(opcode, index >> 8, index & 0xff);
+    }
+
+    /** aload_1, the cpu */
+    private void cpu() {
+        op(0x2b);
+    }
+
+    private void iconst(int v) {
+        if (v >= -1 && v <= 5) {
+            op(0x03 + v); // iconst_<v>
+        } else if (v >= -128 && v <= 127) {
+            op(0x10, v & 0xff); // bipush
+        } else if (v >= -32768 && v <= 32767) {
+            op(0x11, (v >> 8) & 0xff, v & 0xff); // sipush
+        } else {
+            op2(0x13, integer(v)); // ldc_w
+        }
+    }
+
+    private void getfield(String name) {
+        op2(0xb4, member(9, CPU, name, "I"));
+    }
+
+    private void putfield(String name) {
+        op2(0xb5, member(9, CPU, name, "I"));
+    }
+
+    private void getOp(String name) {
+        op2(0xb4, member(9, CPU, name, "L" + OP + ";"));
+    }
+
+    private void invoke(String name, String type) {
+        op2(0xb6, member(10, CPU, name, type));
+    }
+
+    private void execOp() {
+        op2(0xb6, member(10, OP, "exec", "(I)I"));
+    }
+
+    /** cpu.x_zn(cpu.r) */
+    private void zn(String r) {
+        cpu();
+        cpu();
+        getfield(r);
+        invoke("x_zn", "(I)V");
+    }
+
+    /** pushes the effective address */
+    private void address(int mode, int operand, boolean read) {
+        int lo = operand & 0xff;
+        switch (mode) {
+        case ZP -> iconst(lo);
+        case ZPX, ZPY -> {
+            iconst(lo);
+            cpu();
+            getfield(mode == ZPX ? "x" : "y");
+            op(0x60); // iadd
+            iconst(0xff);
+            op(0x7e); // iand
+        }
+        case AB -> iconst(operand & 0xffff);
+        case ABX, ABY -> {
+            cpu();
+            iconst(operand & 0xffff);
+            cpu();
+            getfield(mode == ABX ? "x" : "y");
+            invoke(read ? "absIndexedRead" : "absIndexedWrite", "(II)I");
+        }
+        case IX -> {
+            cpu();
+            iconst(lo);
+            invoke("indexedIndirect", "(I)I");
+        }
+        case IY -> {
+            cpu();
+            iconst(lo);
+            invoke(read ? "indirectIndexedRead" : "indirectIndexedWrite", "(I)I");
+        }
+        default -> throw new IllegalArgumentException("mode: " + mode);
+        }
+    }
+
+    /** zero page modes go to ram directly */
+    private static boolean ram(int mode) {
+        return mode == ZP || mode == ZPX || mode == ZPY;
+    }
+
+    /** cpu.step(next, cycles, op), before the last instruction */
+    private void step(int next, int cycles, int op) {
+        cpu();
+        iconst(next);
+        iconst(cycles);
+        iconst(op);
+        invoke("step", "(III)V");
+    }
+
+    /** cpu.lag += cycles; cpu.pc = next, before an instruction which may call a handler */
+    private void lag(int next, int cycles) {
+        cpu();
+        cpu();
+        getfield("lag");
+        iconst(cycles);
+        op(0x60); // iadd
+        putfield("lag");
+        cpu();
+        iconst(next);
+        putfield("pc");
+    }
+
+    /** emits one instruction, the same steps as the interpreter */
+    private void instruction(int op, int operand, int length) {
+        if (length > 1) {
+            // the data bus has the last operand byte fetched
+            cpu();
+            iconst(length == 3 ? (operand >> 8) & 0xff : operand & 0xff);
+            putfield("db");
+        }
+
+        int mode = modes[op];
+        String name = names[op];
+        switch (kinds[op]) {
+        case LOAD -> {
+            // cpu.OP.exec(value)
+            cpu();
+            getOp(name);
+            if (mode == IM) {
+                iconst(operand & 0xff);
+            } else {
+                cpu();
+                address(mode, operand, true);
+                invoke(ram(mode) ? "readRAM" : "readMemory", "(I)I");
+            }
+            execOp();
+            op(0x57); // pop
+        }
+        case STORE -> {
+            // cpu.writeXX(address, cpu.r), addressing does not change registers
+            cpu();
+            address(mode, operand, false);
+            cpu();
+            getfield(name);
+            invoke(ram(mode) ? "writeRAM" : "writeMemory", "(II)V");
+        }
+        case RMW -> {
+            if (mode == IMP) {
+                // cpu.a = cpu.OP.exec(cpu.a)
+                cpu();
+                cpu();
+                getOp(name);
+                cpu();
+                getfield("a");
+                execOp();
+                putfield("a");
+            } else {
+                // cpu.rmwXX(address, cpu.OP)
+                cpu();
+                address(mode, operand, false);
+                cpu();
+                getOp(name);
+                invoke(ram(mode) ? "rmwRAM" : "rmwMemory", "(IL" + OP + ";)V");
+            }
+        }
+        case IMPLIED -> implied(op);
+        default -> throw new IllegalArgumentException("op: " + op);
+        }
+    }
+
+    private void implied(int op) {
+        switch (op) {
+        case 0xaa -> transfer("a", "x", "a"); // TAX
+        case 0x8a -> transfer("x", "a", "a"); // TXA
+        case 0xa8 -> transfer("a", "y", "a"); // TAY
+        case 0x98 -> transfer("y", "a", "a"); // TYA
+        case 0xba -> transfer("s", "x", "x"); // TSX
+        case 0x9a -> transfer("x", "s", null); // TXS
+        case 0xca -> step("x", -1); // DEX
+        case 0x88 -> step("y", -1); // DEY
+        case 0xe8 -> step("x", 1); // INX
+        case 0xc8 -> step("y", 1); // INY
+        case 0x18 -> flag(0x7e, ~X6502.C_FLAG); // CLC, iand
+        case 0xd8 -> flag(0x7e, ~X6502.D_FLAG); // CLD
+        case 0xb8 -> flag(0x7e, ~X6502.V_FLAG); // CLV
+        case 0x38 -> flag(0x80, X6502.C_FLAG); // SEC, ior
+        case 0xf8 -> flag(0x80, X6502.D_FLAG); // SED
+        case 0x78 -> flag(0x80, X6502.I_FLAG); // SEI
+        case 0xea, 0xeb -> {} // NOP
+        case 0x48 -> { // PHA
+            cpu();
+            cpu();
+            getfield("a");
+            invoke("push", "(I)V");
+        }
+        case 0x08 -> { // PHP
+            cpu();
+            cpu();
+            getfield("p");
+            iconst(X6502.U_FLAG | X6502.B_FLAG);
+            op(0x80); // ior
+            invoke("push", "(I)V");
+        }
+        case 0x68 -> { // PLA
+            cpu();
+            cpu();
+            invoke("pop", "()I");
+            putfield("a");
+            zn("a");
+        }
+        default -> throw new IllegalArgumentException("op: " + op);
+        }
+    }
+
+    /** to = from; x_zn(zn) */
+    private void transfer(String from, String to, String zn) {
+        cpu();
+        cpu();
+        getfield(from);
+        putfield(to);
+        if (zn != null) {
+            zn(zn);
+        }
+    }
+
+    /** r += d; r &= 0xff; x_zn(r) */
+    private void step(String r, int d) {
+        cpu();
+        cpu();
+        getfield(r);
+        iconst(d);
+        op(0x60); // iadd
+        iconst(0xff);
+        op(0x7e); // iand
+        putfield(r);
+        zn(r);
+    }
+
+    /** p = p op mask */
+    private void flag(int opcode, int mask) {
+        cpu();
+        cpu();
+        getfield("p");
+        iconst(mask);
+        op(opcode);
+        putfield("p");
+    }
+
+    /** the class file */
+    private byte[] toByteArray() {
+        try {
+            int thisClass = classRef(BLOCK);
+            int superClass = classRef("java/lang/Object");
+            int compiled = classRef(COMPILED);
+            int init = utf8("<init>");
+            int initType = utf8("()V");
+            int objectInit = member(10, "java/lang/Object", "<init>", "()V");
+            int exec = utf8("exec");
+            int execType = utf8("(L" + CPU + ";)V");
+            int codeName = utf8("Code");
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(61); // no branches, no stack map frames
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(0x0030); // final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(compiled);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+
+            // <init>
+            byte[] initCode = {0x2a, (byte) 0xb7, (byte) (objectInit >> 8), (byte) objectInit, (byte) 0xb1};
+            method(out, 0x0001, init, initType, codeName, 1, 1, initCode);
+
+            // exec
+            code.write(0xb1); // return
+            method(out, 0x0001, exec, execType, codeName, 8, 2, code.toByteArray());
+
+            out.writeShort(0); // attributes
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void method(DataOutputStream out, int access, int name, int type, int codeName, int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+}
@@ -19,6 +19,8 @@
 
 package vavi.sound.nsf.festalon.ext;
 
+import java.util.Arrays;
+
 import vavi.sound.nsf.festalon.ExpSound;
 import vavi.sound.nsf.festalon.NesApu;
 import vavi.sound.nsf.festalon.Writer;
@@ -36,7 +38,6 @@ public class Ay extends ExpSound {
     final int[] vcount = new int[3];
     final int[] dcount = new int[3];
     final int[] CAYBC = new int[3];
-    final NesApu gapu;
     int disabled;
 
     /** */
@@ -57,21 +58,21 @@ public class Ay extends ExpSound {
             case 0:
             case 1:
             case 8:
-                doAYSQHQ(0);
+                doAYSQHQ(0, time(), levels());
                 break;
             case 2:
             case 3:
             case 9:
-                doAYSQHQ(1);
+                doAYSQHQ(1, time(), levels());
                 break;
             case 4:
             case 5:
             case 10:
-                doAYSQHQ(2);
+                doAYSQHQ(2, time(), levels());
                 break;
             case 7:
                 for (x = 0; x < 2; x++) {
-                    doAYSQHQ(x);
+                    doAYSQHQ(x, time(), levels());
                 }
                 break;
             }
@@ -79,42 +80,52 @@ public class Ay extends ExpSound {
         }
     };
 
-    private void doAYSQHQ(int x) {
-        int V;
+    /** @return the next change, see {@link #render(int, Levels)} */
+    private int doAYSQHQ(int x, int time, Levels levels) {
+        int V = CAYBC[x];
+        if (time <= V) {
+            return time;
+        }
+        CAYBC[x] = time;
+
         int freq = ((PSG[x << 1] | ((PSG[(x << 1) + 1] & 15) << 8)) + 1) << 4;
         int amp = (PSG[0x8 + x] & 15) << 6;
-        int curout;
-        int timestamp = gapu.cpu.timestamp;
-        int[] WaveHi;
         amp += amp >> 1;
 
-        if ((PSG[0x7] & (1 << x)) == 0 && (disabled & (0x1 << x)) == 0) {
-            int vcount = this.vcount[x];
-            int dcount = this.dcount[x];
-            curout = this.dcount[x] * amp;
-
-            WaveHi = gapu.waveHi;
-            for (V = CAYBC[x]; V < timestamp; V++) {
-                WaveHi[V] += curout;
-                vcount--;
+        if ((PSG[0x7] & (1 << x)) != 0 || (disabled & (0x1 << x)) != 0) {
+            levels.level(this, x, V, 0);
+            return Integer.MAX_VALUE;
+        }
 
-                if (vcount <= 0) {
-                    dcount ^= 1;
-                    curout ^= amp;
-                    vcount = freq;
-                }
+        int vcount = this.vcount[x];
+        int dcount = this.dcount[x];
+        int curout = dcount * amp;
+        int held = curout;
+        while (V < time) {
+            levels.level(this, x, V, curout);
+            held = curout;
+            int run = Math.min(Math.max(vcount, 1), time - V);
+            V += run;
+            vcount -= run;
+
+            if (vcount <= 0) {
+                dcount ^= 1;
+                curout ^= amp;
+                vcount = freq;
             }
-            this.vcount[x] = vcount;
-            this.dcount[x] = dcount;
         }
-        CAYBC[x] = gapu.cpu.timestamp;
+        this.vcount[x] = vcount;
+        this.dcount[x] = dcount;
+        // the last cycle may have changed it
+        return curout != held ? time : time + Math.max(vcount, 1);
     }
 
+    /** the tones hold their output for their periods */
     @Override
-    public void fillHi() {
-        doAYSQHQ(0);
-        doAYSQHQ(1);
-        doAYSQHQ(2);
+    public int render(int time, Levels levels) {
+        int next = doAYSQHQ(0, time, levels);
+        next = Math.min(next, doAYSQHQ(1, time, levels));
+        return Math.min(next, doAYSQHQ(2, time, levels));
     }
 
     @Override
@@ -135,12 +146,23 @@ public class Ay extends ExpSound {
         disabled = mask;
     }
 
+    @Override
+    public void power() {
+        setWriter(0xc000, 0xdfff, Mapper69_SWL);
+        setWriter(0xe000, 0xffff, Mapper69_SWH);
+
+        index = 0;
+        Arrays.fill(PSG, (byte) 0);
+        Arrays.fill(vcount, 0);
+        Arrays.fill(dcount, 0);
+        Arrays.fill(CAYBC, 0);
+    }
+
     public Ay(NesApu apu) {
-        gapu = apu;
+        super(apu);
 
         this.channels = 3;
 
-        apu.cpu.setWriter(0xc000, 0xdfff, Mapper69_SWL, this);
-        apu.cpu.setWriter(0xe000, 0xffff, Mapper69_SWH, this);
+        power();
     }
 }
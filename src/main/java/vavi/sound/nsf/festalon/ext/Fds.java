@@ -19,6 +19,8 @@
 
 package vavi.sound.nsf.festalon.ext;
 
+import java.util.Arrays;
+
 import vavi.sound.nsf.festalon.ExpSound;
 import vavi.sound.nsf.festalon.NesApu;
 import vavi.sound.nsf.festalon.Reader;
@@ -64,7 +66,6 @@ public class Fds extends ExpSound {
     private final int[] countO = new int[2];
     private int disabled;
     private int curOut;
-    private final NesApu gApu;
 
     /** */
     private void redoCO() {
@@ -255,18 +256,30 @@ public class Fds extends ExpSound {
         return curOut;
     }
 
+    /** the carrier steps every other cycle at most, the same levels are not emitted again */
     @Override
-    public void fillHi() {
-        int x;
+    public int render(int time, Levels levels) {
+        int x = fbc;
+        if (time <= x) {
+            return time;
+        }
+        fbc = time;
+
+        if ((sPsg[0x9] & 0x80) != 0 || (disabled & 0x1) != 0) {
+            levels.level(this, 0, x, 0);
+            return Integer.MAX_VALUE;
+        }
 
-        if ((sPsg[0x9] & 0x80) == 0 && (disabled & 0x1) == 0) {
-            for (x = fbc; x < gApu.cpu.timestamp; x++) {
-                int t = doSound();
-                t += t >> 1;
-                gApu.waveHi[x] += t;
+        int last = Integer.MIN_VALUE;
+        for (; x < time; x++) {
+            int t = doSound();
+            t += t >> 1;
+            if (t != last) {
+                levels.level(this, 0, x, t);
+                last = t;
             }
         }
-        fbc = gApu.cpu.timestamp;
+        return time;
     }
 
     @Override
@@ -283,17 +296,41 @@ public class Fds extends ExpSound {
         disabled = mask;
     }
 
+    @Override
+    public void power() {
+        setReader(0x4040, 0x407f, waveReader);
+        setWriter(0x4040, 0x407f, waveWriter);
+        setWriter(0x4080, 0x408A, sWriter);
+        setReader(0x4090, 0x4092, sReader);
+
+        count = 0;
+        envCount = 0;
+        b19ShiftReg60 = 0;
+        b24adder66 = 0;
+        b24latch68 = 0;
+        b17latch76 = 0;
+        clockCount = 0;
+        b8ShiftReg88 = 0;
+        Arrays.fill(amplitude, (byte) 0);
+        Arrays.fill(speedO, (byte) 0);
+        mwCount = 0;
+        mwStart = 0;
+        Arrays.fill(mWave, (byte) 0);
+        Arrays.fill(cWave, (byte) 0);
+        Arrays.fill(sPsg, (byte) 0);
+        fbc = 0;
+        Arrays.fill(countO, 0);
+        curOut = 0;
+    }
+
     /** */
     public Fds(NesApu apu) {
+        super(apu);
 
         this.cycles = (long) 1 << 39;
-        this.gApu = apu;
-
-        apu.cpu.setReader(0x4040, 0x407f, waveReader, this);
-        apu.cpu.setWriter(0x4040, 0x407f, waveWriter, this);
-        apu.cpu.setWriter(0x4080, 0x408A, sWriter, this);
-        apu.cpu.setReader(0x4090, 0x4092, sReader, this);
 
         this.channels = 1;
+
+        power();
     }
 }
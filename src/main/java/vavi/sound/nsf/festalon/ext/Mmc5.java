@@ -19,6 +19,8 @@
 
 package vavi.sound.nsf.festalon.ext;
 
+import java.util.Arrays;
+
 import vavi.sound.nsf.festalon.ExpSound;
 import vavi.sound.nsf.festalon.NesApu;
 import vavi.sound.nsf.festalon.Reader;
@@ -45,7 +47,6 @@ public class Mmc5 extends ExpSound {
     private final int[] bc = new int[3];
     private final int[] vcount = new int[2];
     private int disabled;
-    private final NesApu gapu;
 
     private final Writer mapper5Writer = (address, value) -> {
         switch (address) {
@@ -68,14 +69,14 @@ public class Mmc5 extends ExpSound {
         default -> dataBus;
     };
 
-    private void do5PCMHQ() {
-        int v;
-        if ((rawcontrol & 0x40) == 0 && raw != 0 && (disabled & 0x4) == 0) {
-            for (v = bc[2]; v < gapu.cpu.timestamp; v++) {
-                gapu.waveHi[v] += raw << 5;
-            }
+    /** @return the next change, see {@link #render(int, Levels)} */
+    private int do5PCMHQ(int time, Levels levels) {
+        if (time > bc[2]) {
+            boolean on = (rawcontrol & 0x40) == 0 && (disabled & 0x4) == 0;
+            levels.level(this, 2, bc[2], on ? (raw & 0xff) << 5 : 0);
+            bc[2] = time;
         }
-        bc[2] = gapu.cpu.timestamp;
+        return Integer.MAX_VALUE;
     }
 
     /** */
@@ -87,22 +88,22 @@ public class Mmc5 extends ExpSound {
 
             switch (address) {
             case 0x10:
-                do5PCMHQ();
+                do5PCMHQ(time(), levels());
                 rawcontrol = (byte) value;
                 break;
             case 0x11:
-                do5PCMHQ();
+                do5PCMHQ(time(), levels());
                 raw = (byte) value;
                 break;
 
             case 0x0:
             case 0x4:
-                do5SQHQ(address >> 2);
+                do5SQHQ(address >> 2, time(), levels());
                 env[address >> 2] = (byte) value;
                 break;
             case 0x2:
             case 0x6:
-                do5SQHQ(address >> 2);
+                do5SQHQ(address >> 2, time(), levels());
                 wl[address >> 2] &= ~0x00FF;
                 wl[address >> 2] |= value & 0xFF;
                 break;
@@ -113,8 +114,8 @@ public class Mmc5 extends ExpSound {
                 running |= 1 << (address >> 2);
                 break;
             case 0x15:
-                do5SQHQ(0);
-                do5SQHQ(1);
+                do5SQHQ(0, time(), levels());
+                do5SQHQ(1, time(), levels());
                 running &= value;
                 enable = (byte) value;
                 break;
@@ -122,53 +123,59 @@ public class Mmc5 extends ExpSound {
         }
     };
 
-    private void do5SQHQ(int p) {
-        int[] tal = {
-            1, 2, 4, 6
-        };
-        int V, amp, rthresh, wl;
-
-        wl = this.wl[p] + 1;
-        amp = ((env[p] & 0xF) << 8);
-        rthresh = tal[(env[p] & 0xC0) >> 6];
-
-        if (wl >= 8 && (running & (p + 1)) != 0 && (disabled & (0x1 << p)) == 0) {
-            int dc, vc;
-            int curout;
-            wl <<= 1;
-
-            dc = dcount[p];
-            vc = vcount[p];
-
-            curout = 0;
-            if (dc < rthresh)
-                curout = amp;
-
-            for (V = bc[p]; V < gapu.cpu.timestamp; V++) {
-                gapu.waveHi[V] += curout;
-                // if(dc<rthresh)
-                // gapu.WaveHi[V]+=amp;
-                vc--;
-                if (vc <= 0) /* Less than zero when first started. */
-                {
-                    vc = wl;
-                    dc = (dc + 1) & 7;
-                    curout = 0;
-                    if (dc < rthresh)
-                        curout = amp;
-                }
+    private static final int[] tal = {
+        1, 2, 4, 6
+    };
+
+    /** @return the next change, see {@link #render(int, Levels)} */
+    private int do5SQHQ(int p, int time, Levels levels) {
+        int V = bc[p];
+        if (time <= V) {
+            return time;
+        }
+        bc[p] = time;
+
+        int wl = this.wl[p] + 1;
+        int amp = ((env[p] & 0xF) << 8);
+        int rthresh = tal[(env[p] & 0xC0) >> 6];
+
+        if (wl < 8 || (running & (p + 1)) == 0 || (disabled & (0x1 << p)) != 0) {
+            levels.level(this, p, V, 0);
+            return Integer.MAX_VALUE;
+        }
+
+        wl <<= 1;
+
+        int dc = dcount[p];
+        int vc = vcount[p];
+
+        int curout = dc < rthresh ? amp : 0;
+        int held = curout;
+        while (V < time) {
+            levels.level(this, p, V, curout);
+            held = curout;
+            int run = Math.min(Math.max(vc, 1), time - V);
+            V += run;
+            vc -= run;
+            if (vc <= 0) /* Less than zero when first started. */
+            {
+                vc = wl;
+                dc = (dc + 1) & 7;
+                curout = dc < rthresh ? amp : 0;
             }
-            dcount[p] = dc;
-            vcount[p] = vc;
         }
-        bc[p] = gapu.cpu.timestamp;
+        dcount[p] = dc;
+        vcount[p] = vc;
+        // the last cycle may have changed it
+        return curout != held ? time : time + Math.max(vc, 1);
     }
 
+    /** the pulses hold their output until their counters run out, the pcm until a write */
     @Override
-    public void fillHi() {
-        do5SQHQ(0);
-        do5SQHQ(1);
-        do5PCMHQ();
+    public int render(int time, Levels levels) {
+        int next = do5SQHQ(0, time, levels);
+        next = Math.min(next, do5SQHQ(1, time, levels));
+        return Math.min(next, do5PCMHQ(time, levels));
     }
 
     @Override
@@ -187,16 +194,32 @@ public class Mmc5 extends ExpSound {
         disabled = mask;
     }
 
-    public Mmc5(NesApu apu) {
+    @Override
+    public void power() {
+        setWriter(0x5c00, 0x5fef, exRamWriter);
+        setReader(0x5c00, 0x5fef, exRamReader);
+        setWriter(0x5000, 0x5015, mapper5SWriter);
+        setWriter(0x5205, 0x5206, mapper5Writer);
+        setReader(0x5205, 0x5206, reader);
+
+        Arrays.fill(wl, 0);
+        Arrays.fill(env, (byte) 0);
+        enable = 0;
+        running = 0;
+        raw = 0;
+        rawcontrol = 0;
+        Arrays.fill(mul, (byte) 0);
+        Arrays.fill(exRam, (byte) 0);
+        Arrays.fill(dcount, 0);
+        Arrays.fill(bc, 0);
+        Arrays.fill(vcount, 0);
+    }
 
-        gapu = apu;
+    public Mmc5(NesApu apu) {
+        super(apu);
 
         this.channels = 3;
 
-        apu.cpu.setWriter(0x5c00, 0x5fef, exRamWriter, this);
-        apu.cpu.setReader(0x5c00, 0x5fef, exRamReader, this);
-        apu.cpu.setWriter(0x5000, 0x5015, mapper5SWriter, this);
-        apu.cpu.setWriter(0x5205, 0x5206, mapper5Writer, this);
-        apu.cpu.setReader(0x5205, 0x5206, reader, this);
+        power();
     }
 }
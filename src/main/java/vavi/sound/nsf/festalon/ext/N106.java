@@ -19,6 +19,8 @@
 
 package vavi.sound.nsf.festalon.ext;
 
+import java.util.Arrays;
+
 import vavi.sound.nsf.festalon.ExpSound;
 import vavi.sound.nsf.festalon.NesApu;
 import vavi.sound.nsf.festalon.Reader;
@@ -35,13 +37,17 @@ public class N106 extends ExpSound {
     private final byte[] iRam = new byte[128];
     private byte dopol;
     private final int[] freqCache = new int[8];
+    /** the volumes 0 ~ 15 */
     private final int[] envCache = new int[8];
     private final int[] lengthCache = new int[8];
+    /** [channel][index] the samples at the volume, from the wave address for the longest length */
+    private final int[][] waves = new int[8][32];
+    /** the channels of the waves to be decoded again */
+    private int dirty;
     private final int[] playIndex = new int[8];
     private final int[] vCount = new int[8];
     private int cvbc;
     private int disabled;
-    private final NesApu gApu;
 
     private final Reader namco4800Reader = new Reader() {
         @Override
@@ -53,7 +59,7 @@ public class N106 extends ExpSound {
             if ((dopol & 0x80) != 0) {
                 dopol = (byte) ((dopol & 0x80) | ((dopol + 1) & 0x7f));
             }
-            return ret;
+            return ret & 0xff;
         }
     };
 
@@ -73,8 +79,12 @@ public class N106 extends ExpSound {
             freqCache[w] |= (value & 3) << 16;
             lengthCache[w] = (8 - ((value >> 2) & 7)) << 2;
             break;
+        case 0x06:
+            dirty |= 1 << w;
+            break;
         case 0x07:
-            envCache[w] = (int) ((double) (value & 0xf) * 576716);
+            envCache[w] = value & 0xf;
+            dirty |= 1 << w;
             break;
         }
 
@@ -93,6 +103,7 @@ public class N106 extends ExpSound {
                     fixCache(dopol, value);
                 }
                 iRam[dopol & 0x7f] = (byte) value;
+                touch(dopol & 0x7f);
 
                 if ((dopol & 0x80) != 0)
                     dopol = (byte) ((dopol & 0x80) | ((dopol + 1) & 0x7f));
@@ -114,76 +125,119 @@ public class N106 extends ExpSound {
         cvbc = ts;
     }
 
-    /*
-     * Things to do: 1 Read freq low 2 Read freq mid 3 Read freq high 4 Read
-     * envelope ...?
-     */
+    /** [volume << 4 | sample] the output of a step, 16:16 volumes as the original */
+    private static final int[] volumes = new int[16 * 16];
+
+    static {
+        for (int v = 0; v < 16; v++) {
+            int envelope = (int) ((double) v * 576716);
+            for (int s = 0; s < 16; s++) {
+                volumes[v << 4 | s] = (s * envelope) >> 16;
+            }
+        }
+    }
+
+    /** marks the waves on the byte of the ram */
+    private void touch(int address) {
+        for (int P = 0; P < 8; P++) {
+            int offset = (address << 1) - (iRam[0x46 + (P << 3)] & 0xff);
+            if ((offset & 0xff) < 32 || ((offset + 1) & 0xff) < 32) {
+                dirty |= 1 << P;
+            }
+        }
+    }
 
-    private static int fetchDuff(byte[] IRAM, int P, int envelope, int PlayIndex) {
-        int duff;
-        duff = IRAM[((IRAM[0x46 + (P << 3)] + (PlayIndex >> TOINDEX)) & 0xFF) >> 1];
-        if (((IRAM[0x46 + (P << 3)] + (PlayIndex >> TOINDEX)) & 1) != 0) {
-            duff >>= 4;
+    /** decodes the nibbles of the wave at the volume */
+    private void decode(int P) {
+        int[] wave = waves[P];
+        int address = iRam[0x46 + (P << 3)] & 0xff;
+        int volume = envCache[P] << 4;
+        for (int i = 0; i < wave.length; i++) {
+            int n = (address + i) & 0xff;
+            wave[i] = volumes[volume | ((iRam[n >> 1] >> ((n & 1) << 2)) & 0xf)];
         }
-        duff &= 0xF;
-        duff = (duff * envelope) >> 16;
-        return duff;
     }
 
+    /**
+     * the waves step by the half cycles, the same levels are not emitted again.
+     * a cycle outputs the sum of its halves, so the cycles till the step are skipped
+     * at twice the sample.
+     */
     @Override
-    public void fillHi() {
+    public int render(int time, Levels levels) {
         int P, V;
         int cyclesuck;
         byte[] IRAM = this.iRam;
-        int timestamp = gApu.cpu.timestamp;
+        if (time <= cvbc) {
+            return time;
+        }
+        int next = Integer.MAX_VALUE;
         cyclesuck = (((IRAM[0x7F] >> 4) & 7) + 1) * 15;
 
-        for (P = 7; P >= (7 - ((IRAM[0x7F] >> 4) & 7)); P--) {
-            int WaveHi = cvbc; // gApu.WaveHi
-            if ((IRAM[0x44 + (P << 3)] & 0xE0) != 0 && (IRAM[0x47 + (P << 3)] & 0xF) != 0 && (disabled & (0x1 << P)) == 0) {
-                int freq;
-                int vco;
-                int duff2, lengo, envelope;
-                int PlayIndex;
-
-                vco = vCount[P];
-                freq = freqCache[P];
-                envelope = envCache[P];
-                lengo = lengthCache[P];
-                PlayIndex = this.playIndex[P];
+        for (P = 7; P >= 0; P--) {
+            if (P >= (7 - ((IRAM[0x7F] >> 4) & 7)) && (IRAM[0x44 + (P << 3)] & 0xE0) != 0 && (IRAM[0x47 + (P << 3)] & 0xF) != 0 && (disabled & (0x1 << P)) == 0) {
+                if ((dirty & (1 << P)) != 0) {
+                    decode(P);
+                    dirty &= ~(1 << P);
+                }
+                int[] wave = waves[P];
+                int freq = freqCache[P];
+                int length = lengthCache[P] << TOINDEX;
+                int vco = vCount[P];
+                int PlayIndex = this.playIndex[P];
 
-                duff2 = fetchDuff(IRAM, P, envelope, PlayIndex);
+                int duff2 = wave[PlayIndex >> TOINDEX];
+                int last = Integer.MIN_VALUE;
 
-                // V = timestamp - CVBC;
-                for (V = cvbc; V < timestamp; V++) {
-                // for(;V;V--)
+                for (V = cvbc; V < time; ) {
+                    int out = duff2;
+                    if (vco >= 2) {
+                        // no step in the cycles while the count is over a cycle
+                        int run = Math.min(vco >> 1, time - V);
+                        out <<= 1;
+                        vco -= run << 1;
+                        if (out != last) {
+                            levels.level(this, P, V, out);
+                            last = out;
+                        }
+                        V += run;
+                        continue;
+                    }
 
-                    gApu.waveHi[WaveHi] += duff2;
                     if (vco == 0) {
                         PlayIndex += freq;
-                        while ((PlayIndex >> TOINDEX) >= lengo)
-                            PlayIndex -= lengo << TOINDEX;
-                        duff2 = fetchDuff(IRAM, P, envelope, PlayIndex);
+                        if (PlayIndex >= length)
+                            PlayIndex %= length;
+                        duff2 = wave[PlayIndex >> TOINDEX];
                         vco = cyclesuck;
                     }
                     vco--;
 
-                    gApu.waveHi[WaveHi] += duff2;
+                    out += duff2;
                     if (vco == 0) {
                         PlayIndex += freq;
-                        while ((PlayIndex >> TOINDEX) >= lengo)
-                            PlayIndex -= lengo << TOINDEX;
-                        duff2 = fetchDuff(IRAM, P, envelope, PlayIndex);
+                        if (PlayIndex >= length)
+                            PlayIndex %= length;
+                        duff2 = wave[PlayIndex >> TOINDEX];
                         vco = cyclesuck;
                     }
-                    WaveHi++;
                     vco--;
+
+                    if (out != last) {
+                        levels.level(this, P, V, out);
+                        last = out;
+                    }
+                    V++;
                 }
                 vCount[P] = vco;
                 this.playIndex[P] = PlayIndex;
+                next = Math.min(next, last != duff2 << 1 ? time : time + (vco >> 1));
+            } else {
+                levels.level(this, P, cvbc, 0);
             }
         }
-        cvbc = timestamp;
+        cvbc = time;
+        return next;
     }
 
     @Override
@@ -195,14 +249,28 @@ public class N106 extends ExpSound {
         disabled = mask;
     }
 
-    public N106(NesApu apu) {
+    @Override
+    public void power() {
+        setWriter(0xf800, 0xffff, mapper19Writer);
+        setWriter(0x4800, 0x4fff, mapper19Writer);
+        setReader(0x4800, 0x4fff, namco4800Reader);
 
-        this.gApu = apu;
+        Arrays.fill(iRam, (byte) 0);
+        dopol = 0;
+        Arrays.fill(freqCache, 0);
+        Arrays.fill(envCache, 0);
+        Arrays.fill(lengthCache, 0);
+        Arrays.fill(playIndex, 0);
+        Arrays.fill(vCount, 0);
+        dirty = 0xff;
+        cvbc = 0;
+    }
 
-        apu.cpu.setWriter(0xf800, 0xffff, mapper19Writer, this);
-        apu.cpu.setWriter(0x4800, 0x4fff, mapper19Writer, this);
-        apu.cpu.setReader(0x4800, 0x4fff, namco4800Reader, this);
+    public N106(NesApu apu) {
+        super(apu);
 
         this.channels = 8;
+
+        power();
     }
 }
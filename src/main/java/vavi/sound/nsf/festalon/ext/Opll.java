@@ -426,37 +426,42 @@ class Opll {
     /** Input clock */
     private int clk;
 
+    /*
+     * The tables below do not depend on the clock, they are built once by the
+     * class init, which is lazy and thread safe, and only read after that.
+     */
+
     /** WaveTable for each envelope amp */
-    private final short[] fullSinTable = new short[PG_WIDTH];
-    private final short[] halfSinTable = new short[PG_WIDTH];
-    private final short[][] waveForm = new short[2][];
+    private static final short[] fullSinTable = new short[PG_WIDTH];
+    private static final short[] halfSinTable = new short[PG_WIDTH];
+    private static final short[][] waveForm = {fullSinTable, halfSinTable};
 
     /** LFO Table */
-    private final int[] pmTable = new int[PM_PG_WIDTH];
-    private final int[] amTable = new int[AM_PG_WIDTH];
+    private static final int[] pmTable = new int[PM_PG_WIDTH];
+    private static final int[] amTable = new int[AM_PG_WIDTH];
 
     /** Phase delta for LFO */
     private int pmDPhase;
     private int amDPhase;
 
     /** dB to Liner table */
-    private final short[] db2LinTable = new short[(DB_MUTE + DB_MUTE) * 2];
+    private static final short[] db2LinTable = new short[(DB_MUTE + DB_MUTE) * 2];
 
     /** Liner to Log curve conversion table (for Attack rate). */
-    private final short[] arAdjustTable = new short[1 << EG_BITS];
+    private static final short[] arAdjustTable = new short[1 << EG_BITS];
 
     /** Phase incr table for Attack */
-    private final int[][] dPhaseARTable = new int[16][16];
+    private static final int[][] dPhaseARTable = new int[16][16];
 
     /** Phase incr table for Decay and Release */
-    private final int[][] dPhaseDRTable = new int[16][16];
+    private static final int[][] dPhaseDRTable = new int[16][16];
 
     /** KSL + TL Table */
-    private final int[][][][] tllTable = new int[16][8][1 << TL_BITS][4];
-    private final int[][][] rksTable = new int[2][8][2];
+    private static final int[][][][] tllTable = new int[16][8][1 << TL_BITS][4];
+    private static final int[][][] rksTable = new int[2][8][2];
 
     /** Phase incr table for PG */
-    private final int[][][] dphaseTable = new int[512][8][16];
+    private static final int[][][] dphaseTable = new int[512][8][16];
 
     /**
      * VRC7 instruments
@@ -569,7 +574,7 @@ class Opll {
      */
 
     /** Table for AR to LogCurve. */
-    private void makeAdjustTable() {
+    private static void makeAdjustTable() {
 
         arAdjustTable[0] = (1 << EG_BITS);
         for (int i = 1; i < 128; i++) {
@@ -578,7 +583,7 @@ class Opll {
     }
 
     /** Table for dB(0 -- (1<<DB_BITS)-1) to Liner(0 -- DB2LIN_AMP_WIDTH) */
-    private void makeDB2LinTable() {
+    private static void makeDB2LinTable() {
 
         for (int i = 0; i < DB_MUTE + DB_MUTE; i++) {
             db2LinTable[i] = (short) (((1 << DB2LIN_AMP_BITS) - 1) * Math.pow(10, -(double) i * DB_STEP / 20));
@@ -600,7 +605,7 @@ class Opll {
     }
 
     /** Sin Table */
-    private void makeSinTable() {
+    private static void makeSinTable() {
 
         for (int i = 0; i < PG_WIDTH / 4; i++) {
             fullSinTable[i] = (short) lin2db(Math.sin(2.0 * Math.PI * i / PG_WIDTH));
@@ -622,7 +627,7 @@ class Opll {
     }
 
     /** Table for Pitch Modulator */
-    private void makePmTable() {
+    private static void makePmTable() {
 
         for (int i = 0; i < PM_PG_WIDTH; i++) {
             pmTable[i] = (int) (PM_AMP * Math.pow(2, PM_DEPTH * Math.sin(2.0 * Math.PI * i / PM_PG_WIDTH) / 1200));
@@ -630,7 +635,7 @@ class Opll {
     }
 
     /** Table for Amp Modulator */
-    private void makeAmTable() {
+    private static void makeAmTable() {
 
         for (int i = 0; i < AM_PG_WIDTH; i++) {
             amTable[i] = (int) (AM_DEPTH / 2 / DB_STEP * (1.0 + Math.sin(2.0 * Math.PI * i / PM_PG_WIDTH)));
@@ -638,7 +643,7 @@ class Opll {
     }
 
     /** Phase increment counter table */
-    private void makeDPhaseTable() {
+    private static void makeDPhaseTable() {
         int[] mlTable = {
             1, 1 * 2, 2 * 2, 3 * 2,
             4 * 2, 5 * 2, 6 * 2, 7 * 2,
@@ -669,7 +674,7 @@ class Opll {
     };
 
     /** */
-    private void makeTllTable() {
+    private static void makeTllTable() {
 
         for (int fnum = 0; fnum < 16; fnum++) {
             for (int block = 0; block < 8; block++) {
@@ -732,7 +737,7 @@ class Opll {
 //#endif
 
     /* Rate Table for Attack */
-    private void makeDPhaseARTable() {
+    private static void makeDPhaseARTable() {
 //#ifdef USE_SPEC_ENV_SPEED
         int[][] attackTable = new int[16][4];
 
@@ -775,7 +780,7 @@ class Opll {
     }
 
     /** Rate Table for Decay and Release */
-    private void makeDPhaseDRTable() {
+    private static void makeDPhaseDRTable() {
 
 //#ifdef USE_SPEC_ENV_SPEED
         int[][] decayTable = new int[16][4];
@@ -815,7 +820,7 @@ class Opll {
     }
 
     /** */
-    private void makeRksTable() {
+    private static void makeRksTable() {
 
         for (int fnum8 = 0; fnum8 < 2; fnum8++) {
             for (int block = 0; block < 8; block++) {
@@ -830,6 +835,20 @@ class Opll {
         }
     }
 
+    static {
+        makePmTable();
+        makeAmTable();
+        makeDB2LinTable();
+        makeAdjustTable();
+        makeTllTable();
+        makeRksTable();
+        makeSinTable();
+//      makeDefaultPatch();
+        makeDPhaseTable();
+        makeDPhaseARTable();
+        makeDPhaseDRTable();
+    }
+
     /*
      * OPLL internal interfaces
      */
@@ -891,33 +910,14 @@ class Opll {
 
     /** */
     private void refreshInternal() {
-        makeDPhaseTable();
-        makeDPhaseARTable();
-        makeDPhaseDRTable();
         pmDPhase = (int) (PM_SPEED * PM_DP_WIDTH / (clk / 72));
         amDPhase = (int) (AM_SPEED * AM_DP_WIDTH / (clk / 72));
     }
 
-    /** */
-    private void makeTables(int c) {
-        clk = c;
-        makePmTable();
-        makeAmTable();
-        makeDB2LinTable();
-        makeAdjustTable();
-        makeTllTable();
-        makeRksTable();
-        makeSinTable();
-//      makeDefaultPatch();
-        refreshInternal();
-    }
-
     /** */
     public Opll(int clk) {
-        makeTables(clk);
-
-        this.waveForm[0] = this.fullSinTable;
-        this.waveForm[1] = this.halfSinTable;
+        this.clk = clk;
+        refreshInternal();
 
         this.mask = 0;
 
@@ -1022,8 +1022,8 @@ class Opll {
         s2e(36.0), s2e(39.0), s2e(42.0), s2e(48.0)
     };
 
-    /** */
-    private short calcInternal() {
+    /** @param outs [channel] the outputs of the melody channels, null when not needed */
+    private short calcInternal(int[] outs) {
         int inst = 0, out;
 
         updateAmPm();
@@ -1034,8 +1034,13 @@ class Opll {
         }
 
         for (int i = 0; i < 6; i++) {
+            int o = 0;
             if ((mask & maskCh(i)) == 0 && (car(i).eg_mode != EnvelopeMode.FINISH)) {
-                inst += car(i).calcSlotCar(mod(i).calcSlotMod());
+                o = car(i).calcSlotCar(mod(i).calcSlotMod());
+                inst += o;
+            }
+            if (outs != null) {
+                outs[i] = o;
             }
         }
 
@@ -1045,7 +1050,25 @@ class Opll {
 
     /** */
     public short calc() {
-        return calcInternal();
+        return calcInternal(null);
+    }
+
+    /**
+     * {@link #calc()} by a block.
+     * @param buf the outputs
+     */
+    public void calc(short[] buf, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            buf[i] = calcInternal(null);
+        }
+    }
+
+    /**
+     * {@link #calc()} with the outputs by the channels.
+     * @param outs [6] the outputs of the melody channels, 0 when masked
+     */
+    public short calc(int[] outs) {
+        return calcInternal(outs);
     }
 
     /** */
@@ -1231,7 +1254,7 @@ class Opll {
             int ch = reg - 0x20;
             hiFreq[ch] = (byte) data;
 
-            setFNumber(ch, ((data & 1) << 8) + lowFreq[ch]);
+            setFNumber(ch, ((data & 1) << 8) + (lowFreq[ch] & 0xff));
             setBlock(ch, (data >> 1) & 7);
             setSustine(ch, (data >> 5) & 1);
             if ((data & 0x10) != 0) {
@@ -19,6 +19,8 @@
 
 package vavi.sound.nsf.festalon.ext;
 
+import java.util.Arrays;
+
 import vavi.sound.nsf.festalon.ExpSound;
 import vavi.sound.nsf.festalon.NesApu;
 import vavi.sound.nsf.festalon.Writer;
@@ -39,7 +41,6 @@ public class Vrc6 extends ExpSound {
     private final byte[] vPsg = new byte[8];
     private final byte[] vPsg2 = new byte[4];
     private int disabled;
-    private NesApu gApu;
 
     private final Writer sWriter = (address, value) -> {
 
@@ -56,76 +57,99 @@ public class Vrc6 extends ExpSound {
         }
     };
 
-    private void doSQVHQ(int i) {
+    /** @return the next change, see {@link #render(int, Levels)} */
+    private int doSQVHQ(int i, int time, Levels levels) {
+        int v = cvbc[i];
+        if (time <= v) {
+            return time;
+        }
+        cvbc[i] = time;
 
         int amp = ((vPsg[i << 2] & 15) << 8) * 6 / 8;
 
-        if ((vPsg[(i << 2) | 0x2] & 0x80) != 0 && (disabled & (0x1 << i)) == 0) {
-            if ((vPsg[i << 2] & 0x8) != 0) {
-                for (int v = cvbc[i]; v < gApu.cpu.timestamp; v++) {
-                    gApu.waveHi[v] += amp;
-                }
-            } else {
-                int thresh = (vPsg[i << 2] >> 4) & 7;
-                int curout;
-
-                curout = 0;
-                if (dCount[i] > thresh) { /* Greater than, not >=. Important. */
-                    curout = amp;
-                }
+        if ((vPsg[(i << 2) | 0x2] & 0x80) == 0 || (disabled & (0x1 << i)) != 0) {
+            levels.level(this, i, v, 0);
+            return Integer.MAX_VALUE;
+        }
+        if ((vPsg[i << 2] & 0x8) != 0) {
+            levels.level(this, i, v, amp);
+            return Integer.MAX_VALUE;
+        }
 
-                for (int v = cvbc[i]; v < gApu.cpu.timestamp; v++) {
-                    gApu.waveHi[v] += curout;
-                    vCount[i]--;
-                    if (vCount[i] <= 0) { /* Should only be <0 in a few circumstances. */
-
-                        vCount[i] = (vPsg[(i << 2) | 0x1] | ((vPsg[(i << 2) | 0x2] & 15) << 8)) + 1;
-                        dCount[i] = (dCount[i] + 1) & 15;
-                        curout = 0;
-                        if (dCount[i] > thresh) { /* Greater than, not >=. Important. */
-                            curout = amp;
-                        }
-                    }
-                }
+        int thresh = (vPsg[i << 2] >> 4) & 7;
+        int curout = dCount[i] > thresh ? amp : 0; /* Greater than, not >=. Important. */
+        int held = curout;
+        while (v < time) {
+            levels.level(this, i, v, curout);
+            held = curout;
+            int run = Math.min(Math.max(vCount[i], 1), time - v);
+            v += run;
+            vCount[i] -= run;
+            if (vCount[i] <= 0) { /* Should only be <0 in a few circumstances. */
+
+                vCount[i] = (vPsg[(i << 2) | 0x1] | ((vPsg[(i << 2) | 0x2] & 15) << 8)) + 1;
+                dCount[i] = (dCount[i] + 1) & 15;
+                curout = dCount[i] > thresh ? amp : 0;
             }
         }
-        cvbc[i] = gApu.cpu.timestamp;
+        // the last cycle may have changed it
+        return curout != held ? time : time + Math.max(vCount[i], 1);
     }
 
     private void doSQV1HQ() {
-        doSQVHQ(0);
+        doSQVHQ(0, time(), levels());
     }
 
     private void doSQV2HQ() {
-        doSQVHQ(1);
+        doSQVHQ(1, time(), levels());
     }
 
     private void doSawVHQ() {
+        doSawVHQ(time(), levels());
+    }
+
+    /** @return the next change, see {@link #render(int, Levels)} */
+    private int doSawVHQ(int time, Levels levels) {
+        int v = cvbc[2];
+        if (time <= v) {
+            return time;
+        }
+        cvbc[2] = time;
+
+        if ((vPsg2[2] & 0x80) == 0 || (disabled & 0x4) != 0) {
+            levels.level(this, 2, v, 0);
+            return Integer.MAX_VALUE;
+        }
+
         int curout = (((phaseAcc >> 3) & 0x1f) << 8) * 6 / 8;
-        if ((vPsg2[2] & 0x80) != 0 && (disabled & 0x4) == 0) {
-            for (int V = cvbc[2]; V < gApu.cpu.timestamp; V++) {
-                gApu.waveHi[V] += curout;
-                vCount[2]--;
-                if (vCount[2] <= 0) {
-                    vCount[2] = ((vPsg2[1] & 0xff) + ((vPsg2[2] & 15) << 8) + 1) << 1;
-                    phaseAcc += vPsg2[0] & 0x3f;
-                    b3++;
-                    if (b3 == 7) {
-                        b3 = 0;
-                        phaseAcc = 0;
-                    }
-                    curout = (((phaseAcc >> 3) & 0x1f) << 8) * 6 / 8;
+        int held = curout;
+        while (v < time) {
+            levels.level(this, 2, v, curout);
+            held = curout;
+            int run = Math.min(Math.max(vCount[2], 1), time - v);
+            v += run;
+            vCount[2] -= run;
+            if (vCount[2] <= 0) {
+                vCount[2] = ((vPsg2[1] & 0xff) + ((vPsg2[2] & 15) << 8) + 1) << 1;
+                phaseAcc += vPsg2[0] & 0x3f;
+                b3++;
+                if (b3 == 7) {
+                    b3 = 0;
+                    phaseAcc = 0;
                 }
+                curout = (((phaseAcc >> 3) & 0x1f) << 8) * 6 / 8;
             }
         }
-        cvbc[2] = gApu.cpu.timestamp;
+        // the last cycle may have changed it
+        return curout != held ? time : time + Math.max(vCount[2], 1);
     }
 
+    /** the pulses and the saw hold their output until their counters run out */
     @Override
-    public void fillHi() {
-        doSQV1HQ();
-        doSQV2HQ();
-        doSawVHQ();
+    public int render(int time, Levels levels) {
+        int next = doSQVHQ(0, time, levels);
+        next = Math.min(next, doSQVHQ(1, time, levels));
+        return Math.min(next, doSawVHQ(time, levels));
     }
 
     @Override
@@ -144,9 +168,23 @@ public class Vrc6 extends ExpSound {
         disabled = mask;
     }
 
+    @Override
+    public void power() {
+        setWriter(0x8000, 0xbfff, sWriter);
+
+        Arrays.fill(cvbc, 0);
+        Arrays.fill(vCount, 0);
+        Arrays.fill(dCount, 0);
+        b3 = 0;
+        phaseAcc = 0;
+        Arrays.fill(vPsg, (byte) 0);
+        Arrays.fill(vPsg2, (byte) 0);
+    }
+
     public Vrc6(NesApu apu) {
+        super(apu);
         this.channels = 3;
 
-        apu.cpu.setWriter(0x8000, 0xbfff, sWriter, this);
+        power();
     }
 }
@@ -19,6 +19,8 @@
 
 package vavi.sound.nsf.festalon.ext;
 
+import java.util.Arrays;
+
 import vavi.sound.nsf.festalon.ExpSound;
 import vavi.sound.nsf.festalon.NesApu;
 import vavi.sound.nsf.festalon.Writer;
@@ -44,19 +46,87 @@ public class Vrc7 extends ExpSound {
     private int out;
     /** */
     private final NesApu gApu;
-
+    /** outputs of a block */
+    private short[] buf = new short[1024];
+    /** {@link #out} by the buses, at the first channel of each */
+    private final int[] outs = new int[6];
+    /** the outputs of the channels */
+    private final int[] outputs = new int[6];
+    /** where the channels accumulate for the buses */
+    private final int[][] waveHis = new int[6][];
+    /** the first channel of the same bus */
+    private final int[] firsts = new int[6];
+
+    /** the cycles to the next opll sample */
+    private static final int DIVIDER = 36;
+
+    /**
+     * The opll runs at 1/{@link #DIVIDER} of the cpu, the output is held between
+     * the samples, so it is given as the levels at the samples.
+     */
     @Override
-    public void fillHi() {
+    public int render(int ts, Levels levels) {
+        if (ts <= bc) {
+            return ts;
+        }
+        if (gApu.hasBuses()) {
+            return renderBuses(ts, levels);
+        }
+
+        // again after the apu cleared the levels
+        levels.level(this, 0, bc, out);
+        int first = bc + (DIVIDER - divC) % DIVIDER;
+        int n = first < ts ? (ts - first + DIVIDER - 1) / DIVIDER : 0;
+        if (buf.length < n) {
+            buf = new short[n];
+        }
+        ym.calc(buf, 0, n);
+        for (int i = 0, V = first; i < n; i++, V += DIVIDER) {
+            out = (buf[i] + (2048 * 6)) << 1;
+            levels.level(this, 0, V, out);
+        }
 
-        for (int V = bc; V < gApu.cpu.timestamp; V++) {
-            if (divC == 0) {
-                out = (ym.calc() + (2048 * 6)) << 1;
+        divC = (divC + ts - bc) % DIVIDER;
+        bc = ts;
+        return ts + (DIVIDER - divC) % DIVIDER;
+    }
+
+    /**
+     * {@link #render(int, Levels)} by the buses of the apu, the channels of a bus are mixed as the mono.
+     * every bus has the offset to keep it positive, as if the others were disabled,
+     * the apu takes it back but in the first by {@link #bias}.
+     */
+    private int renderBuses(int ts, Levels levels) {
+        for (int i = 0; i < 6; i++) {
+            waveHis[i] = gApu.waveHi(this, i);
+            firsts[i] = 0;
+            while (waveHis[firsts[i]] != waveHis[i]) {
+                firsts[i]++;
+            }
+            if (firsts[i] == i) {
+                levels.level(this, i, bc, outs[i]);
             }
-            divC = (divC + 1) % 36;
-            gApu.waveHi[V] += out;
         }
 
-        bc = gApu.cpu.timestamp;
+        for (int V = bc + (DIVIDER - divC) % DIVIDER; V < ts; V += DIVIDER) {
+            ym.calc(outputs);
+            for (int i = 0; i < 6; i++) {
+                if (firsts[i] == i) {
+                    outs[i] = 0;
+                }
+                outs[firsts[i]] += outputs[i];
+            }
+            for (int i = 0; i < 6; i++) {
+                if (firsts[i] == i) {
+                    outs[i] = ((short) outs[i] + (2048 * 6)) << 1;
+                    levels.level(this, i, V, outs[i]);
+                }
+            }
+        }
+
+        divC = (divC + ts - bc) % DIVIDER;
+        bc = ts;
+        return ts + (DIVIDER - divC) % DIVIDER;
     }
 
     @Override
@@ -90,19 +160,34 @@ public class Vrc7 extends ExpSound {
         ym.setMask(mask);
     }
 
-    /** */
-    public Vrc7(NesApu apu) {
-
-        this.divC = 0;
-        apu.cpu.setWriter(0x9000, 0x9fff, mapper85Writer, this);
+    @Override
+    public void power() {
+        setWriter(0x9000, 0x9fff, mapper85Writer);
 
 //      apu.x.setWriter(0x9010, 0x901F, mapper85Writer, this);
 //      apu.x.setWriter(0x9030, 0x903F, mapper85Writer, this);
 
+        // reset clears the mask set by disable
+        int mask = ym.setMask(0);
+        ym.reset();
+        ym.setMask(mask);
+        bc = 0;
+        index = 0;
+        divC = 0;
+        out = 0;
+        Arrays.fill(outs, 0);
+    }
+
+    /** */
+    public Vrc7(NesApu apu) {
+        super(apu);
+
         this.ym = new Opll(3579545);
         this.gApu = apu;
-        this.ym.reset();
 
         this.channels = 6;
+        this.bias = (2048 * 6) << 1;
+
+        power();
     }
 }
@@ -34,12 +34,15 @@ final class APUSamplers implements AutoCloseable {
         return samplers;
     }
 
-    void setupSamplers(APU apu, boolean splitChannels) {
+    /**
+     * @param mixer the mixer output of the apu evaluated once a cycle by the renderer
+     */
+    void setupSamplers(APU apu, boolean splitChannels, APUSampleSupplier mixer) {
 
         Validate.notNull(apu);
 
         if (!splitChannels) {
-            maybeAddSampler(apu::mixerOutput);
+            maybeAddSampler(mixer);
         } else {
             maybeAddSampler("p1",    apu.isPulse1Enabled(),   apu::pulse1Output);
             maybeAddSampler("p2",    apu.isPulse2Enabled(),   apu::pulse2Output);
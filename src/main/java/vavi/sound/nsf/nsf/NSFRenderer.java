@@ -45,6 +45,11 @@ public final class NSFRenderer {
     private long systemCycle;
     private long nextCycleToPlay;
 
+    /** the mixer output, it changes only by the clocks and the play routine */
+    private float mixed;
+    /** {@link #mixed} is to be evaluated again */
+    private boolean mixDirty;
+
     public interface Sink {
         void write(byte b);
         void finish();
@@ -84,7 +89,7 @@ public final class NSFRenderer {
 
         try (APUSamplers samplers = new APUSamplers(sink, disableBandPass)) {
 
-            samplers.setupSamplers(nes.apu, splitChannels);
+            samplers.setupSamplers(nes.apu, splitChannels, () -> mixed);
 
             nes.initTune(trackNum - 1);
             nes.execInit();
@@ -92,6 +97,7 @@ public final class NSFRenderer {
             systemCycle = 0;
             cpuDivider.reset();
             silenceDetector.reset();
+            mixDirty = true;
             nextCycleToPlay = playPeriodFinder.findNextPeriod(0);
 
             for (APUSamplePipe sampler : samplers.getSamplers()) {
@@ -161,6 +167,7 @@ logger.log(Level.DEBUG, "playPeriodSystemCycles: " + playPeriodSystemCycles);
 //logger.log(Level.DEBUG, );
 
             nes.execPlay();
+            mixDirty = true;
 
             cycles = nes.numCycles.get();
         } else {
@@ -169,15 +176,7 @@ logger.log(Level.DEBUG, "playPeriodSystemCycles: " + playPeriodSystemCycles);
 
         for (int i = 0; i < cycles; i++) {
 
-            if (cpuDivider.clock()) {
-                nes.apu.clockChannelTimers();
-            }
-
-            if (frameSequencerDivider.clock()) {
-                nes.apu.clockFrameSequencer();
-            }
-
-            float sample = nes.apu.mixerOutput();
+            float sample = mix();
 
             silenceDetector.addSample(sample);
 
@@ -197,6 +196,25 @@ logger.log(Level.DEBUG, "playPeriodSystemCycles: " + playPeriodSystemCycles);
         return cycles;
     }
 
+    /** clocks the apu by a system cycle */
+    private float mix() {
+        if (cpuDivider.clock()) {
+            nes.apu.clockChannelTimers();
+            mixDirty = true;
+        }
+
+        if (frameSequencerDivider.clock()) {
+            nes.apu.clockFrameSequencer();
+            mixDirty = true;
+        }
+
+        if (mixDirty) {
+            mixed = nes.apu.mixerOutput();
+            mixDirty = false;
+        }
+        return mixed;
+    }
+
     /** */
     private float getScale() {
         float scale;
@@ -216,6 +234,7 @@ logger.log(Level.DEBUG, "playPeriodSystemCycles: " + playPeriodSystemCycles);
             nextCycleToPlay = playPeriodFinder.findNextPeriod(systemCycle + 1);
 
             nes.execPlay();
+            mixDirty = true;
 
             cycles = nes.numCycles.get();
         } else {
@@ -226,15 +245,7 @@ logger.log(Level.DEBUG, "playPeriodSystemCycles: " + playPeriodSystemCycles);
 
         for (int i = 0; i < cycles; i++) {
 
-            if (cpuDivider.clock()) {
-                nes.apu.clockChannelTimers();
-            }
-
-            if (frameSequencerDivider.clock()) {
-                nes.apu.clockFrameSequencer();
-            }
-
-            float sample = nes.apu.mixerOutput();
+            float sample = mix();
 
             silenceDetector.addSample(sample);
 
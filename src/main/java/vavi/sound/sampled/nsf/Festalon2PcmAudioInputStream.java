@@ -32,6 +32,12 @@ import static java.lang.System.getLogger;
  * <pre>
  *  property
  *   track = number
+ *   lowPass = number ... corner frequency of the butterworth low pass in Hz, off when 0 or absent
+ *   lowPassOrder = number ... order of the low pass, default 2
+ *   fixedPoint = boolean ... render 16 bit pcm by fixed point, default false
+ *   gains = string ... comma separated gains of the channels, 1 as is, e.g. "1,1,0.5"
+ *   pans = string ... comma separated pans of the channels, -1: left ~ 1: right, for stereo
+ *   parallel = boolean ... render the expansion chips on the fork join pool, default false
  * </pre>
  * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
  * @version 0.00 2026/02/12 umjammer initial version <br>
@@ -47,7 +53,7 @@ public class Festalon2PcmAudioInputStream extends AudioInputStream {
 
     /** format's properties are ignored */
     public Festalon2PcmAudioInputStream(InputStream stream, AudioFormat format, long length, Map<String, Object> props) throws IOException {
-        super(new OutputEngineInputStream(new NSFOutputEngine(stream, props)), format, length);
+        super(new OutputEngineInputStream(new NSFOutputEngine(stream, format.getChannels(), props)), format, length);
     }
 
     /** */
@@ -61,6 +67,12 @@ public class Festalon2PcmAudioInputStream extends AudioInputStream {
 
         private final Map<String, Object> props;
 
+        /** 16 bit pcm from the emulator */
+        private boolean fixedPoint;
+
+        /** 1: mono, 2: stereo */
+        private final int channels;
+
         private static Thread maxThreadFactory(Runnable r) {
             Thread thread = new Thread(r);
             thread.setPriority(Thread.MAX_PRIORITY);
@@ -70,8 +82,9 @@ public class Festalon2PcmAudioInputStream extends AudioInputStream {
         private final ExecutorService executor = Executors.newSingleThreadExecutor(NSFOutputEngine::maxThreadFactory);
 
         /** */
-        public NSFOutputEngine(InputStream in, Map<String, Object> props) throws IOException {
+        public NSFOutputEngine(InputStream in, int channels, Map<String, Object> props) throws IOException {
             this.props = props;
+            this.channels = channels;
 
             byte[] buffer = in.readAllBytes();
             this.nsf = (Nsf) Nsf.load(buffer, buffer.length);
@@ -101,15 +114,39 @@ logger.log(Level.TRACE, "Total Songs: " + nsf.totalSongs + ", Starting Song: " +
             nsf.disable(0);
 
             nsf.setVolume(100);
-            nsf.setLowPass(false, 0, 0);
+            int corner = props.containsKey("lowPass") ? (int) props.get("lowPass") : 0;
+            int order = props.containsKey("lowPassOrder") ? (int) props.get("lowPassOrder") : 2;
+            nsf.setLowPass(corner > 0, corner, order);
+            fixedPoint = props.containsKey("fixedPoint") && (boolean) props.get("fixedPoint");
+            nsf.setFixedPoint(fixedPoint);
+            nsf.setParallel(props.containsKey("parallel") && (boolean) props.get("parallel"));
+            nsf.setOutChannels(channels);
+            String[] gains = props.containsKey("gains") ? ((String) props.get("gains")).split(",") : new String[0];
+            String[] pans = props.containsKey("pans") ? ((String) props.get("pans")).split(",") : new String[0];
+            for (int c = 0; c < Math.min(Math.max(gains.length, pans.length), nsf.totalChannels); c++) {
+                float gain = c < gains.length ? Float.parseFloat(gains[c].trim()) : 1;
+                float pan = c < pans.length ? Float.parseFloat(pans[c].trim()) : 0;
+                nsf.setMixer(c, gain, pan);
+            }
         }
 
         @Override
         public void execute() throws IOException {
             int[] r = new int[1];
+            if (fixedPoint) {
+                short[] wave = nsf.emulate16(r);
+                if (r[0] > 0) {
+                    ByteBuffer bb = ByteBuffer.allocate(2 * r[0] * channels).order(ByteOrder.LITTLE_ENDIAN);
+                    bb.asShortBuffer().put(wave, 0, r[0] * channels);
+                    out.write(bb.array());
+                } else {
+                    out.close();
+                }
+                return;
+            }
             float[] wave = nsf.emulate(r);
             if (r[0] > 0) {
-                int validSamples = r[0];
+                int validSamples = r[0] * channels;
                 if (wave != null) {
 
                     ByteBuffer bb = ByteBuffer.allocate(2 * validSamples).order(ByteOrder.LITTLE_ENDIAN);
@@ -59,13 +59,17 @@ logger.log(Level.TRACE, "vavi.sound.sampled.nsf.festalon: " + festalon);
     @Override
     public AudioFormat[] getTargetFormats(AudioFormat.Encoding targetEncoding, AudioFormat sourceFormat) {
         if (sourceFormat.getEncoding() instanceof NsfEncoding && targetEncoding.equals(PCM_SIGNED)) {
-            return new AudioFormat[] {
-                new AudioFormat(sourceFormat.getSampleRate(),
+            AudioFormat format = new AudioFormat(sourceFormat.getSampleRate(),
                                 16,             // sample size in bits
                                 sourceFormat.getChannels(),
                                 true,                  // signed
-                                false)                        // little endian (for PCM wav)
-            };
+                                false);                       // little endian (for PCM wav)
+            if (festalon && sourceFormat.getChannels() == 1) {
+                // panned by the mixer
+                return new AudioFormat[] { format, new AudioFormat(sourceFormat.getSampleRate(), 16, 2, true, false) };
+            } else {
+                return new AudioFormat[] { format };
+            }
         } else {
             return new AudioFormat[0];
         }
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import vavi.sound.nsf.festalon.ext.Ay;
+import vavi.sound.nsf.festalon.ext.Fds;
+import vavi.sound.nsf.festalon.ext.Mmc5;
+import vavi.sound.nsf.festalon.ext.N106;
+import vavi.sound.nsf.festalon.ext.Vrc6;
+import vavi.sound.nsf.festalon.ext.Vrc7;
+import vavi.util.Debug;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * ExpSoundTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+class ExpSoundTest {
+
+    static final int CYCLES = 30000;
+
+    /** @return the chip on a cpu of its own, the registers written at 0 */
+    static ExpSound chip(Function<NesApu, ExpSound> factory, int... writes) {
+        X6502 cpu = new X6502(new byte[0x800], false, null);
+        cpu.power();
+        ExpSound exp = factory.apply(new NesApu(cpu));
+        for (int i = 0; i < writes.length; i += 2) {
+            cpu.writeDm(writes[i], writes[i + 1]);
+        }
+        return exp;
+    }
+
+    /** @return writes of a half high square to the fds wave ram, then the registers */
+    static int[] fds(int... writes) {
+        return IntStream.concat(IntStream.concat(IntStream.of(0x4089, 0x80),
+                IntStream.range(0, 64).flatMap(i -> IntStream.of(0x4040 + i, i < 32 ? 0x3f : 0))),
+                IntStream.of(writes)).toArray();
+    }
+
+    /** @return [channel][cycle] levels, rendered by the spans, the next changes checked */
+    static int[][] render(ExpSound exp, int[] ends) {
+        return render(exp, ends, null);
+    }
+
+    /**
+     * @param between writes the registers at the end of every span, null for none
+     * @return [channel][cycle] levels, rendered by the spans, the next changes checked
+     */
+    static int[][] render(ExpSound exp, int[] ends, IntConsumer between) {
+        int[][] out = new int[exp.channels][CYCLES];
+        int time = 0;
+        int next = 0;
+        for (int end : ends) {
+            int from = time;
+            int last = next;
+            next = exp.render(end, (e, channel, t, level) -> {
+                assertTrue(t >= from && t < end, "time " + t);
+                // nothing changes before the next given by the last span
+                assertTrue(t >= last || level == out[channel][t], e.getClass().getSimpleName() + " " + channel + " changed at " + t + " before " + last + " from " + from);
+                Arrays.fill(out[channel], t, CYCLES, level);
+            });
+            assertTrue(next >= end);
+            time = end;
+            if (between != null) {
+                between.accept(end);
+                // the next holds until a register write
+                next = end;
+            }
+        }
+        return out;
+    }
+
+    /** a span is the same as the spans in it at any points */
+    @Test
+    void testSpans() throws Exception {
+        Random random = new Random(0);
+        for (Object[] setup : new Object[][] {
+            {(Function<NesApu, ExpSound>) Vrc6::new, new int[] {0x9000, 0x3f, 0x9001, 0x80, 0x9002, 0x80, 0xa000, 0x5a, 0xa001, 0x40, 0xa002, 0x81, 0xb000, 0x20, 0xb001, 0x30, 0xb002, 0x80}},
+            {(Function<NesApu, ExpSound>) Mmc5::new, new int[] {0x5015, 0x03, 0x5000, 0xbf, 0x5002, 0x40, 0x5003, 0x01, 0x5004, 0x7a, 0x5006, 0x80, 0x5007, 0x00, 0x5011, 0x90}},
+            {(Function<NesApu, ExpSound>) Ay::new, new int[] {0xc000, 0, 0xe000, 0x80, 0xc000, 2, 0xe000, 0x33, 0xc000, 4, 0xe000, 0x11, 0xc000, 7, 0xe000, 0, 0xc000, 8, 0xe000, 0x0f, 0xc000, 9, 0xe000, 0x0a, 0xc000, 10, 0xe000, 0x08}},
+            {(Function<NesApu, ExpSound>) N106::new, new int[] {0xf800, 0x80, 0x4800, 0x21, 0x4800, 0x43, 0x4800, 0x65, 0x4800, 0x87, 0xf800, 0xf8, 0x4800, 0x40, 0x4800, 0, 0x4800, 0x02, 0x4800, 0, 0x4800, 0xf8, 0x4800, 0, 0x4800, 0, 0x4800, 0x0f}},
+            // the volume envelope goes up, the modulation is off
+            {(Function<NesApu, ExpSound>) Fds::new, fds(0x4089, 0x00, 0x4080, 0x40, 0x408a, 0x01, 0x4082, 0x40, 0x4083, 0x01, 0x4087, 0x80)},
+            // two channels, the opll runs at 1/36 of the cpu
+            {(Function<NesApu, ExpSound>) Vrc7::new, new int[] {0x9010, 0x10, 0x9030, 0x80, 0x9010, 0x30, 0x9030, 0x30, 0x9010, 0x20, 0x9030, 0x18, 0x9010, 0x11, 0x9030, 0x40, 0x9010, 0x31, 0x9030, 0x72, 0x9010, 0x21, 0x9030, 0x1a}},
+        }) {
+            @SuppressWarnings("unchecked")
+            Function<NesApu, ExpSound> factory = (Function<NesApu, ExpSound>) setup[0];
+            int[] levels = assertSpans(random, factory, (int[]) setup[1]);
+            assertTrue(Arrays.stream(levels).distinct().count() > 2);
+        }
+    }
+
+    /** the fds keeps no levels but the first while its wave ram is written */
+    @Test
+    void testSpansFdsMuted() throws Exception {
+        int[] levels = assertSpans(new Random(0), Fds::new, fds(0x4080, 0xa0, 0x4082, 0x40, 0x4083, 0x01, 0x4087, 0x80));
+        assertTrue(Arrays.stream(levels).allMatch(l -> l == 0));
+    }
+
+    /** @return the levels of all the channels rendered by a span, the same as by random spans */
+    static int[] assertSpans(Random random, Function<NesApu, ExpSound> factory, int[] writes) {
+        ExpSound exp = chip(factory, writes);
+        int[][] expected = render(exp, new int[] {CYCLES});
+
+        int[] ends = random.ints(200, 1, CYCLES).sorted().distinct().toArray();
+        ends = Arrays.copyOf(ends, ends.length + 1);
+        ends[ends.length - 1] = CYCLES;
+        int[][] actual = render(chip(factory, writes), ends);
+        for (int c = 0; c < expected.length; c++) {
+            assertArrayEquals(expected[c], actual[c], exp.getClass().getSimpleName() + " channel " + c);
+        }
+        return Arrays.stream(expected).flatMapToInt(Arrays::stream).toArray();
+    }
+
+    /** the n106 decoding the nibbles from the ram at every step, as before the waves were kept decoded */
+    static final class N106Reference {
+        final byte[] ram = new byte[128];
+        final int[] playIndex = new int[8];
+        final int[] vCount = new int[8];
+        /** [channel][cycle] */
+        final int[][] out = new int[8][CYCLES];
+        int time;
+
+        /** writes the ram of the chip too */
+        void write(X6502 cpu, int address, int value) {
+            cpu.writeDm(0xf800, address);
+            cpu.writeDm(0x4800, value);
+            ram[address] = (byte) value;
+        }
+
+        /** the sample at the play index */
+        int sample(int P, int index) {
+            int n = ((ram[0x46 + (P << 3)] & 0xff) + (index >> 17)) & 0xff;
+            int envelope = (int) ((double) (ram[0x47 + (P << 3)] & 0xf) * 576716);
+            return (((ram[n >> 1] >> ((n & 1) << 2)) & 0xf) * envelope) >> 16;
+        }
+
+        void render(int end) {
+            int count = (ram[0x7f] >> 4) & 7;
+            int cyclesuck = (count + 1) * 15;
+            for (int P = 0; P < 8; P++) {
+                int base = 0x40 + (P << 3);
+                if (P < 7 - count || (ram[base + 4] & 0xe0) == 0 || (ram[base + 7] & 0xf) == 0) {
+                    Arrays.fill(out[P], time, end, 0);
+                    continue;
+                }
+                int freq = (ram[base] & 0xff) | (ram[base + 2] & 0xff) << 8 | (ram[base + 4] & 3) << 16;
+                int length = (8 - ((ram[base + 4] >> 2) & 7)) << 2;
+                int index = playIndex[P];
+                int vco = vCount[P];
+                int duff = sample(P, index);
+                for (int V = time; V < end; V++) {
+                    int level = duff;
+                    for (int half = 0; half < 2; half++) {
+                        if (vco == 0) {
+                            index += freq;
+                            while ((index >> 17) >= length) {
+                                index -= length << 17;
+                            }
+                            duff = sample(P, index);
+                            vco = cyclesuck;
+                        }
+                        vco--;
+                        if (half == 0) {
+                            level += duff;
+                        }
+                    }
+                    out[P][V] = level;
+                }
+                playIndex[P] = index;
+                vCount[P] = vco;
+            }
+            time = end;
+        }
+    }
+
+    /**
+     * the n106 keeps its waves decoded, they must follow the ram written while
+     * playing, in and out of the windows of the waves, and their wave addresses
+     * and volumes.
+     */
+    @Test
+    void testN106Rewritten() throws Exception {
+        Random random = new Random(0);
+        X6502 cpu = new X6502(new byte[0x800], false, null);
+        cpu.power();
+        N106 n106 = new N106(new NesApu(cpu));
+        N106Reference reference = new N106Reference();
+
+        for (int a = 0; a < 0x40; a++) {
+            reference.write(cpu, a, random.nextInt(256));
+        }
+        // the last 4 channels, all lengths but the longest on the first
+        for (int P = 4; P < 8; P++) {
+            int base = 0x40 + (P << 3);
+            reference.write(cpu, base, random.nextInt(256));
+            reference.write(cpu, base + 2, 1 + random.nextInt(3));
+            reference.write(cpu, base + 4, 0xe0 | (P == 4 ? 0 : random.nextInt(8) << 2));
+            reference.write(cpu, base + 6, random.nextInt(256));
+            reference.write(cpu, base + 7, (P == 7 ? 0x30 : 0) | (1 + random.nextInt(15)));
+        }
+
+        int[] writes = new int[4];
+        IntConsumer write = end -> {
+            reference.render(end);
+            int P = 4 + random.nextInt(4);
+            int base = 0x40 + (P << 3);
+            int kind = random.nextInt(4);
+            writes[kind]++;
+            switch (kind) {
+            case 0 -> { // in the window
+                int wave = reference.ram[base + 6] & 0xff;
+                reference.write(cpu, ((wave + random.nextInt(32)) & 0xff) >> 1, random.nextInt(256));
+            }
+            case 1 -> { // out of the window
+                int wave = reference.ram[base + 6] & 0xff;
+                int a;
+                do {
+                    a = random.nextInt(0x40);
+                } while (((a << 1) - wave & 0xff) < 32 || ((a << 1) + 1 - wave & 0xff) < 32);
+                reference.write(cpu, a, random.nextInt(256));
+            }
+            case 2 -> reference.write(cpu, base + 6, random.nextInt(256));
+            case 3 -> reference.write(cpu, base + 7, (P == 7 ? 0x30 : 0) | random.nextInt(16));
+            }
+        };
+
+        int[] ends = random.ints(400, 1, CYCLES).sorted().distinct().toArray();
+        ends = Arrays.copyOf(ends, ends.length + 1);
+        ends[ends.length - 1] = CYCLES;
+        int[][] actual = render(n106, ends, write);
+        for (int P = 0; P < 8; P++) {
+            assertArrayEquals(reference.out[P], actual[P], "channel " + P);
+        }
+Debug.println("writes: " + Arrays.toString(writes));
+        for (int P = 4; P < 8; P++) {
+            assertTrue(Arrays.stream(actual[P]).distinct().count() > 2, "channel " + P);
+        }
+    }
+}
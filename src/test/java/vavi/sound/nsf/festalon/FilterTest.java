@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import vavi.util.Debug;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+
+/**
+ * FilterTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+class FilterTest {
+
+    static final String in = "src/test/resources/test.nsf";
+
+    /** @return samples of the frames */
+    static float[] render(int rate, Consumer<Nsf> mode, int frames) throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        Nsf nsf = (Nsf) Nsf.load(buffer, buffer.length);
+        nsf.controlSong(0);
+        nsf.setSound(rate, 1);
+        nsf.disable(0);
+        nsf.setVolume(100);
+        nsf.setLowPass(false, 0, 0);
+        mode.accept(nsf);
+
+        float[] samples = new float[rate / 60 * 2 * frames];
+        int n = 0;
+        int[] r = new int[1];
+        for (int i = 0; i < frames; i++) {
+            float[] w = nsf.emulate(r);
+            System.arraycopy(w, 0, samples, n, r[0]);
+            n += r[0];
+        }
+        return Arrays.copyOf(samples, n);
+    }
+
+    /**
+     * octave band levels up to 10kHz within 0.5dB of the decimating fir, above
+     * that they differ by the aliasing and the roll off of the linear interpolation.
+     */
+    @Test
+    void testPolyphaseSpectrum() throws Exception {
+        int rate = 44100;
+        int n = 4096;
+        double[] fir = NesApuTest.spectrum(render(rate, nsf -> {}, 600), n);
+        for (int quality = 0; quality <= 2; quality++) {
+            int q = quality;
+            double[] polyphase = NesApuTest.spectrum(render(rate, nsf -> nsf.setPolyphase(true, q), 600), n);
+            for (double low = 20; low < 10000; low *= 2) {
+                double a = 0;
+                double b = 0;
+                for (int k = 0; k < n / 2; k++) {
+                    double f = (double) k * rate / n;
+                    if (f >= low && f < low * 2) {
+                        a += fir[k];
+                        b += polyphase[k];
+                    }
+                }
+                double diff = 10 * Math.log10(b / a);
+Debug.println("quality %d, %5.0f Hz: %5.2f dB".formatted(quality, low, diff));
+                assertEquals(0, diff, 0.5);
+            }
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "vavi.test", matches = "true")
+    void benchmarkPolyphase() throws Exception {
+        for (int rate : new int[] {44100, 48000, 96000}) {
+            for (int i = 0; i < 3; i++) {
+                long t0 = System.nanoTime();
+                render(rate, nsf -> {}, 1200);
+                long t1 = System.nanoTime();
+                render(rate, nsf -> nsf.setPolyphase(true, 0), 1200);
+                long t2 = System.nanoTime();
+                render(rate, nsf -> nsf.setPolyphase(true, 2), 1200);
+                long t3 = System.nanoTime();
+Debug.println("%d Hz: fir: %d ms, polyphase 0: %d ms, polyphase 2: %d ms".formatted(rate, (t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000, (t3 - t2) / 1_000_000));
+            }
+        }
+    }
+
+    /** @return octave band levels from 20Hz */
+    static double[] bands(float[] samples, int rate) {
+        int n = 4096;
+        double[] power = NesApuTest.spectrum(samples, n);
+        double[] bands = new double[10];
+        for (int k = 0; k < n / 2; k++) {
+            double f = (double) k * rate / n;
+            int band = (int) Math.floor(Math.log(f / 20) / Math.log(2));
+            if (band >= 0 && band < bands.length) {
+                bands[band] += power[k];
+            }
+        }
+        return bands;
+    }
+
+    /** the low pass runs on every path, passes the bass and cuts the treble */
+    @Test
+    void testLowPass() throws Exception {
+        int rate = 44100;
+        double[] off = bands(render(rate, nsf -> {}, 300), rate);
+        for (Consumer<Nsf> mode : List.<Consumer<Nsf>>of(
+                nsf -> {},
+                nsf -> nsf.setPolyphase(true, 1),
+                nsf -> nsf.setBlep(true))) {
+            double[] on = bands(render(rate, mode.andThen(nsf -> assertEquals(1, nsf.setLowPass(true, 1000, 4))), 300), rate);
+            for (int band = 0; band < on.length; band++) {
+                double diff = 10 * Math.log10(on[band] / off[band]);
+Debug.println("%5d Hz: %6.2f dB".formatted(20 << band, diff));
+                if (band < 4) { // up to 320Hz
+                    assertEquals(0, diff, 0.5);
+                } else if (band >= 7) { // from 2560Hz
+                    assertTrue(diff < -20);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testLowPassOutOfRange() throws Exception {
+        Filter filter = new Filter(44100, X6502.NTSC_CPU, false, 1);
+        assertEquals(0, filter.setLowPass(true, 30000, 2));
+        assertEquals(0, filter.setLowPass(true, 5000, 0));
+        assertEquals(1, filter.setLowPass(true, 5000, 2));
+        assertEquals(1, filter.setLowPass(false, 0, 0));
+    }
+
+    /** @return the emulator for 16 bit pcm or floats */
+    static Nsf load(int rate, int quality, boolean fixedPoint) throws Exception {
+        return load(Files.readAllBytes(Path.of(in)), rate, quality, fixedPoint);
+    }
+
+    /** @return the emulator of the nsf for 16 bit pcm or floats */
+    static Nsf load(byte[] buffer, int rate, int quality, boolean fixedPoint) throws Exception {
+        Nsf nsf = (Nsf) Nsf.load(buffer, buffer.length);
+        nsf.controlSong(0);
+        nsf.setSound(rate, quality);
+        nsf.disable(0);
+        nsf.setVolume(100);
+        nsf.setLowPass(false, 0, 0);
+        nsf.setFixedPoint(fixedPoint);
+        return nsf;
+    }
+
+    /** @return the max difference of the fixed point pcm from the float one converted as the spi does */
+    static int fixedPointError(byte[] buffer, int rate, int quality, int frames) throws Exception {
+        Nsf nsf0 = load(buffer, rate, quality, false);
+        Nsf nsf1 = load(buffer, rate, quality, true);
+        int[] r0 = new int[1];
+        int[] r1 = new int[1];
+        int max = 0;
+        for (int i = 0; i < frames; i++) {
+            float[] w0 = nsf0.emulate(r0);
+            short[] w1 = nsf1.emulate16(r1);
+            assertEquals(r0[0], r1[0]);
+            for (int j = 0; j < r0[0]; j++) {
+                max = Math.max(max, Math.abs((short) ((w0[j] - 0.5f) * 65535) - w1[j]));
+            }
+        }
+        return max;
+    }
+
+    /** the fixed point pcm is the float one within 4 lsb (measured 3) */
+    @Test
+    void testFixedPoint() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        for (int rate : new int[] {44100, 96000}) {
+            for (int quality = 0; quality <= 1; quality++) {
+                int max = fixedPointError(buffer, rate, quality, 300);
+Debug.println("%d Hz, quality %d: max %d".formatted(rate, quality, max));
+                assertTrue(max <= 4);
+            }
+        }
+    }
+
+    /** the expansion sounds go over 32767, the vrc7 alone is biased by 24576, within 4 lsb (measured 3) */
+    @Test
+    void testFixedPointExpansion() throws Exception {
+        byte[] buffer = NesApuTest.chips();
+        for (int quality = 0; quality <= 1; quality++) {
+            int max = fixedPointError(buffer, 44100, quality, 600);
+Debug.println("quality %d: max %d".formatted(quality, max));
+            assertTrue(max <= 4);
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "vavi.test", matches = "true")
+    void benchmarkFixedPoint() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            long t0 = System.nanoTime();
+            Nsf nsf = load(44100, 1, false);
+            int[] r = new int[1];
+            for (int j = 0; j < 1200; j++) {
+                float[] w = nsf.emulate(r);
+                short[] pcm = new short[r[0]];
+                for (int k = 0; k < r[0]; k++) {
+                    pcm[k] = (short) ((w[k] - 0.5f) * 65535);
+                }
+            }
+            long t1 = System.nanoTime();
+            nsf = load(44100, 1, true);
+            for (int j = 0; j < 1200; j++) {
+                nsf.emulate16(r);
+            }
+            long t2 = System.nanoTime();
+Debug.println("float: %d ms, fixed point: %d ms".formatted((t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000));
+        }
+    }
+
+    /** needs {@code --add-modules jdk.incubator.vector} */
+    static FilterKernel vectorKernel() {
+        FilterKernel kernel = FilterKernel.getInstance();
+        assumeTrue(kernel.getClass() != FilterKernel.class, "no vector api");
+        return kernel;
+    }
+
+    /** the vector dot product differs only by the rounding of the additions */
+    @Test
+    void testVectorDot() throws Exception {
+        FilterKernel scalar = new FilterKernel();
+        FilterKernel vector = vectorKernel();
+        Random random = new Random(0);
+        float[] in = new float[4096];
+        float[] coeffs = new float[Filter.NCOEFFS];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = random.nextFloat() * 32767;
+        }
+        for (int i = 0; i < coeffs.length; i++) {
+            coeffs[i] = (float) random.nextGaussian() / 64;
+        }
+        for (int offset = 0; offset + Filter.NCOEFFS <= in.length; offset += 31) {
+            for (int length : new int[] {128, 256, 510, Filter.NCOEFFS}) {
+                double magnitude = 0;
+                for (int c = 0; c < length; c++) {
+                    magnitude += Math.abs(in[offset + c] * coeffs[c]);
+                }
+                assertEquals(scalar.dot(in, offset, coeffs, length), vector.dot(in, offset, coeffs, length), magnitude * 1e-6);
+            }
+        }
+
+        // exact for shorts
+        short[] in16 = new short[in.length];
+        short[] coeffs16 = new short[coeffs.length];
+        for (int i = 0; i < in16.length; i++) {
+            in16[i] = (short) (in[i] - 16384);
+        }
+        for (int i = 0; i < coeffs16.length; i++) {
+            coeffs16[i] = (short) (coeffs[i] * 65536);
+        }
+        for (int offset = 0; offset + Filter.NCOEFFS <= in.length; offset += 31) {
+            for (int length : new int[] {128, 256, 510, Filter.NCOEFFS}) {
+                assertEquals(scalar.dot(in16, offset, coeffs16, length), vector.dot(in16, offset, coeffs16, length));
+            }
+        }
+    }
+
+    @Test
+    void testVectorNormalize() throws Exception {
+        FilterKernel vector = vectorKernel();
+        Random random = new Random(0);
+        for (int count : new int[] {0, 1, 15, 16, 17, 735, 1600}) {
+            float[] expected = new float[count];
+            for (int i = 0; i < count; i++) {
+                expected[i] = (random.nextFloat() - 0.5f) * 80000;
+            }
+            float[] actual = expected.clone();
+            new FilterKernel().normalize(expected, count);
+            vector.normalize(actual, count);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "vavi.test", matches = "true")
+    void benchmarkKernel() throws Exception {
+        float[] in = new float[65536];
+        float[] coeffs = new float[Filter.NCOEFFS];
+        Arrays.fill(in, 1);
+        Arrays.fill(coeffs, 1f / Filter.NCOEFFS);
+        for (FilterKernel kernel : new FilterKernel[] {new FilterKernel(), FilterKernel.getInstance()}) {
+            for (int i = 0; i < 5; i++) {
+                float sum = 0;
+                long t0 = System.nanoTime();
+                for (int r = 0; r < 20; r++) {
+                    for (int x = 0; x + Filter.NCOEFFS <= in.length; x += 16) {
+                        sum += kernel.dot(in, x, coeffs, Filter.NCOEFFS);
+                    }
+                }
+                long t1 = System.nanoTime();
+                long taps = 20L * ((in.length - Filter.NCOEFFS) / 16 + 1) * Filter.NCOEFFS;
+Debug.println("%s: %.0f Mtaps/s (%.0f)".formatted(kernel, taps * 1e3 / (t1 - t0), sum));
+            }
+        }
+    }
+}
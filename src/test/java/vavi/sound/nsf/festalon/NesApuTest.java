@@ -0,0 +1,592 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import vavi.util.Debug;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * NesApuTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+class NesApuTest {
+
+    static final String in = "src/test/resources/test.nsf";
+
+    static final int rate = 44100;
+
+    /** @return samples of the frames */
+    static float[] render(int song, boolean blep, int frames) throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        Nsf nsf = (Nsf) Nsf.load(buffer, buffer.length);
+        nsf.controlSong(song);
+        nsf.setSound(rate, 1);
+        nsf.disable(0);
+        nsf.setVolume(100);
+        nsf.setLowPass(false, 0, 0);
+        nsf.setBlep(blep);
+
+        float[] samples = new float[rate / 60 * 2 * frames];
+        int n = 0;
+        int[] r = new int[1];
+        for (int i = 0; i < frames; i++) {
+            float[] w = nsf.emulate(r);
+            System.arraycopy(w, 0, samples, n, r[0]);
+            n += r[0];
+        }
+        return Arrays.copyOf(samples, n);
+    }
+
+    /** @return power spectrum by averaging hann windowed ffts */
+    static double[] spectrum(float[] x, int n) {
+        double[] power = new double[n / 2];
+        double[] re = new double[n];
+        double[] im = new double[n];
+        for (int o = 0; o + n <= x.length; o += n / 2) {
+            for (int i = 0; i < n; i++) {
+                re[i] = (x[o + i] - 0.5) * (0.5 - 0.5 * Math.cos(2 * Math.PI * i / n));
+                im[i] = 0;
+            }
+            fft(re, im);
+            for (int k = 0; k < n / 2; k++) {
+                power[k] += re[k] * re[k] + im[k] * im[k];
+            }
+        }
+        return power;
+    }
+
+    /** radix 2, in place */
+    static void fft(double[] re, double[] im) {
+        int n = re.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+        for (int len = 2; len <= n; len <<= 1) {
+            for (int i = 0; i < n; i += len) {
+                for (int j = 0; j < len / 2; j++) {
+                    double c = Math.cos(-2 * Math.PI * j / len);
+                    double s = Math.sin(-2 * Math.PI * j / len);
+                    int k = i + j + len / 2;
+                    double vr = re[k] * c - im[k] * s;
+                    double vi = re[k] * s + im[k] * c;
+                    re[k] = re[i + j] - vr;
+                    im[k] = im[i + j] - vi;
+                    re[i + j] += vr;
+                    im[i + j] += vi;
+                }
+            }
+        }
+    }
+
+    /**
+     * the tolerance of band limited steps: octave band levels up to 20kHz within 1dB
+     * of the fir (measured within 0.4dB), above that the fir aliases about 30dB more.
+     */
+    @Test
+    void testBlepSpectrum() throws Exception {
+        int n = 4096;
+        double[] fir = spectrum(render(0, false, 600), n);
+        double[] blep = spectrum(render(0, true, 600), n);
+        for (double low = 20; low < 20000; low *= 2) {
+            double a = 0;
+            double b = 0;
+            for (int k = 0; k < n / 2; k++) {
+                double f = (double) k * rate / n;
+                if (f >= low && f < low * 2) {
+                    a += fir[k];
+                    b += blep[k];
+                }
+            }
+            double diff = 10 * Math.log10(b / a);
+Debug.println("%5.0f Hz: %5.2f dB".formatted(low, diff));
+            assertEquals(0, diff, 1);
+        }
+    }
+
+    /** the hook sees every cpu cycle once, and does not change the output */
+    @Test
+    void testMetricsListener() throws Exception {
+        float[] expected = render(0, false, 120);
+
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        Nsf nsf = (Nsf) Nsf.load(buffer, buffer.length);
+        nsf.controlSong(0);
+        nsf.setSound(rate, 1);
+        nsf.disable(0);
+        nsf.setVolume(100);
+        nsf.setLowPass(false, 0, 0);
+        double[] sumSq = new double[1];
+        long[] cycles = new long[1];
+        nsf.setMetricsListener((wave, from, to) -> {
+            for (int i = from; i < to; i++) {
+                sumSq[0] += wave[i] * wave[i];
+            }
+            cycles[0] += to - from;
+        });
+
+        float[] actual = new float[expected.length];
+        int n = 0;
+        int[] r = new int[1];
+        for (int i = 0; i < 120; i++) {
+            float[] w = nsf.emulate(r);
+            System.arraycopy(w, 0, actual, n, r[0]);
+            n += r[0];
+        }
+        assertArrayEquals(expected, actual);
+        assertEquals(120 * 262 * 341 / 3, cycles[0], 120);
+Debug.println("rms: " + Math.sqrt(sumSq[0] / cycles[0]));
+        assertTrue(sumSq[0] > 0);
+    }
+
+    /** @return the emulator of the nsf as {@link #render} */
+    static Nsf load(byte[] buffer) throws Exception {
+        Nsf nsf = (Nsf) Nsf.load(buffer, buffer.length);
+        nsf.controlSong(0);
+        nsf.setSound(rate, 1);
+        nsf.disable(0);
+        nsf.setVolume(100);
+        nsf.setLowPass(false, 0, 0);
+        return nsf;
+    }
+
+    /**
+     * a stem is the same as the channel soloed by disabling the others, in one emulation.
+     * the vrc7 adds its offset even if all disabled, so it is tested alone.
+     */
+    @Test
+    void testStems() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        int frames = 30;
+        // the expansion sounds are not played but the offsets
+        for (int chips : new int[] {0x3d, 0x02}) {
+            buffer[0x7b] = (byte) chips;
+
+            Nsf nsf = load(buffer);
+            nsf.setStems(true);
+            float[][] stems = new float[nsf.totalChannels][rate / 60 * 2 * frames];
+            int n = 0;
+            int[] r = new int[1];
+            for (int i = 0; i < frames; i++) {
+                float[][] w = nsf.emulateStems(r);
+                assertEquals(nsf.totalChannels, w.length);
+                for (int c = 0; c < w.length; c++) {
+                    System.arraycopy(w[c], 0, stems[c], n, r[0]);
+                }
+                n += r[0];
+            }
+
+            for (int c = chips == 0x02 ? 5 : 0; c < nsf.totalChannels; c++) {
+                Nsf solo = load(buffer);
+                solo.disable(~(1 << c));
+                int m = 0;
+                for (int i = 0; i < frames; i++) {
+                    float[] w = solo.emulate(r);
+                    assertArrayEquals(Arrays.copyOfRange(stems[c], m, m + r[0]), Arrays.copyOf(w, r[0]), "channel " + c);
+                    m += r[0];
+                }
+                assertEquals(n, m);
+            }
+        }
+    }
+
+    /** {@link #testStems()} in fixed point */
+    @Test
+    void testStems16() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        int frames = 30;
+        for (int chips : new int[] {0x3d, 0x02}) {
+            buffer[0x7b] = (byte) chips;
+
+            Nsf nsf = load(buffer);
+            nsf.setFixedPoint(true);
+            nsf.setStems(true);
+            short[][] stems = new short[nsf.totalChannels][rate / 60 * 2 * frames];
+            int n = 0;
+            int[] r = new int[1];
+            for (int i = 0; i < frames; i++) {
+                short[][] w = nsf.emulateStems16(r);
+                assertEquals(nsf.totalChannels, w.length);
+                for (int c = 0; c < w.length; c++) {
+                    System.arraycopy(w[c], 0, stems[c], n, r[0]);
+                }
+                n += r[0];
+            }
+
+            boolean sounds = false;
+            for (int c = chips == 0x02 ? 5 : 0; c < nsf.totalChannels; c++) {
+                Nsf solo = load(buffer);
+                solo.setFixedPoint(true);
+                solo.disable(~(1 << c));
+                int m = 0;
+                for (int i = 0; i < frames; i++) {
+                    short[] w = solo.emulate16(r);
+                    assertArrayEquals(Arrays.copyOfRange(stems[c], m, m + r[0]), Arrays.copyOf(w, r[0]), "channel " + c);
+                    m += r[0];
+                }
+                assertEquals(n, m);
+                for (int i = 1; i < n; i++) {
+                    sounds |= stems[c][i] != stems[c][0];
+                }
+            }
+            assertTrue(sounds);
+        }
+    }
+
+    /** @return interleaved frames, the mixer set by the setup */
+    static float[] renderStereo(byte[] buffer, int frames, Consumer<Nsf> setup) throws Exception {
+        Nsf nsf = load(buffer);
+        nsf.setOutChannels(2);
+        setup.accept(nsf);
+        float[] samples = new float[rate / 60 * 2 * frames * 2];
+        int n = 0;
+        int[] r = new int[1];
+        for (int i = 0; i < frames; i++) {
+            float[] w = nsf.emulate(r);
+            System.arraycopy(w, 0, samples, n, r[0] * 2);
+            n += r[0] * 2;
+        }
+        return Arrays.copyOf(samples, n);
+    }
+
+    /**
+     * the center is the same as mono on both sides, also by the buses with the same settings,
+     * a channel panned hard left is not in the right.
+     */
+    @Test
+    void testStereo() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        int frames = 60;
+        float[] mono = render(0, false, frames);
+
+        float[] stereo = renderStereo(buffer, frames, nsf -> {});
+        assertEquals(mono.length * 2, stereo.length);
+        for (int i = 0; i < mono.length; i++) {
+            assertEquals(mono[i], stereo[i * 2]);
+            assertEquals(mono[i], stereo[i * 2 + 1]);
+        }
+
+        // all in one bus, the left is halved around the center
+        float center = 32767f / 65535;
+        stereo = renderStereo(buffer, frames, nsf -> {
+            for (int c = 0; c < 5; c++) {
+                nsf.setMixer(c, 1, 0.5f);
+            }
+        });
+        for (int i = 0; i < mono.length; i++) {
+            assertEquals(center + (mono[i] - center) / 2, stereo[i * 2], 1e-6);
+            assertEquals(mono[i], stereo[i * 2 + 1], 1e-6);
+        }
+
+        // square 1 hard left, the others muted
+        stereo = renderStereo(buffer, frames, nsf -> {
+            nsf.setMixer(0, 1, -1);
+            for (int c = 1; c < 5; c++) {
+                nsf.setMixer(c, 0, 0);
+            }
+        });
+        double left = 0;
+        double right = 0;
+        for (int i = 0; i < stereo.length; i += 2) {
+            left += (stereo[i] - center) * (stereo[i] - center);
+            right += (stereo[i + 1] - center) * (stereo[i + 1] - center);
+        }
+Debug.println("left: %f, right: %f".formatted(left, right));
+        assertTrue(left > 0);
+        assertEquals(0, right, 1e-9);
+    }
+
+    /** @return interleaved 16 bit frames in fixed point, the mixer set by the setup */
+    static short[] renderStereo16(byte[] buffer, int channels, int frames, Consumer<Nsf> setup) throws Exception {
+        Nsf nsf = load(buffer);
+        nsf.setFixedPoint(true);
+        nsf.setOutChannels(channels);
+        setup.accept(nsf);
+        short[] samples = new short[rate / 60 * 2 * frames * channels];
+        int n = 0;
+        int[] r = new int[1];
+        for (int i = 0; i < frames; i++) {
+            short[] w = nsf.emulate16(r);
+            System.arraycopy(w, 0, samples, n, r[0] * channels);
+            n += r[0] * channels;
+        }
+        return Arrays.copyOf(samples, n);
+    }
+
+    /** the buses in fixed point, with the expansion sounds */
+    @Test
+    void testStereoFixedPoint() throws Exception {
+        byte[] buffer = chips();
+        int frames = 60;
+        short[] mono = renderStereo16(buffer, 1, frames, nsf -> {});
+
+        // all in one bus, the left is halved
+        short[] stereo = renderStereo16(buffer, 2, frames, nsf -> {
+            for (int c = 0; c < nsf.totalChannels; c++) {
+                nsf.setMixer(c, 1, 0.5f);
+            }
+        });
+        assertEquals(mono.length * 2, stereo.length);
+        for (int i = 0; i < mono.length; i++) {
+            assertEquals((short) (mono[i] * 0.5f), stereo[i * 2]);
+            assertEquals(mono[i], stereo[i * 2 + 1]);
+        }
+
+        // the first of the vrc6 hard left
+        stereo = renderStereo16(buffer, 2, frames, nsf -> nsf.setMixer(5, 1, -1));
+        int differ = 0;
+        for (int i = 0; i < stereo.length; i += 2) {
+            if (stereo[i] != stereo[i + 1]) {
+                differ++;
+            }
+        }
+Debug.println("differ: " + differ + "/" + stereo.length / 2);
+        assertTrue(differ > 0);
+    }
+
+    /**
+     * the band limited steps are kept as requested after the buses are gone, and
+     * the settings between the frames do not clear the levels.
+     */
+    @Test
+    void testBlepKept() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        int frames = 60;
+        float[] expected = render(0, true, frames);
+        for (Object[] setup : new Object[][] {
+            {0, (Consumer<Nsf>) nsf -> { nsf.setStems(true); nsf.setStems(false); }},
+            {0, (Consumer<Nsf>) nsf -> { nsf.setMixer(0, 1, -1); nsf.setMixer(0, 1, 0); }},
+            {frames / 2, (Consumer<Nsf>) nsf -> { nsf.setVolume(100); nsf.setPolyphase(false, 0); nsf.setLowPass(false, 0, 0); }},
+        }) {
+            int at = (int) setup[0];
+            @SuppressWarnings("unchecked")
+            Consumer<Nsf> change = (Consumer<Nsf>) setup[1];
+            Nsf nsf = load(buffer);
+            nsf.setBlep(true);
+            float[] actual = new float[expected.length];
+            int n = 0;
+            int[] r = new int[1];
+            for (int i = 0; i < frames; i++) {
+                if (i == at) {
+                    change.accept(nsf);
+                }
+                float[] w = nsf.emulate(r);
+                System.arraycopy(w, 0, actual, n, r[0]);
+                n += r[0];
+            }
+            assertArrayEquals(expected, actual, "at " + at);
+        }
+    }
+
+    /**
+     * @param chips the expansion chips, the bits of the header
+     * @param init address, value pairs written once
+     * @param play addresses written by the frame counter, read when negated
+     * @return an nsf of a program writing the registers
+     */
+    static byte[] nsf(int chips, int[] init, int[] play) {
+        byte[] buffer = new byte[0x80 + 0x1000];
+        System.arraycopy("NESM\u001a\u0001\u0001\u0001".getBytes(), 0, buffer, 0, 8);
+        int[] header = {0x8000, 0x8000, 0x8800}; // load, init, play
+        for (int i = 0; i < header.length; i++) {
+            buffer[8 + i * 2] = (byte) header[i];
+            buffer[9 + i * 2] = (byte) (header[i] >> 8);
+        }
+        buffer[0x6e] = (byte) 16666;
+        buffer[0x6f] = (byte) (16666 >> 8);
+        buffer[0x7b] = (byte) chips;
+
+        int pc = 0x80;
+        for (int i = 0; i < init.length; i += 2) {
+            pc = code(buffer, pc, 0xa9, init[i + 1], 0x8d, init[i], init[i] >> 8); // LDA #v, STA a
+        }
+        buffer[pc] = 0x60; // RTS
+
+        pc = 0x80 + 0x800;
+        pc = code(buffer, pc, 0xe6, 0x00); // INC $00
+        for (int address : play) {
+            pc = address < 0 ?
+                code(buffer, pc, 0xad, -address, -address >> 8) : // LDA a
+                code(buffer, pc, 0xa5, 0x00, 0x8d, address, address >> 8); // LDA $00, STA a
+        }
+        buffer[pc] = 0x60; // RTS
+        return buffer;
+    }
+
+    /** @return the next pc */
+    private static int code(byte[] buffer, int pc, int... bytes) {
+        for (int b : bytes) {
+            buffer[pc++] = (byte) b;
+        }
+        return pc;
+    }
+
+    /** all but the fds, which maps the prg into the ram */
+    static byte[] chips() {
+        return nsf(0x3b, new int[] {
+            0x9000, 0x3f, 0x9002, 0x80, 0xa000, 0x5a, 0xa002, 0x81, 0xb000, 0x20, 0xb002, 0x80, // vrc6
+            0x9010, 0x30, 0x9030, 0x30, 0x9010, 0x20, 0x9030, 0x18, // vrc7
+            0x5015, 0x03, 0x5000, 0xbf, 0x5003, 0x01, 0x5004, 0x7a, 0x5007, 0x00, // mmc5
+            0xf800, 0xfc, 0x4800, 0xe0, 0x4800, 0, 0x4800, 0, 0x4800, 0x3f, // n106
+            0xc000, 8, 0xe000, 0x0f, 0xc000, 1, 0xe000, 0x01, // ay
+        }, new int[] {
+            0x9001, 0xa001, 0xb001, 0x9010, 0x9030, 0x5002, 0x5006, 0x5011,
+            0xf800, -0x4800, 0x4800, 0xc000, 0xe000,
+        });
+    }
+
+    /** the heavy ones, the fds with the vrc7 and the n106 */
+    static byte[] fdsChips() {
+        int[] wave = IntStream.range(0, 64).flatMap(i -> IntStream.of(0x4040 + i, (i * 2) & 0x3f)).toArray();
+        int[] init = IntStream.concat(IntStream.concat(IntStream.of(
+            0x9010, 0x10, 0x9030, 0x80, 0x9010, 0x30, 0x9030, 0x10, 0x9010, 0x20, 0x9030, 0x16, // vrc7
+            0x9010, 0x11, 0x9030, 0x90, 0x9010, 0x31, 0x9030, 0x40, 0x9010, 0x21, 0x9030, 0x18,
+            0x4089, 0x80), IntStream.of(wave)), IntStream.of(
+            0x4089, 0x00, 0x4080, 0xa0, 0x4082, 0x80, 0x4083, 0x01, 0x4087, 0x80, 0x408a, 0xe8, 0x4084, 0x85, // fds
+            0xf800, 0x80, 0x4800, 0x21, 0x4800, 0x43, 0x4800, 0x65, 0x4800, 0x87, 0x4800, 0xa9, 0x4800, 0xcb, 0x4800, 0xed, 0x4800, 0x0f, // n106
+            0xf800, 0xf0, 0x4800, 0x40, 0x4800, 0, 0x4800, 0x03, 0x4800, 0, 0x4800, 0xe8, 0x4800, 0, 0x4800, 0x00, 0x4800, 0x0c,
+            0xf800, 0xf8, 0x4800, 0x40, 0x4800, 0, 0x4800, 0x02, 0x4800, 0, 0x4800, 0xf0, 0x4800, 0, 0x4800, 0x00, 0x4800, 0x7f // 8 channels
+        )).toArray();
+        return nsf(0x16, init, new int[] {
+            0x9010, 0x9030, 0x4082, 0x4086, 0x4088, 0xf800, -0x4800, 0x4800,
+        });
+    }
+
+    /** the same samples on the fork join pool, also by the buses */
+    @Test
+    void testParallel() throws Exception {
+        for (byte[] buffer : List.of(chips(), fdsChips())) {
+            testParallel(buffer);
+        }
+    }
+
+    /** the same samples on the fork join pool, also by the buses */
+    private static void testParallel(byte[] buffer) throws Exception {
+        int frames = 120;
+        for (Consumer<Nsf> mixer : List.<Consumer<Nsf>>of(nsf -> {}, nsf -> nsf.setMixer(6, 1, -1))) {
+            float[] expected = renderStereo(buffer, frames, mixer);
+            float[] actual = renderStereo(buffer, frames, mixer.andThen(nsf -> nsf.setParallel(true)));
+            assertArrayEquals(expected, actual);
+            double energy = 0;
+            for (float sample : expected) {
+                energy += (sample - expected[0]) * (sample - expected[0]);
+            }
+Debug.println("energy: " + energy);
+            assertTrue(energy > 0);
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "vavi.test", matches = "true")
+    void benchmarkStereo() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        for (int i = 0; i < 5; i++) {
+            long t0 = System.nanoTime();
+            render(0, false, 1200);
+            long t1 = System.nanoTime();
+            renderStereo(buffer, 1200, nsf -> {});
+            long t2 = System.nanoTime();
+            renderStereo(buffer, 1200, nsf -> {
+                nsf.setMixer(0, 1, -0.5f);
+                nsf.setMixer(1, 1, 0.5f);
+            });
+            long t3 = System.nanoTime();
+Debug.println("mono: %d ms, stereo: %d ms, panned: %d ms".formatted((t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000, (t3 - t2) / 1_000_000));
+        }
+    }
+
+    /**
+     * one after another against the fork join pool, for the multi chip nsfs.
+     * <pre>
+     * mvn test -Dtest=NesApuTest#benchmarkParallel -Dvavi.test=true
+     * </pre>
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "vavi.test", matches = "true")
+    void benchmarkParallel() throws Exception {
+Debug.println("processors: " + Runtime.getRuntime().availableProcessors() + ", parallelism: " + ForkJoinPool.getCommonPoolParallelism());
+        int[] r = new int[1];
+        for (String name : List.of("chips", "fds")) {
+            byte[] buffer = name.equals("chips") ? chips() : fdsChips();
+            for (int i = 0; i < 5; i++) {
+                long[] times = new long[2];
+                for (int parallel = 0; parallel < 2; parallel++) {
+                    Nsf nsf = load(buffer);
+                    nsf.setParallel(parallel == 1);
+                    long t = System.nanoTime();
+                    for (int j = 0; j < 1200; j++) {
+                        nsf.emulate(r);
+                    }
+                    times[parallel] = System.nanoTime() - t;
+                }
+Debug.println("%s: sequential: %d ms, parallel: %d ms, %.2fx".formatted(name, times[0] / 1_000_000, times[1] / 1_000_000, (double) times[0] / times[1]));
+            }
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "vavi.test", matches = "true")
+    void benchmarkStems() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        int[] r = new int[1];
+        for (int i = 0; i < 5; i++) {
+            long t0 = System.nanoTime();
+            Nsf nsf = load(buffer);
+            nsf.setStems(true);
+            for (int j = 0; j < 1200; j++) {
+                nsf.emulateStems(r);
+            }
+            long t1 = System.nanoTime();
+            for (int c = 0; c < 5; c++) {
+                nsf = load(buffer);
+                nsf.disable(~(1 << c));
+                for (int j = 0; j < 1200; j++) {
+                    nsf.emulate(r);
+                }
+            }
+            long t2 = System.nanoTime();
+Debug.println("stems: %d ms, solos: %d ms".formatted((t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000));
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "vavi.test", matches = "true")
+    void benchmarkBlep() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            long t0 = System.nanoTime();
+            render(0, false, 1200);
+            long t1 = System.nanoTime();
+            render(0, true, 1200);
+            long t2 = System.nanoTime();
+Debug.println("fir: %d ms, blep: %d ms".formatted((t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000));
+        }
+    }
+}
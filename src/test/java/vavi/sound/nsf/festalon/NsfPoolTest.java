@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+
+/**
+ * NsfPoolTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+class NsfPoolTest {
+
+    String in = "src/test/resources/test.nsf";
+
+    static void setup(Nsf nsf, int song) {
+        nsf.controlSong(song);
+        nsf.setSound(44100, 1);
+        nsf.disable(0);
+        nsf.setVolume(100);
+        nsf.setLowPass(false, 0, 0);
+    }
+
+    @Test
+    void testReusedSameOutput() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+
+        NsfPool pool = new NsfPool();
+
+        // play another song halfway, then reuse it
+        Nsf used = pool.acquire(buffer, buffer.length);
+        setup(used, 4);
+        int[] r = new int[1];
+        for (int i = 0; i < 77; i++) {
+            used.emulate(r);
+        }
+        pool.release(used);
+
+        Nsf nsf0 = (Nsf) Nsf.load(buffer, buffer.length);
+        setup(nsf0, 1);
+        Nsf nsf1 = pool.acquire(buffer, buffer.length);
+        assertSame(used, nsf1);
+        setup(nsf1, 1);
+
+        int[] r0 = new int[1];
+        int[] r1 = new int[1];
+        for (int i = 0; i < 300; i++) {
+            float[] w0 = nsf0.emulate(r0);
+            float[] w1 = nsf1.emulate(r1);
+            assertEquals(r0[0], r1[0]);
+            assertArrayEquals(Arrays.copyOf(w0, r0[0]), Arrays.copyOf(w1, r1[0]));
+        }
+    }
+
+    /** the modes of the previous use are not carried over */
+    @Test
+    void testReusedDefaults() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+
+        NsfPool pool = new NsfPool();
+
+        Nsf used = pool.acquire(buffer, buffer.length);
+        setup(used, 4);
+        used.setOutChannels(2);
+        used.setMixer(0, 0.5f, -1);
+        used.setPolyphase(true, 1);
+        used.setLowPass(true, 1000, 2);
+        used.setParallel(true);
+        used.setJit(true);
+        used.disable(0x3);
+        int[] r = new int[1];
+        for (int i = 0; i < 77; i++) {
+            used.emulate(r);
+        }
+        used.setBlep(true);
+        used.setStems(true);
+        used.setFixedPoint(true);
+        pool.release(used);
+
+        // as few settings as needed, the rest are the defaults
+        Nsf nsf0 = (Nsf) Nsf.load(buffer, buffer.length);
+        nsf0.controlSong(1);
+        nsf0.setSound(44100, 1);
+        nsf0.setVolume(100);
+        Nsf nsf1 = pool.acquire(buffer, buffer.length);
+        assertSame(used, nsf1);
+        nsf1.controlSong(1);
+        nsf1.setSound(44100, 1);
+        nsf1.setVolume(100);
+
+        int[] r0 = new int[1];
+        int[] r1 = new int[1];
+        for (int i = 0; i < 300; i++) {
+            float[] w0 = nsf0.emulate(r0);
+            float[] w1 = nsf1.emulate(r1);
+            assertEquals(r0[0], r1[0]);
+            assertArrayEquals(Arrays.copyOf(w0, r0[0]), Arrays.copyOf(w1, r1[0]));
+        }
+    }
+}
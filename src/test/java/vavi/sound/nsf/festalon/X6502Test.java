@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import vavi.util.Debug;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * X6502Test.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+class X6502Test {
+
+    String in = "src/test/resources/test.nsf";
+
+    @Test
+    void testNoAllocationPerFrame() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+
+        Nsf nsf = (Nsf) Nsf.load(buffer, buffer.length);
+        nsf.controlSong(0);
+        nsf.setSound(44100, 1);
+        nsf.disable(0);
+        nsf.setVolume(100);
+        nsf.setLowPass(false, 0, 0);
+
+        int[] r = new int[1];
+        // warm up, until c2 has compiled the filter, the vector api allocates its vectors before
+        for (int i = 0; i < 6000; i++) {
+            nsf.emulate(r);
+        }
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long b0 = mx.getThreadAllocatedBytes(id);
+        long b1 = mx.getThreadAllocatedBytes(id);
+        int frames = 600;
+        for (int i = 0; i < frames; i++) {
+            nsf.emulate(r);
+        }
+        long b2 = mx.getThreadAllocatedBytes(id);
+
+        long allocated = (b2 - b1) - (b1 - b0);
+Debug.println("allocated: " + allocated + " bytes / " + frames + " frames");
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    void testJitSameOutput() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        int songs = Nsf.load(buffer, buffer.length).totalSongs;
+        assertTrue(songs > 1);
+        for (int song = 0; song < songs; song++) {
+            assertSameOutput(buffer, song, 200, (nsf, frame) -> nsf.setJit(true));
+        }
+    }
+
+    /** the expansion sounds, and the fds runs the prg in the ram */
+    @Test
+    void testJitSameOutputChips() throws Exception {
+        for (byte[] buffer : List.of(NesApuTest.chips(), NesApuTest.fdsChips(), fdsBanks())) {
+            assertSameOutput(buffer, 0, 300, (nsf, frame) -> nsf.setJit(true));
+        }
+    }
+
+    /** switched on and off while playing */
+    @Test
+    void testJitSwitched() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        for (byte[] b : List.of(buffer, fdsBanks())) {
+            assertSameOutput(b, 0, 300, (nsf, frame) -> nsf.setJit(frame % 20 < 13));
+            assertSameOutput(b, 0, 300, (nsf, frame) -> {
+                nsf.setJit(frame % 20 < 13);
+                nsf.setPredecode(frame % 7 < 4);
+            });
+        }
+    }
+
+    @Test
+    void testPredecodeSameOutput() throws Exception {
+        byte[] buffer = Files.readAllBytes(Path.of(in));
+        int songs = Nsf.load(buffer, buffer.length).totalSongs;
+        for (int song = 0; song < songs; song++) {
+            assertSameOutput(buffer, song, 200, (nsf, frame) -> nsf.setPredecode(true));
+        }
+        for (byte[] b : List.of(NesApuTest.chips(), NesApuTest.fdsChips(), fdsBanks())) {
+            assertSameOutput(b, 0, 300, (nsf, frame) -> nsf.setPredecode(true));
+            assertSameOutput(b, 0, 300, (nsf, frame) -> nsf.setPredecode(frame % 20 < 13));
+        }
+    }
+
+    /**
+     * renders with and without the execution mode
+     * @param mode set before every frame of the other
+     */
+    static void assertSameOutput(byte[] buffer, int song, int frames, BiConsumer<Nsf, Integer> mode) throws Exception {
+        Nsf[] nsfs = new Nsf[2];
+        for (int i = 0; i < nsfs.length; i++) {
+            nsfs[i] = (Nsf) Nsf.load(buffer, buffer.length);
+            nsfs[i].controlSong(song);
+            nsfs[i].setSound(44100, 1);
+            nsfs[i].disable(0);
+            nsfs[i].setVolume(100);
+            nsfs[i].setLowPass(false, 0, 0);
+        }
+
+        int[] r0 = new int[1];
+        int[] r1 = new int[1];
+        for (int i = 0; i < frames; i++) {
+            mode.accept(nsfs[1], i);
+            float[] w0 = nsfs[0].emulate(r0);
+            float[] w1 = nsfs[1].emulate(r1);
+            assertEquals(r0[0], r1[0]);
+            assertArrayEquals(Arrays.copyOf(w0, r0[0]), Arrays.copyOf(w1, r1[0]), "song " + song + ", frame " + i);
+        }
+    }
+
+    /** @return the next address */
+    private static int code(byte[] buffer, int address, int... bytes) {
+        for (int b : bytes) {
+            buffer[0x80 + address - 0x8000] = (byte) b;
+            address++;
+        }
+        return address;
+    }
+
+    /**
+     * An fds nsf, the prg is copied into the ram by the banks. The play switches
+     * the bank of $9000 between two of a hot loop with other immediates, and
+     * rewrites the immediate of a hot loop of its own.
+     */
+    static byte[] fdsBanks() {
+        byte[] buffer = new byte[0x80 + 0x3000];
+        System.arraycopy("NESM\u001a\u0001\u0001\u0001".getBytes(), 0, buffer, 0, 8);
+        int[] header = {0x8000, 0x8000, 0x8400}; // load, init, play
+        for (int i = 0; i < header.length; i++) {
+            buffer[8 + i * 2] = (byte) header[i];
+            buffer[9 + i * 2] = (byte) (header[i] >> 8);
+        }
+        buffer[0x6e] = (byte) 16666;
+        buffer[0x6f] = (byte) (16666 >> 8);
+        buffer[0x71] = 1; // $9000
+        buffer[0x7b] = 0x04;
+
+        int pc = 0x8000;
+        pc = code(buffer, pc, 0xa9, 0x80, 0x8d, 0x89, 0x40); // LDA #$80, STA $4089
+        pc = code(buffer, pc, 0xa2, 0x00); // LDX #0
+        pc = code(buffer, pc, 0x8a, 0x0a, 0x29, 0x3f, 0x9d, 0x40, 0x40, 0xe8, 0xe0, 0x40, 0xd0, 0xf4); // TXA, ASL, AND #$3f, STA $4040,X, INX, CPX #$40, BNE
+        for (int[] w : new int[][] {{0x4089, 0x00}, {0x4080, 0xa0}, {0x4082, 0x80}, {0x4083, 0x01}, {0x4087, 0x80}}) {
+            pc = code(buffer, pc, 0xa9, w[1], 0x8d, w[0], w[0] >> 8); // LDA #v, STA a
+        }
+        code(buffer, pc, 0x60); // RTS
+
+        pc = 0x8400;
+        pc = code(buffer, pc, 0xe6, 0x00); // INC $00
+        pc = code(buffer, pc, 0xa5, 0x00, 0x29, 0x01, 0x18, 0x69, 0x01, 0x8d, 0xf9, 0x5f); // LDA $00, AND #1, CLC, ADC #1, STA $5ff9
+        pc = code(buffer, pc, 0x20, 0x00, 0x90); // JSR $9000
+        int immediate = pc + 5 + 1;
+        pc = code(buffer, pc, 0xee, immediate, immediate >> 8); // INC immediate
+        pc = code(buffer, pc, 0xa2, 0x20); // LDX #$20
+        pc = code(buffer, pc, 0xa9, 0x00, 0x9d, 0x00, 0x02, 0xca, 0xd0, 0xf8); // LDA #immediate, STA $0200,X, DEX, BNE
+        pc = code(buffer, pc, 0xad, 0x05, 0x02, 0x8d, 0x82, 0x40); // LDA $0205, STA $4082
+        code(buffer, pc, 0x60); // RTS
+
+        // banks 1 and 2 at $9000
+        for (int bank = 1; bank <= 2; bank++) {
+            pc = 0x8000 + bank * 0x1000;
+            pc = code(buffer, pc, 0xa2, 0x40); // LDX #$40
+            pc = code(buffer, pc, 0xa9, bank == 1 ? 0xa8 : 0x9f, 0x9d, 0x80, 0x02, 0xca, 0xd0, 0xf8); // LDA #v, STA $0280,X, DEX, BNE
+            pc = code(buffer, pc, 0xad, 0x81, 0x02, 0x8d, 0x80, 0x40); // LDA $0281, STA $4080
+            code(buffer, pc, 0x60); // RTS
+        }
+        return buffer;
+    }
+
+    /** ldx #0; loop: lda $8100,x; clc; adc #1; sta $0200,x; inx; bne loop; jmp $8000 */
+    static final byte[] program = {
+            (byte) 0xa2, 0x00, (byte) 0xbd, 0x00, (byte) 0x81, 0x18, 0x69, 0x01,
+            (byte) 0x9d, 0x00, 0x02, (byte) 0xe8, (byte) 0xd0, (byte) 0xf4, 0x4c, 0x00, (byte) 0x80
+    };
+
+    /** ldx #0; loop: lda $8100,x; clc; adc #1; sta $00,x; inx; bne loop; jmp $8000, without i/o */
+    static final byte[] ramProgram = {
+            (byte) 0xa2, 0x00, (byte) 0xbd, 0x00, (byte) 0x81, 0x18, 0x69, 0x01,
+            (byte) 0x95, 0x00, (byte) 0xe8, (byte) 0xd0, (byte) 0xf5, 0x4c, 0x00, (byte) 0x80
+    };
+
+    /** @return nano seconds */
+    static long run(byte[] program, Consumer<X6502> mode, int frames) {
+        byte[] ram = new byte[0x800];
+        byte[] prg = Arrays.copyOf(program, 0x8000);
+        X6502 cpu = new X6502(ram, false, null);
+        NesApu apu = new NesApu(cpu);
+        cpu.power();
+        cpu.setReader(0x0000, 0x1fff, (address, dataBus) -> ram[address & 0x7ff] & 0xff, ram);
+        cpu.setWriter(0x0000, 0x1fff, (address, value) -> ram[address & 0x7ff] = (byte) value, ram);
+        cpu.setDirectReader(0x0000, 0x07ff, ram, 0);
+        cpu.setReader(0x8000, 0xffff, (address, dataBus) -> prg[address - 0x8000] & 0xff, prg);
+        cpu.setDirectReader(0x8000, 0xffff, prg, 0);
+        apu.power();
+        mode.accept(cpu);
+        cpu.pc = 0x8000;
+
+        long t = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            cpu.run(apu, 262 * (256 + 85));
+            cpu.timestamp = 0;
+        }
+        return System.nanoTime() - t;
+    }
+
+    /** @return the median of the rounds after the warm up ones */
+    static long median(byte[] program, Consumer<X6502> mode, int frames, int warmUps, int rounds) {
+        for (int i = 0; i < warmUps; i++) {
+            run(program, mode, frames);
+        }
+        long[] times = new long[rounds];
+        for (int i = 0; i < rounds; i++) {
+            times[i] = run(program, mode, frames);
+        }
+        Arrays.sort(times);
+        return times[rounds / 2];
+    }
+
+    /**
+     * The interpreter against the predecoded instructions and the jit on the same synthetic loops,
+     * the one storing through the bus and the one storing into the zero page.
+     * <pre>
+     * mvn test -Dtest=X6502Test#benchmarkJit -Dvavi.test=true
+     * </pre>
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "vavi.test", matches = "true")
+    void benchmarkJit() {
+        int frames = 3000;
+        for (byte[] loop : List.of(program, ramProgram)) {
+            long s = median(loop, cpu -> {}, frames, 3, 7);
+            long p = median(loop, cpu -> cpu.setPredecode(true), frames, 3, 7);
+            long j = median(loop, cpu -> cpu.setJit(true), frames, 3, 7);
+Debug.println("%s: switch: %d ms, predecode: %d ms, %.2fx, jit: %d ms, %.2fx".formatted(loop == ramProgram ? "ram" : "bus",
+        s / 1_000_000, p / 1_000_000, (double) s / p, j / 1_000_000, (double) s / j));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.nsf.festalon.ext;
+
+import java.lang.management.ManagementFactory;
+
+import vavi.util.Debug;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * OpllTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/17 umjammer initial version <br>
+ */
+class OpllTest {
+
+    static final int CLOCK = 3579545;
+
+    /** @return outputs of a note on every channel with the instrument */
+    static short[] play(Opll opll, int inst, int samples) {
+        for (int ch = 0; ch < 6; ch++) {
+            opll.writeReg(0x10 + ch, 0x80 + ch * 8);
+            opll.writeReg(0x30 + ch, (inst + ch) % 16 << 4);
+            opll.writeReg(0x20 + ch, 0x10 | 4 << 1);
+        }
+        short[] outs = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            outs[i] = opll.calc();
+        }
+        return outs;
+    }
+
+    /** the instances share the tables but not the state */
+    @Test
+    void testInstancesIndependent() throws Exception {
+        short[] expected = play(new Opll(CLOCK), 1, 4096);
+
+        Opll opll = new Opll(CLOCK);
+        play(new Opll(CLOCK), 7, 4096);
+        assertArrayEquals(expected, play(opll, 1, 4096));
+    }
+
+    /** a block is the same as the samples one by one */
+    @Test
+    void testBlock() throws Exception {
+        short[] expected = play(new Opll(CLOCK), 3, 4096);
+
+        Opll opll = new Opll(CLOCK);
+        play(opll, 3, 0);
+        short[] actual = new short[4096];
+        for (int i = 0; i < actual.length; i += 1000) {
+            opll.calc(actual, i, Math.min(1000, actual.length - i));
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    /** a load allocates the registers and the slots only, the tables were about 400KB */
+    @Test
+    void testAllocationPerLoad() throws Exception {
+        new Opll(CLOCK);
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long b0 = mx.getThreadAllocatedBytes(id);
+        new Opll(CLOCK);
+        long b1 = mx.getThreadAllocatedBytes(id);
+Debug.println("allocated: " + (b1 - b0) + " bytes / load");
+        assertTrue(b1 - b0 < 16 * 1024);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "vavi.test", matches = "true")
+    void benchmarkLoad() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            long t0 = System.nanoTime();
+            for (int j = 0; j < 1000; j++) {
+                new Opll(CLOCK);
+            }
+            long t1 = System.nanoTime();
+Debug.println("load: %.1f us".formatted((t1 - t0) / 1000 / 1000d));
+        }
+    }
+}